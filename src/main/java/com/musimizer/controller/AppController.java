@@ -5,16 +5,31 @@ import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import com.musimizer.service.AlbumDurationService;
+import com.musimizer.service.AlbumMetadataService;
 import com.musimizer.service.AlbumService;
 import com.musimizer.settings.DefaultApplicationSettings;
 import com.musimizer.service.PlaybackService;
-import com.musimizer.repository.AlbumRepository;
+import com.musimizer.repository.AlbumDiscovery;
+import com.musimizer.repository.AlbumMetadata;
+import com.musimizer.repository.AlbumMetadataStore;
+import com.musimizer.repository.DurationCache;
+import com.musimizer.repository.FileAlbumRepository;
+import com.musimizer.ui.AlbumArtLoader;
+import com.musimizer.ui.BackgroundIndexer;
+import com.musimizer.ui.ImageCache;
+import com.musimizer.ui.ThumbnailCache;
 import com.musimizer.ui.dialogs.SettingsDialog;
+import com.musimizer.util.AudioTags;
 import com.musimizer.util.ExceptionHandler;
 import com.musimizer.util.SettingsManager;
 
 import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.Label;
@@ -22,20 +37,29 @@ import javafx.scene.control.ListView;
 import javafx.stage.Stage;
 
 public class AppController {
+    private static final Logger LOGGER = Logger.getLogger(AppController.class.getName());
     private final Stage stage;
     private AlbumService albumService;
     private final PlaybackService playbackService;
+    private final ThumbnailCache thumbnailCache;
+    private final ImageCache imageCache;
+    private final AlbumArtLoader albumArtLoader;
+    private final BackgroundIndexer backgroundIndexer;
+    private final AlbumDurationService albumDurationService;
+    private AlbumMetadataService albumMetadataService;
     private final ListView<Path> albumListView;
     private final Button pickButton;
     private final Button backButton;
     private final Label titleLabel;
     private static final String DEFAULT_TITLE = "Randomly Selected Albums";
     private static final String BOOKMARKS_TITLE = "Bookmarked Albums";
+    private static final String NEW_ARRIVALS_TITLE = "New Arrivals Since Last Scan";
     
     private enum ViewMode {
         RANDOM,
         BOOKMARKS,
-        SEARCH_RESULTS
+        SEARCH_RESULTS,
+        NEW_ARRIVALS
     }
     
     private ViewMode currentView = ViewMode.RANDOM;
@@ -49,7 +73,14 @@ public class AppController {
         this.titleLabel = titleLabel;
 
         this.playbackService = new PlaybackService();
-
+        this.thumbnailCache = new ThumbnailCache(SettingsManager.getThumbnailCachePath());
+        this.imageCache = new ImageCache(SettingsManager.getImageCacheBytes());
+        this.albumArtLoader = new AlbumArtLoader(this::getAlbumService, thumbnailCache, imageCache,
+                Math.min(4, Runtime.getRuntime().availableProcessors()));
+        this.backgroundIndexer = new BackgroundIndexer(this::getAlbumService, this::getAlbumMetadataService,
+                thumbnailCache, 2, Math.max(1, Runtime.getRuntime().availableProcessors() / 2), 2);
+        this.albumDurationService = new AlbumDurationService(
+                new DurationCache(SettingsManager.getDurationCachePath()), 4);
     }
 
     public void initialize() {
@@ -72,15 +103,93 @@ public class AppController {
         return albumService;
     }
 
+    public ThumbnailCache getThumbnailCache() {
+        return thumbnailCache;
+    }
+
+    public ImageCache getImageCache() {
+        return imageCache;
+    }
+
+    public AlbumArtLoader getAlbumArtLoader() {
+        return albumArtLoader;
+    }
+
+    public AlbumDurationService getAlbumDurationService() {
+        return albumDurationService;
+    }
+
+    public AlbumMetadataService getAlbumMetadataService() {
+        return albumMetadataService;
+    }
+
+    /**
+     * Starts extracting the art and tags of the whole library in the background, restarting any run in progress.
+     */
+    public void startBackgroundIndexing() {
+        backgroundIndexer.start(SettingsManager.getIndexerBytesPerSecond());
+    }
+
+    /**
+     * Re-reads the tags and durations of the albums whose files changed since the last refresh, in the background.
+     */
+    public void refreshAlbumMetadata() {
+        AlbumService service = albumService;
+        if (albumMetadataService == null || service == null) {
+            return;
+        }
+        albumMetadataService.refreshAsync(service).exceptionally(e -> {
+            LOGGER.log(Level.WARNING, "Album metadata refresh failed", e);
+            return null;
+        });
+    }
+
+    public void stopBackgroundIndexing() {
+        backgroundIndexer.stop();
+    }
+
+    public void pauseBackgroundIndexing() {
+        backgroundIndexer.pause();
+    }
+
+    public void resumeBackgroundIndexing() {
+        backgroundIndexer.resume();
+    }
+
+    public boolean isBackgroundIndexingPaused() {
+        return backgroundIndexer.isPaused();
+    }
+
+    /**
+     * @return the progress of background indexing, updated on the FX thread
+     */
+    public ReadOnlyObjectProperty<BackgroundIndexer.Progress> backgroundIndexingProgressProperty() {
+        return backgroundIndexer.progressProperty();
+    }
+
     private void initializeWithSettings() {
         try {
-            AlbumRepository albumRepository = new com.musimizer.repository.FileAlbumRepository();
+            FileAlbumRepository albumRepository = new FileAlbumRepository(
+                SettingsManager.getCatalogFilePath(),
+                SettingsManager.getDeviceId());
+            albumRepository.setFolderImageNames(SettingsManager.getFolderImageNames());
+            albumRepository.setAlbumDiscovery(new AlbumDiscovery(
+                AlbumDiscovery.Mode.parse(SettingsManager.getAlbumDiscovery()),
+                SettingsManager.getAlbumDiscoveryMaxDepth(),
+                SettingsManager.isFoldDiscFolders()));
             albumService = new AlbumService(
                 albumRepository, 
                 Paths.get(SettingsManager.getMusicDir()),
                 SettingsManager.getExclusionFilePath(),
                 new DefaultApplicationSettings()
             );
+            if (albumMetadataService != null) {
+                albumMetadataService.shutdown();
+            }
+            albumMetadataService = new AlbumMetadataService(
+                new AlbumMetadataStore(SettingsManager.getAlbumMetadataPath(), Paths.get(SettingsManager.getMusicDir())),
+                albumDurationService,
+                Math.max(2, Runtime.getRuntime().availableProcessors()));
             albumService.loadExcludedAlbums();
             albumService.loadSavedPicks();
 
@@ -91,6 +200,12 @@ public class AppController {
             updateAlbumList(albumService.getCurrentPicks());
             titleLabel.setText(DEFAULT_TITLE);
 
+            // The indexer reads tags along with the art; without it, metadata is refreshed on its own
+            if (SettingsManager.isBackgroundIndexing()) {
+                startBackgroundIndexing();
+            } else {
+                refreshAlbumMetadata();
+            }
         } catch (Exception e) {
             ExceptionHandler.handle(e, "initializing album picker");
         }
@@ -131,10 +246,24 @@ public class AppController {
                     SettingsManager.setApplyExclusionsToSearch(settings.applyExclusionsToSearch);
                 }
 
-                // Reinitialize if music directory was changed
+                // Saved before reinitializing, which starts background indexing only if it is enabled
+                boolean backgroundIndexingChanged = settings.backgroundIndexing != SettingsManager.isBackgroundIndexing();
+                if (backgroundIndexingChanged) {
+                    SettingsManager.setBackgroundIndexing(settings.backgroundIndexing);
+                }
+
+                // Reinitialize if music directory was changed; that also restarts background indexing
                 if (needsReinitialization) {
                     initializeWithSettings();
                 }
+
+                if (backgroundIndexingChanged) {
+                    if (!settings.backgroundIndexing) {
+                        stopBackgroundIndexing();
+                    } else if (!needsReinitialization && albumService != null) {
+                        startBackgroundIndexing();
+                    }
+                }
             }
 
             // Exit if no music directory is set
@@ -155,7 +284,7 @@ public class AppController {
     }
 
     public boolean isExcluded(Path albumPath) {
-        return albumService.getExcludedAlbums().contains(albumPath);
+        return albumService.isExcluded(albumPath);
     }
 
     public void showSearchResults(List<String> searchTerms, String keywords) {
@@ -204,6 +333,21 @@ public class AppController {
         });
     }
     
+    public void showNewArrivals() {
+        Platform.runLater(() -> {
+            try {
+                List<Path> newArrivals = albumService.findNewArrivals();
+                updateAlbumList(newArrivals);
+                pickButton.setVisible(false);
+                backButton.setVisible(true);
+                currentView = ViewMode.NEW_ARRIVALS;
+                titleLabel.setText(newArrivals.isEmpty() ? "No New Arrivals." : NEW_ARRIVALS_TITLE);
+            } catch (Exception e) {
+                ExceptionHandler.handle(e, "loading new arrivals");
+            }
+        });
+    }
+    
     public void toggleBookmark(Path albumPath) {
         try {
             albumService.toggleBookmark(albumPath);
@@ -223,6 +367,10 @@ public class AppController {
         return currentView == ViewMode.SEARCH_RESULTS;
     }
     
+    public boolean isShowingNewArrivals() {
+        return currentView == ViewMode.NEW_ARRIVALS;
+    }
+    
     public boolean isShowingRandomPicks() {
         return currentView == ViewMode.RANDOM;
     }
@@ -249,7 +397,7 @@ public class AppController {
     
     public void playAlbum(Path albumPath) {
         try {
-            playbackService.playAlbum(albumPath);
+            playbackService.playAlbum(albumPath, albumService.getTracks(albumPath));
         } catch (Exception e) {
             ExceptionHandler.handle(e, "playing album");
         }
@@ -258,8 +406,59 @@ public class AppController {
     public String albumPathToDisplayString(Path albumPath) {
         return albumService.albumPathToDisplayString(albumPath);
     }
+
+    /**
+     * Describes an album from its stored metadata, without reading any file, so it is safe to call from the FX thread.
+     *
+     * @param albumPath the album directory
+     * @return artist, title, year, genre, track count and duration as far as known, or empty if
+     *         the album's metadata has not been read yet
+     */
+    public Optional<String> describeAlbum(Path albumPath) {
+        AlbumService service = albumService;
+        AlbumMetadataService metadataService = albumMetadataService;
+        if (service == null || metadataService == null) {
+            return Optional.empty();
+        }
+        OptionalLong albumId = service.getCachedAlbumId(albumPath);
+        if (albumId.isEmpty()) {
+            return Optional.empty();
+        }
+        return metadataService.getMetadata(albumId.getAsLong()).map(AppController::describe);
+    }
+
+    private static String describe(AlbumMetadata metadata) {
+        AudioTags tags = metadata.tags();
+        StringBuilder text = new StringBuilder();
+        if (tags.effectiveAlbumArtist() != null) {
+            text.append(tags.effectiveAlbumArtist());
+        }
+        if (tags.album() != null) {
+            text.append(text.length() > 0 ? " - " : "").append(tags.album());
+        }
+        if (tags.year() > 0) {
+            text.append(text.length() > 0 ? " " : "").append('(').append(tags.year()).append(')');
+        }
+        if (text.length() > 0) {
+            text.append('\n');
+        }
+        if (tags.genre() != null) {
+            text.append(tags.genre()).append(", ");
+        }
+        int trackCount = metadata.tracks().size();
+        long seconds = metadata.durationMillis() / 1000;
+        text.append(trackCount).append(trackCount == 1 ? " track, " : " tracks, ")
+            .append(seconds >= 3600
+                    ? String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60)
+                    : String.format("%d:%02d", seconds / 60, seconds % 60));
+        if (metadata.unknownDurations() > 0) {
+            text.append('+');
+        }
+        return text.toString();
+    }
     
     public void updateAlbumList(Collection<Path> albums) {
+        LOGGER.fine(imageCache::toString);
         albumListView.getItems().setAll(albums);
     }
 }
@@ -0,0 +1,352 @@
+package com.musimizer.repository;
+
+import com.musimizer.util.LongHashSet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Immutable, indexed view of the albums found in a music directory.
+ * Every album has an ordinal (its position in the catalog) and a relative key
+ * ({@code Artist/Album}, always '/'-separated) that is used in the persisted files.
+ * The catalog is itself a {@code List<Path>} so it can be handed out wherever the
+ * plain album list was used before.
+ * <p>
+ * Each album also gets a stable 64-bit ID derived from a hash of its key. IDs never collide
+ * within a catalog: on a collision the later key (in key order) is re-hashed with a salt.
+ * IDs found in the previous {@link CatalogSnapshot} are carried over unchanged.
+ * <p>
+ * The scan may also record, per album, the file name of the best folder image (such as
+ * {@code cover.jpg}) and an {@link AlbumManifest} of its tracks, so the art pipeline and playback
+ * can use them without listing the directory again. Albums whose manifest lists no audio file
+ * (folders of scans or cue sheets, or empty ones) are flagged, so that picks and search can skip
+ * them without touching the disk.
+ */
+public class AlbumCatalog extends AbstractList<Path> implements RandomAccess {
+    private final Path musicDir;
+    private final Path[] albums;
+    private final String[] keys;
+    private final Map<String, Integer> ordinalsByKey;
+    private final long[] ids;
+    private final long[] sortedIds;
+    private final int[] sortedOrdinals;
+    private final String[] folderImages;
+    private final AlbumManifest[] manifests;
+    private final BitSet withoutAudio;
+
+    private AlbumCatalog(Path musicDir, Path[] albums, String[] folderImages, AlbumManifest[] manifests,
+                         CatalogSnapshot previous) {
+        this.musicDir = musicDir.toAbsolutePath();
+        this.albums = albums;
+        this.folderImages = folderImages != null ? folderImages : new String[albums.length];
+        this.manifests = manifests != null ? manifests : new AlbumManifest[albums.length];
+        this.withoutAudio = new BitSet(albums.length);
+        for (int i = 0; i < this.manifests.length; i++) {
+            if (this.manifests[i] != null && this.manifests[i].trackCount() == 0) {
+                withoutAudio.set(i);
+            }
+        }
+        this.keys = new String[albums.length];
+        this.ordinalsByKey = new HashMap<>(albums.length * 4 / 3 + 1);
+        for (int i = 0; i < albums.length; i++) {
+            keys[i] = toKey(this.musicDir, albums[i]);
+            if (keys[i] != null) {
+                ordinalsByKey.put(keys[i], i);
+            }
+        }
+        this.ids = assignIds(previous);
+
+        Integer[] byId = new Integer[albums.length];
+        for (int i = 0; i < byId.length; i++) {
+            byId[i] = i;
+        }
+        Arrays.sort(byId, (a, b) -> Long.compare(ids[a], ids[b]));
+        this.sortedIds = new long[albums.length];
+        this.sortedOrdinals = new int[albums.length];
+        for (int i = 0; i < byId.length; i++) {
+            sortedOrdinals[i] = byId[i];
+            sortedIds[i] = ids[byId[i]];
+        }
+    }
+
+    private long[] assignIds(CatalogSnapshot previous) {
+        long[] assigned = new long[albums.length];
+        LongHashSet taken = new LongHashSet(albums.length);
+        boolean[] done = new boolean[albums.length];
+
+        if (previous != null && previous.getMusicDir().equals(musicDir.toString())) {
+            for (int i = 0; i < previous.size(); i++) {
+                int ordinal = ordinalOfKey(previous.keyAt(i));
+                if (ordinal >= 0 && taken.add(previous.idAt(i))) {
+                    assigned[ordinal] = previous.idAt(i);
+                    done[ordinal] = true;
+                }
+            }
+        }
+
+        Integer[] byKey = new Integer[albums.length];
+        for (int i = 0; i < byKey.length; i++) {
+            byKey[i] = i;
+        }
+        Arrays.sort(byKey, Comparator.comparing(i -> keys[i] != null ? keys[i] : albums[i].toString()));
+        for (int ordinal : byKey) {
+            if (done[ordinal]) {
+                continue;
+            }
+            String key = keys[ordinal] != null ? keys[ordinal] : albums[ordinal].toString();
+            long id = hashKey(key, 0);
+            for (int salt = 1; !taken.add(id); salt++) {
+                id = hashKey(key, salt);
+            }
+            assigned[ordinal] = id;
+        }
+        return assigned;
+    }
+
+    /**
+     * Hashes an album key into a 64-bit ID (FNV-1a over the UTF-8 bytes, followed by a finalizing mix).
+     *
+     * @param key the album key
+     * @param salt 0 for the primary ID, higher values to resolve collisions
+     * @return the ID
+     */
+    static long hashKey(String key, int salt) {
+        long hash = 0xCBF29CE484222325L ^ salt;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Creates a catalog over the given albums.
+     *
+     * @param musicDir the music directory the albums live in
+     * @param albums the album directories, in catalog order
+     * @return the catalog, or the given list itself if it already is a catalog for this directory
+     */
+    public static AlbumCatalog of(Path musicDir, List<Path> albums) {
+        if (albums instanceof AlbumCatalog catalog && catalog.musicDir.equals(musicDir.toAbsolutePath())) {
+            return catalog;
+        }
+        return new AlbumCatalog(musicDir, albums.toArray(new Path[0]), null, null, null);
+    }
+
+    /**
+     * Creates a catalog over the given albums, reusing the IDs recorded in a previous snapshot.
+     *
+     * @param musicDir the music directory the albums live in
+     * @param albums the album directories, in catalog order
+     * @param previous the snapshot of the previous scan, or null
+     * @return the catalog
+     */
+    public static AlbumCatalog of(Path musicDir, List<Path> albums, CatalogSnapshot previous) {
+        return new AlbumCatalog(musicDir, albums.toArray(new Path[0]), null, null, previous);
+    }
+
+    /**
+     * Creates a catalog over the given albums and their manifests, reusing the IDs recorded in a
+     * previous snapshot. Each album's folder image is the best one of its manifest.
+     *
+     * @param musicDir the music directory the albums live in
+     * @param albums the album directories, in catalog order
+     * @param manifests the manifest of each album, parallel to {@code albums}
+     * @param previous the snapshot of the previous scan, or null
+     * @return the catalog
+     */
+    public static AlbumCatalog withManifests(Path musicDir, List<Path> albums, List<AlbumManifest> manifests,
+                                             CatalogSnapshot previous) {
+        if (manifests.size() != albums.size()) {
+            throw new IllegalArgumentException("Expected one manifest per album");
+        }
+        String[] folderImages = new String[albums.size()];
+        for (int i = 0; i < folderImages.length; i++) {
+            List<String> images = manifests.get(i).folderImages();
+            folderImages[i] = images.isEmpty() ? null : images.get(0);
+        }
+        return new AlbumCatalog(musicDir, albums.toArray(new Path[0]), folderImages,
+                manifests.toArray(new AlbumManifest[0]), previous);
+    }
+
+    /**
+     * Rebuilds a catalog from a persisted snapshot without touching the file system.
+     *
+     * @param musicDir the music directory the snapshot was taken of
+     * @param snapshot the snapshot
+     * @return the catalog, with the snapshot's IDs
+     */
+    public static AlbumCatalog fromSnapshot(Path musicDir, CatalogSnapshot snapshot) {
+        Path absoluteMusicDir = musicDir.toAbsolutePath();
+        Path[] albums = new Path[snapshot.size()];
+        String[] folderImages = new String[albums.length];
+        AlbumManifest[] manifests = new AlbumManifest[albums.length];
+        for (int i = 0; i < albums.length; i++) {
+            albums[i] = absoluteMusicDir.resolve(snapshot.keyAt(i));
+            folderImages[i] = snapshot.folderImageAt(i);
+            manifests[i] = snapshot.manifestAt(i);
+        }
+        return new AlbumCatalog(musicDir, albums, folderImages, manifests, snapshot);
+    }
+
+    /**
+     * Converts an album path into the '/'-separated key used in persisted files.
+     *
+     * @param musicDir the music directory
+     * @param album the album directory
+     * @return the key, or null if the album is not inside the music directory
+     */
+    public static String toKey(Path musicDir, Path album) {
+        Path absoluteMusicDir = musicDir.toAbsolutePath();
+        Path absoluteAlbum = album.toAbsolutePath();
+        if (!absoluteAlbum.startsWith(absoluteMusicDir)) {
+            return null;
+        }
+        return absoluteMusicDir.relativize(absoluteAlbum).toString().replace(File.separator, "/");
+    }
+
+    public Path getMusicDir() {
+        return musicDir;
+    }
+
+    @Override
+    public Path get(int ordinal) {
+        return albums[ordinal];
+    }
+
+    @Override
+    public int size() {
+        return albums.length;
+    }
+
+    /**
+     * @param ordinal the album ordinal
+     * @return the relative key of the album
+     */
+    public String keyOf(int ordinal) {
+        return keys[ordinal];
+    }
+
+    /**
+     * @param key a relative album key as stored in the exclusion file
+     * @return the ordinal of the album, or -1 if the catalog does not contain it
+     */
+    public int ordinalOfKey(String key) {
+        Integer ordinal = ordinalsByKey.get(key);
+        return ordinal != null ? ordinal : -1;
+    }
+
+    /**
+     * @param album an album directory
+     * @return the ordinal of the album, or -1 if the catalog does not contain it
+     */
+    public int ordinalOf(Path album) {
+        String key = toKey(musicDir, album);
+        return key != null ? ordinalOfKey(key) : -1;
+    }
+
+    /**
+     * @param ordinal the album ordinal
+     * @return the file name of the album's folder image, or null if the scan found none
+     */
+    public String folderImageOf(int ordinal) {
+        return folderImages[ordinal];
+    }
+
+    /**
+     * @param ordinal the album ordinal
+     * @return the album's manifest, or null if the catalog was not built by a scan that records them
+     */
+    public AlbumManifest manifestOf(int ordinal) {
+        return manifests[ordinal];
+    }
+
+    /**
+     * @param ordinal the album ordinal
+     * @return false if the scan found no audio file in the album, true if it found some or recorded no manifest
+     */
+    public boolean hasAudio(int ordinal) {
+        return !withoutAudio.get(ordinal);
+    }
+
+    /**
+     * @param ordinal the album ordinal
+     * @return the stable 64-bit ID of the album
+     */
+    public long idOf(int ordinal) {
+        return ids[ordinal];
+    }
+
+    /**
+     * @param id an album ID
+     * @return the ordinal of the album, or -1 if the catalog does not contain it
+     */
+    public int ordinalOfId(long id) {
+        int index = Arrays.binarySearch(sortedIds, id);
+        return index >= 0 ? sortedOrdinals[index] : -1;
+    }
+
+    /**
+     * @param index a position in ID order
+     * @return the album ID at that position
+     */
+    public long sortedIdAt(int index) {
+        return sortedIds[index];
+    }
+
+    /**
+     * @param index a position in ID order
+     * @return the ordinal of the album at that position
+     */
+    public int ordinalAtSortedIndex(int index) {
+        return sortedOrdinals[index];
+    }
+
+    /**
+     * @return the IDs of all albums, sorted ascending
+     */
+    public long[] sortedIds() {
+        return sortedIds.clone();
+    }
+
+    /**
+     * @param discovery the discovery settings of the scan that produced the catalog
+     * @return a snapshot of the catalog's keys, IDs, folder images and manifests, sorted by ID, suitable for persisting
+     */
+    public CatalogSnapshot toSnapshot(AlbumDiscovery discovery) {
+        String[] sortedKeys = new String[sortedOrdinals.length];
+        String[] sortedFolderImages = new String[sortedOrdinals.length];
+        AlbumManifest[] sortedManifests = new AlbumManifest[sortedOrdinals.length];
+        for (int i = 0; i < sortedOrdinals.length; i++) {
+            sortedKeys[i] = keys[sortedOrdinals[i]];
+            sortedFolderImages[i] = folderImages[sortedOrdinals[i]];
+            sortedManifests[i] = manifests[sortedOrdinals[i]];
+        }
+        return new CatalogSnapshot(musicDir.toString(), sortedIds.clone(), sortedKeys, sortedFolderImages,
+                sortedManifests, discovery);
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        return o instanceof Path album ? ordinalOf(album) : -1;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+}
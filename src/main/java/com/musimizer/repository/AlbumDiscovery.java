@@ -0,0 +1,44 @@
+package com.musimizer.repository;
+
+import java.util.Locale;
+
+/**
+ * How the library scan decides which directories are albums.
+ *
+ * @param mode the layout the scan expects
+ * @param maxDepth in {@link Mode#AUDIO_FOLDERS} mode, the deepest level below the music directory at
+ *                 which an album is looked for; {@code Artist/Album} is at level 2
+ * @param foldDiscFolders in {@link Mode#AUDIO_FOLDERS} mode, whether disc subfolders such as {@code CD1}
+ *                        or {@code Disc 2} are made part of the album that contains them
+ */
+public record AlbumDiscovery(Mode mode, int maxDepth, boolean foldDiscFolders) {
+
+    public enum Mode {
+        /** Every directory exactly two levels down ({@code Artist/Album}) is an album. */
+        ARTIST_ALBUM,
+        /** Every directory that contains audio files is an album, at any level up to the depth limit. */
+        AUDIO_FOLDERS;
+
+        /**
+         * @param value a mode name as stored in the settings, in any case and with '-' for '_'
+         * @return the mode, or {@link #ARTIST_ALBUM} if the value is not recognized
+         */
+        public static Mode parse(String value) {
+            if (value != null) {
+                for (Mode mode : values()) {
+                    if (mode.name().equals(value.trim().replace('-', '_').toUpperCase(Locale.ROOT))) {
+                        return mode;
+                    }
+                }
+            }
+            return ARTIST_ALBUM;
+        }
+    }
+
+    /** The {@code Artist/Album} layout the scan has always expected. */
+    public static final AlbumDiscovery ARTIST_ALBUM = new AlbumDiscovery(Mode.ARTIST_ALBUM, 2, false);
+
+    public AlbumDiscovery {
+        maxDepth = Math.max(1, maxDepth);
+    }
+}
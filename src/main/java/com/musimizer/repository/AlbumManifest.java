@@ -0,0 +1,151 @@
+package com.musimizer.repository;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The files of one album directory that matter to playback and art, as captured by the library scan:
+ * its audio files in playing order (by name, and by disc number across disc subfolders) with their
+ * sizes, and its folder image candidates, best first. Lets callers find tracks without listing the
+ * directory again. Files of disc subfolders folded into the album are named by their '/'-separated
+ * path relative to the album directory.
+ * <p>
+ * File names are kept NUL-joined in a single string per album, since NUL never occurs in a file
+ * name; a library of hundreds of thousands of albums would otherwise hold millions of small strings.
+ */
+public final class AlbumManifest {
+    private static final char SEPARATOR = '\0';
+    private static final List<String> AUDIO_EXTENSIONS = List.of(".mp3", ".m4a", ".aac", ".flac", ".wav", ".ogg");
+
+    /**
+     * The playing order of the tracks of one folder: by name, ignoring case, so that it is the same
+     * on every platform whatever order its paths sort in. Names differing only in case keep a fixed order.
+     */
+    public static final Comparator<String> TRACK_ORDER =
+            String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+
+    /** Manifest of a directory without audio files or images. */
+    public static final AlbumManifest EMPTY = new AlbumManifest(List.of(), new long[0], List.of());
+
+    private final String trackNames;
+    private final long[] trackSizes;
+    private final String folderImages;
+
+    /**
+     * @param trackNames the audio file names, in playing order
+     * @param trackSizes the file sizes, parallel to {@code trackNames}
+     * @param folderImages the folder image file names, best first
+     */
+    public AlbumManifest(List<String> trackNames, long[] trackSizes, List<String> folderImages) {
+        if (trackNames.size() != trackSizes.length) {
+            throw new IllegalArgumentException("Expected one size per track");
+        }
+        this.trackNames = String.join(String.valueOf(SEPARATOR), trackNames);
+        this.trackSizes = trackSizes;
+        this.folderImages = String.join(String.valueOf(SEPARATOR), folderImages);
+    }
+
+    /**
+     * @param fileName a file name
+     * @return whether the file is an audio file, judging by its extension
+     */
+    public static boolean isAudioFile(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && AUDIO_EXTENSIONS.contains(name.substring(dot));
+    }
+
+    public int trackCount() {
+        return trackSizes.length;
+    }
+
+    /**
+     * @return the audio file names, in playing order
+     */
+    public List<String> trackNames() {
+        return split(trackNames);
+    }
+
+    /**
+     * @param albumDir the album directory
+     * @return the audio files, in playing order
+     */
+    public List<Path> tracks(Path albumDir) {
+        List<String> names = trackNames();
+        List<Path> tracks = new ArrayList<>(names.size());
+        for (String name : names) {
+            tracks.add(albumDir.resolve(name));
+        }
+        return tracks;
+    }
+
+    /**
+     * @return the name of the first audio file, or null if the album has none
+     */
+    public String firstTrack() {
+        if (trackSizes.length == 0) {
+            return null;
+        }
+        int end = trackNames.indexOf(SEPARATOR);
+        return end < 0 ? trackNames : trackNames.substring(0, end);
+    }
+
+    /**
+     * @param index a position in name order
+     * @return the size of that audio file when it was scanned
+     */
+    public long trackSize(int index) {
+        return trackSizes[index];
+    }
+
+    /**
+     * @return the total size of the audio files
+     */
+    public long totalSize() {
+        long total = 0;
+        for (long size : trackSizes) {
+            total += size;
+        }
+        return total;
+    }
+
+    /**
+     * @return the folder image file names, best first
+     */
+    public List<String> folderImages() {
+        return split(folderImages);
+    }
+
+    private static List<String> split(String joined) {
+        if (joined.isEmpty()) {
+            return List.of();
+        }
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        for (int end; (end = joined.indexOf(SEPARATOR, start)) >= 0; start = end + 1) {
+            parts.add(joined.substring(start, end));
+        }
+        parts.add(joined.substring(start));
+        return parts;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof AlbumManifest other && trackNames.equals(other.trackNames)
+                && Arrays.equals(trackSizes, other.trackSizes) && folderImages.equals(other.folderImages);
+    }
+
+    @Override
+    public int hashCode() {
+        return trackNames.hashCode() * 31 + folderImages.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "AlbumManifest[tracks=" + trackNames() + ", folderImages=" + folderImages() + "]";
+    }
+}
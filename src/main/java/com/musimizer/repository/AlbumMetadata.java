@@ -0,0 +1,61 @@
+package com.musimizer.repository;
+
+import com.musimizer.util.AudioTags;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+
+/**
+ * What is known about one album from reading its files, along with the state of the files it was read from.
+ *
+ * @param directoryModified the modification time of the album directory, in milliseconds;
+ *                          it changes whenever a file is added, removed or renamed
+ * @param tracks the album's audio files, sorted by name
+ * @param tags the tags of the first track that has any, or {@link AudioTags#EMPTY}
+ * @param durationMillis the total duration of the tracks whose duration is known
+ * @param unknownDurations the number of tracks whose duration could not be read
+ */
+public record AlbumMetadata(long directoryModified, List<TrackFile> tracks, AudioTags tags,
+                            long durationMillis, int unknownDurations) {
+
+    /**
+     * An audio file as it was when the metadata was read.
+     *
+     * @param name the path within the album directory, '/'-separated, such as {@code CD1/01.flac} for a folded disc folder
+     * @param size the file size
+     * @param modified the modification time, in milliseconds
+     */
+    public record TrackFile(String name, long size, long modified) {
+    }
+
+    public AlbumMetadata {
+        tracks = List.copyOf(tracks);
+    }
+
+    /**
+     * Checks whether the album's files are still those the metadata was read from, with one stat
+     * of the directory and one of each track; the directory is not listed.
+     *
+     * @param albumDir the album directory
+     * @return false if the directory or any track changed or can no longer be read
+     */
+    public boolean isCurrent(Path albumDir) {
+        try {
+            if (Files.getLastModifiedTime(albumDir).toMillis() != directoryModified) {
+                return false;
+            }
+            for (TrackFile track : tracks) {
+                BasicFileAttributes attributes = Files.readAttributes(albumDir.resolve(track.name()), BasicFileAttributes.class);
+                if (attributes.size() != track.size() || attributes.lastModifiedTime().toMillis() != track.modified()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.musimizer.repository;
+
+import com.musimizer.util.AudioTags;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persisted {@link AlbumMetadata} of the albums of one music directory, keyed by album ID.
+ * Kept next to the catalog, whose snapshot keeps album IDs stable between sessions.
+ * <p>
+ * Safe for concurrent use; {@link #save()} writes the whole store only if it has changed.
+ * The file is read on first use rather than on construction, so that creating the store costs
+ * the FX thread nothing.
+ */
+public class AlbumMetadataStore {
+    private static final Logger LOGGER = Logger.getLogger(AlbumMetadataStore.class.getName());
+    private static final int MAGIC = 0x4D534D44; // "MSMD"
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final String musicDir;
+    private final Map<Long, AlbumMetadata> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+    private volatile boolean loaded;
+
+    /**
+     * @param file the store file; on first use, the store starts empty if it is missing, unreadable
+     *             or was written for another music directory
+     * @param musicDir the music directory whose albums are stored
+     */
+    public AlbumMetadataStore(Path file, Path musicDir) {
+        this.file = file;
+        this.musicDir = musicDir.toAbsolutePath().toString();
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            try {
+                load();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not read album metadata " + file + ", starting empty", e);
+                entries.clear();
+            }
+            loaded = true;
+        }
+    }
+
+    /**
+     * @return whether the store file has been read, so that {@link #get(long)} does not block on it
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @param albumId an album ID
+     * @return the stored metadata, or null if the album has none
+     */
+    public AlbumMetadata get(long albumId) {
+        ensureLoaded();
+        return entries.get(albumId);
+    }
+
+    public void put(long albumId, AlbumMetadata metadata) {
+        ensureLoaded();
+        entries.put(albumId, metadata);
+        dirty = true;
+    }
+
+    /**
+     * Drops the metadata of albums that are no longer in the library.
+     *
+     * @param albumIds the IDs of the albums to keep
+     * @return the number of albums dropped
+     */
+    public int retainAll(Set<Long> albumIds) {
+        ensureLoaded();
+        int before = entries.size();
+        entries.keySet().retainAll(albumIds);
+        int removed = before - entries.size();
+        if (removed > 0) {
+            dirty = true;
+        }
+        return removed;
+    }
+
+    public int size() {
+        ensureLoaded();
+        return entries.size();
+    }
+
+    /**
+     * Writes the store to a temporary file and moves it into place, if anything changed since it was loaded or last saved.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(musicDir);
+            Map<Long, AlbumMetadata> snapshot = Map.copyOf(entries);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<Long, AlbumMetadata> entry : snapshot.entrySet()) {
+                out.writeLong(entry.getKey());
+                write(out, entry.getValue());
+            }
+        } catch (IOException e) {
+            dirty = true;
+            throw e;
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(musicDir)) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long albumId = in.readLong();
+                entries.put(albumId, read(in));
+            }
+        }
+    }
+
+    private static void write(DataOutputStream out, AlbumMetadata metadata) throws IOException {
+        out.writeLong(metadata.directoryModified());
+        out.writeInt(metadata.tracks().size());
+        for (AlbumMetadata.TrackFile track : metadata.tracks()) {
+            out.writeUTF(track.name());
+            out.writeLong(track.size());
+            out.writeLong(track.modified());
+        }
+        AudioTags tags = metadata.tags();
+        writeString(out, tags.artist());
+        writeString(out, tags.albumArtist());
+        writeString(out, tags.album());
+        out.writeInt(tags.year());
+        writeString(out, tags.genre());
+        out.writeInt(tags.trackNumber());
+        out.writeInt(tags.trackCount());
+        out.writeInt(tags.discNumber());
+        out.writeInt(tags.discCount());
+        out.writeLong(metadata.durationMillis());
+        out.writeInt(metadata.unknownDurations());
+    }
+
+    private static AlbumMetadata read(DataInputStream in) throws IOException {
+        long directoryModified = in.readLong();
+        int trackCount = in.readInt();
+        ArrayList<AlbumMetadata.TrackFile> tracks = new ArrayList<>(trackCount);
+        for (int i = 0; i < trackCount; i++) {
+            tracks.add(new AlbumMetadata.TrackFile(in.readUTF(), in.readLong(), in.readLong()));
+        }
+        AudioTags tags = new AudioTags(readString(in), readString(in), readString(in), in.readInt(),
+                readString(in), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+        return new AlbumMetadata(directoryModified, tracks, tags, in.readLong(), in.readInt());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeUTF(value != null ? value : "");
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        String value = in.readUTF();
+        return value.isEmpty() ? null : value;
+    }
+}
@@ -3,15 +3,37 @@ package com.musimizer.repository;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.List;
-import java.util.SequencedSet;
-import java.util.Set;
 
 public interface AlbumRepository {
     List<Path> loadAlbumPicks(Path savedPicksFile);
     void saveAlbumPicks(Path file, List<Path> albumPicks);
-    Set<Path> loadExcludedAlbums(Path musicDir, Path exclusionFile);
+
+    /**
+     * Loads the excluded albums, resolving each entry against the catalog of a completed scan.
+     *
+     * @param catalog the scanned catalog
+     * @param exclusionFile the exclusion file
+     * @return the excluded albums as catalog ordinals, plus the entries that could not be resolved
+     */
+    CatalogEntries loadExcludedAlbums(AlbumCatalog catalog, Path exclusionFile);
     void saveExcludedAlbums(Path musicDir, Path exclusionFile, Collection<Path> excludedAlbums);
-    SequencedSet<Path> loadBookmarks(Path bookmarksFile);
+
+    /**
+     * Loads the bookmarked albums, resolving each entry against the catalog of a completed scan.
+     *
+     * @param catalog the scanned catalog
+     * @param bookmarksFile the bookmarks file
+     * @return the bookmarked albums as catalog ordinals in bookmark order, plus the entries that could not be resolved
+     */
+    CatalogEntries loadBookmarks(AlbumCatalog catalog, Path bookmarksFile);
     void saveBookmarks(Path bookmarksFile, Collection<Path> bookmarks);
     List<Path> findAllAlbums(Path musicDir);
+
+    /**
+     * Compares the current album catalog with the albums this device saw at its previous scan.
+     *
+     * @param musicDir the music directory
+     * @return the diff, or null if this repository does not keep track of earlier scans
+     */
+    CatalogDiff diffWithPreviousCatalog(Path musicDir);
 }
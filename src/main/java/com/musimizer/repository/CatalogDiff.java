@@ -0,0 +1,62 @@
+package com.musimizer.repository;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Albums added to the catalog since an earlier scan.
+ * Both sides are ordered by album ID, so the diff is a single sorted merge
+ * that needs no file system access.
+ *
+ * @param current the current catalog
+ * @param addedOrdinals ordinals of albums in the current catalog that were not seen before
+ */
+public record CatalogDiff(AlbumCatalog current, int[] addedOrdinals) {
+
+    /**
+     * Compares the album IDs seen at an earlier scan against a catalog.
+     *
+     * @param previousIds the IDs seen before, sorted ascending, or null if there was no earlier scan
+     * @param current the current catalog
+     * @return the diff; empty if there was no earlier scan, so a first scan does not report everything as new
+     */
+    public static CatalogDiff compute(long[] previousIds, AlbumCatalog current) {
+        if (previousIds == null) {
+            return new CatalogDiff(current, new int[0]);
+        }
+
+        int[] added = new int[16];
+        int addedCount = 0;
+
+        int i = 0;
+        int currentSize = current.size();
+        for (int j = 0; j < currentSize; j++) {
+            long id = current.sortedIdAt(j);
+            while (i < previousIds.length && previousIds[i] < id) {
+                i++;
+            }
+            if (i == previousIds.length || previousIds[i] != id) {
+                if (addedCount == added.length) {
+                    added = Arrays.copyOf(added, addedCount * 2);
+                }
+                added[addedCount++] = current.ordinalAtSortedIndex(j);
+            }
+        }
+        return new CatalogDiff(current, Arrays.copyOf(added, addedCount));
+    }
+
+    /**
+     * @return the added albums, in catalog order
+     */
+    public List<Path> addedAlbums() {
+        int[] ordinals = addedOrdinals.clone();
+        Arrays.sort(ordinals);
+        List<Path> albums = new ArrayList<>(ordinals.length);
+        for (int ordinal : ordinals) {
+            albums.add(current.get(ordinal));
+        }
+        return albums;
+    }
+}
@@ -0,0 +1,18 @@
+package com.musimizer.repository;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Result of streaming an exclusion or bookmark file against an {@link AlbumCatalog}.
+ * Entries that match a catalog album are kept as ordinals, in file order and without duplicates.
+ * Entries that are well-formed but name an album the catalog does not contain are reported as orphans,
+ * and lines that could not be parsed at all are reported as malformed.
+ *
+ * @param catalog the catalog the entries were resolved against
+ * @param ordinals the ordinals of the matched albums, in file order
+ * @param orphaned well-formed entries that do not match any album in the catalog
+ * @param malformed descriptions of lines that could not be parsed
+ */
+public record CatalogEntries(AlbumCatalog catalog, int[] ordinals, List<Path> orphaned, List<String> malformed) {
+}
@@ -0,0 +1,214 @@
+package com.musimizer.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Persisted form of an {@link AlbumCatalog}: the album keys and their 64-bit IDs, sorted by ID,
+ * along with each album's folder image, if it has one, and its {@link AlbumManifest}, and the
+ * {@link AlbumDiscovery} settings of the scan that produced it.
+ * Loading the previous snapshot before a rescan lets albums keep their IDs across sessions,
+ * even when a hash collision was resolved differently the first time around.
+ */
+public class CatalogSnapshot {
+    private static final int MAGIC = 0x4D534354; // "MSCT"
+    private static final int VERSION = 4;
+
+    private final String musicDir;
+    private final long[] ids;
+    private final String[] keys;
+    private final String[] folderImages;
+    private final AlbumManifest[] manifests;
+    private final AlbumDiscovery discovery;
+
+    /**
+     * @param musicDir the absolute music directory the snapshot was taken of
+     * @param ids the album IDs, sorted ascending
+     * @param keys the album keys, parallel to {@code ids}
+     * @param folderImages the folder image file names, parallel to {@code ids}; null entries for none
+     * @param manifests the album manifests, parallel to {@code ids}; null entries where unknown
+     * @param discovery the discovery settings of the scan; null only for snapshots read from an older format
+     */
+    CatalogSnapshot(String musicDir, long[] ids, String[] keys, String[] folderImages, AlbumManifest[] manifests,
+                    AlbumDiscovery discovery) {
+        this.musicDir = musicDir;
+        this.ids = ids;
+        this.keys = keys;
+        this.folderImages = folderImages;
+        this.manifests = manifests;
+        this.discovery = discovery;
+    }
+
+    public String getMusicDir() {
+        return musicDir;
+    }
+
+    /**
+     * @return the discovery settings of the scan the snapshot was taken of, or null if the snapshot predates them
+     */
+    public AlbumDiscovery getDiscovery() {
+        return discovery;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @param index a position in ID order
+     * @return the album ID at that position
+     */
+    public long idAt(int index) {
+        return ids[index];
+    }
+
+    /**
+     * @param index a position in ID order
+     * @return the album key at that position
+     */
+    public String keyAt(int index) {
+        return keys[index];
+    }
+
+    /**
+     * @param index a position in ID order
+     * @return the file name of the album's folder image, or null if it has none
+     */
+    public String folderImageAt(int index) {
+        return folderImages[index];
+    }
+
+    /**
+     * @param index a position in ID order
+     * @return the manifest of the album at that position, or null if the snapshot predates manifests
+     */
+    public AlbumManifest manifestAt(int index) {
+        return manifests[index];
+    }
+
+    /**
+     * @param id an album ID
+     * @return the key recorded for the ID, or null if the snapshot does not contain it
+     */
+    public String keyOf(long id) {
+        int index = Arrays.binarySearch(ids, id);
+        return index >= 0 ? keys[index] : null;
+    }
+
+    /**
+     * Reads a snapshot written by {@link #write(Path)}.
+     *
+     * @param file the snapshot file
+     * @return the snapshot, or null if the file does not exist or has an unknown format
+     * @throws IOException if the file cannot be read
+     */
+    public static CatalogSnapshot read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) {
+                return null;
+            }
+            String musicDir = in.readUTF();
+            AlbumDiscovery discovery = null;
+            if (version >= 4) {
+                discovery = new AlbumDiscovery(AlbumDiscovery.Mode.parse(in.readUTF()), in.readInt(), in.readBoolean());
+            }
+            int count = in.readInt();
+            long[] ids = new long[count];
+            String[] keys = new String[count];
+            String[] folderImages = new String[count];
+            AlbumManifest[] manifests = new AlbumManifest[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = in.readLong();
+                keys[i] = in.readUTF();
+                if (version >= 2) {
+                    String folderImage = in.readUTF();
+                    folderImages[i] = folderImage.isEmpty() ? null : folderImage;
+                }
+                if (version >= 3) {
+                    manifests[i] = readManifest(in);
+                }
+            }
+            return new CatalogSnapshot(musicDir, ids, keys, folderImages, manifests, discovery);
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file and moves it into place, so readers never see a partial file.
+     *
+     * @param file the snapshot file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(musicDir);
+            out.writeUTF(discovery.mode().name());
+            out.writeInt(discovery.maxDepth());
+            out.writeBoolean(discovery.foldDiscFolders());
+            out.writeInt(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                out.writeLong(ids[i]);
+                out.writeUTF(keys[i]);
+                out.writeUTF(folderImages[i] != null ? folderImages[i] : "");
+                writeManifest(out, manifests[i]);
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeManifest(DataOutputStream out, AlbumManifest manifest) throws IOException {
+        if (manifest == null) {
+            out.writeInt(-1);
+            return;
+        }
+        List<String> trackNames = manifest.trackNames();
+        out.writeInt(trackNames.size());
+        for (int i = 0; i < trackNames.size(); i++) {
+            out.writeUTF(trackNames.get(i));
+            out.writeLong(manifest.trackSize(i));
+        }
+        List<String> images = manifest.folderImages();
+        out.writeInt(images.size());
+        for (String image : images) {
+            out.writeUTF(image);
+        }
+    }
+
+    private static AlbumManifest readManifest(DataInputStream in) throws IOException {
+        int trackCount = in.readInt();
+        if (trackCount < 0) {
+            return null;
+        }
+        List<String> trackNames = new ArrayList<>(trackCount);
+        long[] trackSizes = new long[trackCount];
+        for (int i = 0; i < trackCount; i++) {
+            trackNames.add(in.readUTF());
+            trackSizes[i] = in.readLong();
+        }
+        int imageCount = in.readInt();
+        List<String> images = new ArrayList<>(imageCount);
+        for (int i = 0; i < imageCount; i++) {
+            images.add(in.readUTF());
+        }
+        return new AlbumManifest(trackNames, trackSizes, images);
+    }
+}
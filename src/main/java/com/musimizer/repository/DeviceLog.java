@@ -0,0 +1,219 @@
+package com.musimizer.repository;
+
+import com.musimizer.util.LineReader;
+import com.musimizer.util.LongHashSet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Conflict-free storage for a set of entries (exclusions or bookmarks) shared between devices
+ * through a file-sync tool. Every device appends add/remove records to its own log file,
+ * {@code <name>.<deviceId>.log}, so no two devices ever write the same file.
+ * <p>
+ * Merging reads all device logs in a single pass: for each entry the record with the latest
+ * timestamp wins (ties broken by device ID, then in favour of the add). The merge is order-independent,
+ * so every device arrives at the same set no matter in which order the logs were synced.
+ * <p>
+ * Record format, one per line: {@code <epochMillis>\t<+|->\t<entry>}.
+ */
+public class DeviceLog {
+    private static final Logger LOGGER = Logger.getLogger(DeviceLog.class.getName());
+    private static final String LOG_SUFFIX = ".log";
+    private static final char ADD = '+';
+    private static final char REMOVE = '-';
+
+    private final Path directory;
+    private final String name;
+    private final String deviceId;
+    private long lastTimestamp;
+    private long nextSequence;
+
+    /**
+     * @param directory the directory holding the device logs
+     * @param name the name of the entry set, e.g. {@code excluded_albums}
+     * @param deviceId the ID of this device; must be a valid file name component
+     */
+    public DeviceLog(Path directory, String name, String deviceId) {
+        this.directory = directory;
+        this.name = name;
+        this.deviceId = deviceId;
+    }
+
+    private static final class Winner {
+        long timestamp;
+        String device;
+        boolean add;
+        // Order in which the winning record was read, to keep entries with equal timestamps in file order
+        long sequence;
+
+        Winner(long timestamp, String device, boolean add, long sequence) {
+            this.timestamp = timestamp;
+            this.device = device;
+            this.add = add;
+            this.sequence = sequence;
+        }
+
+        boolean losesTo(long otherTimestamp, String otherDevice, boolean otherAdd) {
+            if (timestamp != otherTimestamp) {
+                return timestamp < otherTimestamp;
+            }
+            int byDevice = device.compareTo(otherDevice);
+            if (byDevice != 0) {
+                return byDevice < 0;
+            }
+            return !add && otherAdd;
+        }
+    }
+
+    /**
+     * Merges a base list file with all device logs and hands the entries that are currently present to
+     * the handler. Base entries are streamed: only the logged entries and the fingerprints of the base
+     * entries already passed on are held in memory.
+     *
+     * @param baseFile a file of entries to treat as added at the beginning of time, e.g. the list file
+     *                 regenerated from the logs; any logged record overrides them. Need not exist
+     * @param handler receives the present entries, ordered by the time they were (last) added,
+     *                base entries first and entries added at the same time in the order they were listed.
+     *                The line number is the entry's position in the merged set; malformed lines of the
+     *                base file are reported with their line number in that file
+     * @throws IOException if the base file or a log cannot be read, or the handler fails
+     */
+    public void merge(Path baseFile, LineReader.LineHandler handler) throws IOException {
+        nextSequence = 0;
+        Map<String, Winner> winners = new HashMap<>();
+        if (Files.isDirectory(directory)) {
+            List<Path> logs = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, name + ".*" + LOG_SUFFIX)) {
+                stream.forEach(logs::add);
+            }
+            // Directory order varies between file systems; file name order makes ties come out the same everywhere
+            logs.sort(null);
+            for (Path log : logs) {
+                String fileName = log.getFileName().toString();
+                String device = fileName.substring(name.length() + 1, fileName.length() - LOG_SUFFIX.length());
+                readLog(log, device, winners);
+            }
+        }
+
+        int[] position = { 0 };
+        if (Files.exists(baseFile)) {
+            LongHashSet seen = new LongHashSet();
+            LineReader.forEachLine(baseFile, new LineReader.LineHandler() {
+                @Override
+                public void line(int lineNumber, String entry) throws IOException {
+                    // Every logged record is newer than the base, so logged entries are placed by their records
+                    if (!winners.containsKey(entry) && seen.add(AlbumCatalog.hashKey(entry, 0))) {
+                        handler.line(++position[0], entry);
+                    }
+                }
+
+                @Override
+                public void malformed(int lineNumber, String reason) {
+                    handler.malformed(lineNumber, reason);
+                }
+            });
+        }
+
+        List<Map.Entry<String, Winner>> present = new ArrayList<>();
+        for (Map.Entry<String, Winner> entry : winners.entrySet()) {
+            if (entry.getValue().add) {
+                present.add(entry);
+            }
+        }
+        present.sort(Comparator.comparingLong((Map.Entry<String, Winner> entry) -> entry.getValue().timestamp)
+                .thenComparingLong(entry -> entry.getValue().sequence));
+        for (Map.Entry<String, Winner> entry : present) {
+            handler.line(++position[0], entry.getKey());
+        }
+    }
+
+    private void readLog(Path log, String device, Map<String, Winner> winners) throws IOException {
+        int[] skipped = { 0 };
+        LineReader.forEachLine(log, (lineNumber, line) -> {
+            int firstTab = line.indexOf('\t');
+            if (firstTab <= 0 || firstTab + 2 >= line.length() || line.charAt(firstTab + 2) != '\t') {
+                // Typically a record cut short by a sync in progress
+                skipped[0]++;
+                return;
+            }
+            long timestamp;
+            try {
+                timestamp = Long.parseLong(line, 0, firstTab, 10);
+            } catch (NumberFormatException e) {
+                skipped[0]++;
+                return;
+            }
+            char op = line.charAt(firstTab + 1);
+            if (op != ADD && op != REMOVE) {
+                skipped[0]++;
+                return;
+            }
+            boolean add = op == ADD;
+            String entry = line.substring(firstTab + 3);
+
+            if (device.equals(deviceId)) {
+                lastTimestamp = Math.max(lastTimestamp, timestamp);
+            }
+            Winner winner = winners.get(entry);
+            if (winner == null) {
+                winners.put(entry, new Winner(timestamp, device, add, nextSequence++));
+            } else if (winner.losesTo(timestamp, device, add)) {
+                winner.timestamp = timestamp;
+                winner.device = device;
+                winner.add = add;
+                winner.sequence = nextSequence++;
+            }
+        });
+        if (skipped[0] > 0) {
+            LOGGER.warning("Skipped " + skipped[0] + " unreadable records in " + log);
+        }
+    }
+
+    /**
+     * Appends records for this device. Timestamps are kept strictly increasing within the
+     * device's own log, even if the system clock goes backwards.
+     *
+     * @param added entries added since the last save
+     * @param removed entries removed since the last save
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized void append(Collection<String> added, Collection<String> removed) throws IOException {
+        if (added.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        Files.createDirectories(directory);
+        long timestamp = Math.max(System.currentTimeMillis(), lastTimestamp + 1);
+        lastTimestamp = timestamp;
+        try (BufferedWriter writer = Files.newBufferedWriter(getLogFile(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (String entry : removed) {
+                writer.write(timestamp + "\t" + REMOVE + "\t" + entry);
+                writer.newLine();
+            }
+            for (String entry : added) {
+                writer.write(timestamp + "\t" + ADD + "\t" + entry);
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * @return the log file this device appends to
+     */
+    public Path getLogFile() {
+        return directory.resolve(name + "." + deviceId + LOG_SUFFIX);
+    }
+}
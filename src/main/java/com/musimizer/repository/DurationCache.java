@@ -0,0 +1,127 @@
+package com.musimizer.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persisted durations of audio files, keyed by absolute path. An entry holds for as long as the
+ * file keeps the size and modification time it had when it was measured, so a library that has
+ * not changed is timed without opening a single file.
+ * <p>
+ * Safe for concurrent use; {@link #save()} writes the whole cache only if it has changed.
+ */
+public class DurationCache {
+    private static final Logger LOGGER = Logger.getLogger(DurationCache.class.getName());
+    private static final int MAGIC = 0x4D534452; // "MSDR"
+    private static final int VERSION = 1;
+
+    private record Entry(long size, long modified, long millis) {
+    }
+
+    private final Path file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    /**
+     * Loads the cache file, starting empty if it is missing or unreadable.
+     *
+     * @param file the cache file
+     */
+    public DurationCache(Path file) {
+        this.file = file;
+        try {
+            load();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not read duration cache " + file + ", starting empty", e);
+            entries.clear();
+        }
+    }
+
+    /**
+     * @param track the audio file
+     * @param size its current size
+     * @param modified its current modification time, in milliseconds
+     * @return the recorded duration in milliseconds, -1 if it could not be determined, or empty if
+     *         the file was not measured at this size and modification time
+     */
+    public OptionalLong get(Path track, long size, long modified) {
+        Entry entry = entries.get(track.toAbsolutePath().toString());
+        if (entry == null || entry.size() != size || entry.modified() != modified) {
+            return OptionalLong.empty();
+        }
+        return OptionalLong.of(entry.millis());
+    }
+
+    /**
+     * Records the duration of a file as measured at the given size and modification time.
+     *
+     * @param millis the duration in milliseconds, or -1 if it could not be determined
+     */
+    public void put(Path track, long size, long modified, long millis) {
+        Entry entry = new Entry(size, modified, millis);
+        if (!entry.equals(entries.put(track.toAbsolutePath().toString(), entry))) {
+            dirty = true;
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the cache to a temporary file and moves it into place, if anything changed since it was loaded or last saved.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            Map<String, Entry> snapshot = Map.copyOf(entries);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> item : snapshot.entrySet()) {
+                out.writeUTF(item.getKey());
+                out.writeLong(item.getValue().size());
+                out.writeLong(item.getValue().modified());
+                out.writeLong(item.getValue().millis());
+            }
+        } catch (IOException e) {
+            dirty = true;
+            throw e;
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String track = in.readUTF();
+                entries.put(track, new Entry(in.readLong(), in.readLong(), in.readLong()));
+            }
+        }
+    }
+}
@@ -1,12 +1,33 @@
 package com.musimizer.repository;
 
 import com.musimizer.exception.MusicDirectoryException;
+import com.musimizer.util.LineReader;
+import com.musimizer.util.LongHashSet;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -16,8 +37,59 @@ import java.util.stream.Stream;
  */
 
 public class FileAlbumRepository implements AlbumRepository {
-    private List<Path> allAlbums = null;
-    public FileAlbumRepository() {
+    private static final Logger LOGGER = Logger.getLogger(FileAlbumRepository.class.getName());
+    private static final String JOURNAL_DIR_NAME = "journal";
+    private static final String SEEN_SUFFIX = ".seen";
+    // Only CD/Disc/Disk: "Vol. 2" and the like more often name separate albums of a series than discs of one
+    private static final Pattern DISC_FOLDER =
+            Pattern.compile("(?i)(?:cd|dis[ck])[ ._-]*(\\d{1,3})(?:\\D.*)?");
+
+    private final Path catalogFile;
+    private final InstanceCoordinator coordinator;
+    private final Map<Path, LongHashSet> baselines = new HashMap<>();
+    private final String deviceId;
+    private final Map<Path, DeviceLog> deviceLogs = new HashMap<>();
+    private AlbumCatalog allAlbums = null;
+    // IDs of the albums this device saw at its previous scan, sorted; null if there was none
+    private long[] seenBeforeScan = null;
+    private FolderImageMatcher folderImageMatcher = new FolderImageMatcher(FolderImageMatcher.DEFAULT_NAMES);
+    private AlbumDiscovery discovery = AlbumDiscovery.ARTIST_ALBUM;
+
+    /**
+     * Creates a repository that persists the album catalog (keys and album IDs) between sessions
+     * and keeps exclusions and bookmarks in per-device logs (see {@link DeviceLog}), so that copies
+     * of the data directory synced between machines merge cleanly. The plain list files are still
+     * imported and rewritten, but only as a view of the merged logs.
+     * Other instances sharing the catalog's directory are coordinated through an {@link InstanceCoordinator}.
+     *
+     * @param catalogFile the catalog snapshot file, or null to keep the catalog in memory only
+     * @param deviceId the ID of this device
+     */
+    public FileAlbumRepository(Path catalogFile, String deviceId) {
+        this.catalogFile = catalogFile;
+        this.coordinator = catalogFile != null
+                ? InstanceCoordinator.forDirectory(catalogFile.toAbsolutePath().getParent())
+                : null;
+        this.deviceId = Objects.requireNonNull(deviceId, "deviceId");
+    }
+
+    /**
+     * Sets the folder image names the scan looks for (see {@link FolderImageMatcher}).
+     * Takes effect on the next scan.
+     *
+     * @param baseNames the image file names without extension, best first
+     */
+    public void setFolderImageNames(List<String> baseNames) {
+        this.folderImageMatcher = new FolderImageMatcher(baseNames);
+    }
+
+    /**
+     * Sets how the scan decides which directories are albums. Takes effect on the next scan.
+     *
+     * @param discovery the discovery mode and its limits
+     */
+    public void setAlbumDiscovery(AlbumDiscovery discovery) {
+        this.discovery = discovery;
     }
 
     @Override
@@ -46,14 +118,24 @@ public class FileAlbumRepository implements AlbumRepository {
         }
     }
 
+    /**
+     * Streams the exclusion file merged with the device logs and resolves each entry straight into
+     * the catalog's ordinals.
+     * Entries naming albums that are no longer in the catalog and lines that cannot be parsed
+     * are reported in the result (and logged) in the same pass.
+     *
+     * @param catalog the catalog to resolve entries against
+     * @param exclusionFile the exclusion file, one album path relative to the music directory per line
+     * @return the resolved entries
+     */
     @Override
-    public Set<Path> loadExcludedAlbums(Path musicDirectory, Path exclusionFile) {
+    public CatalogEntries loadExcludedAlbums(AlbumCatalog catalog, Path exclusionFile) {
+        Path musicDirectory = catalog.getMusicDir();
         try {
-            if (!Files.exists(exclusionFile))
-                return Set.of();
-            return Files.readAllLines(exclusionFile).stream()
-                    .map(musicDirectory::resolve)
-                    .collect(Collectors.toCollection(()->new LinkedHashSet<Path>()));
+            return readEntries(catalog, exclusionFile, line -> {
+                int ordinal = catalog.ordinalOfKey(line);
+                return ordinal >= 0 ? ordinal : catalog.ordinalOf(musicDirectory.resolve(line));
+            }, musicDirectory::resolve);
         } catch (IOException e) {
             throw new MusicDirectoryException("Failed to load excluded albums", e);
         }
@@ -68,21 +150,25 @@ public class FileAlbumRepository implements AlbumRepository {
                     .map(Path::toString)
                     .map(pathString -> pathString.replace(File.separator, "/"))
                     .collect(Collectors.toList());
-            Files.write(exclusionFile, pathsAsStrings);
+            writeMerged(exclusionFile, pathsAsStrings);
         } catch (IOException e) {
             throw new MusicDirectoryException("Failed to save excluded albums", e);
         }
     }
 
+    /**
+     * Streams the bookmarks file merged with the device logs and resolves each entry straight into
+     * the catalog's ordinals.
+     *
+     * @param catalog the catalog to resolve entries against
+     * @param bookmarksFile the bookmarks file, one absolute album path per line
+     * @return the resolved entries
+     * @see #loadExcludedAlbums(AlbumCatalog, Path)
+     */
     @Override
-    public SequencedSet<Path> loadBookmarks(Path bookmarksFile) {
+    public CatalogEntries loadBookmarks(AlbumCatalog catalog, Path bookmarksFile) {
         try {
-            if (Files.exists(bookmarksFile)) {
-                return Files.readAllLines(bookmarksFile).stream()
-                        .map(Path::of)
-                        .collect(Collectors.toCollection(LinkedHashSet::new));
-            }
-            return new LinkedHashSet<>();
+            return readEntries(catalog, bookmarksFile, line -> catalog.ordinalOf(Path.of(line)), Path::of);
         } catch (IOException e) {
             throw new MusicDirectoryException("Failed to load bookmarks", e);
         }
@@ -95,12 +181,141 @@ public class FileAlbumRepository implements AlbumRepository {
             var pathsAsStrings = bookmarks.stream()
                     .map(Path::toString)
                     .collect(Collectors.toList());
-            Files.write(bookmarksFile, pathsAsStrings);
+            writeMerged(bookmarksFile, pathsAsStrings);
         } catch (IOException e) {
             throw new MusicDirectoryException("Failed to save bookmarks", e);
         }
     }
 
+    /**
+     * Records the difference to the last loaded or saved state in this device's log,
+     * then regenerates the list file from the merged logs of all devices. Changes another instance
+     * made since this one loaded the list are kept unless this instance overrides them.
+     */
+    private void writeMerged(Path file, List<String> lines) throws IOException {
+        InstanceCoordinator.LockedAction<LongHashSet> write = () -> appendAndWriteView(file, lines);
+        LongHashSet written = coordinator != null ? coordinator.withFileLock(file, write) : write.run();
+        baselines.put(file, written);
+    }
+
+    private LongHashSet appendAndWriteView(Path file, List<String> lines) throws IOException {
+        DeviceLog deviceLog = deviceLogFor(file);
+        LongHashSet baseline = baselines.getOrDefault(file, new LongHashSet());
+        LongHashSet current = new LongHashSet(lines.size());
+        List<String> added = new ArrayList<>();
+        for (String line : lines) {
+            long fingerprint = fingerprint(line);
+            if (current.add(fingerprint) && !baseline.contains(fingerprint)) {
+                added.add(line);
+            }
+        }
+
+        // The view is written in the same pass that finds the removals; both come from the merge as it streams
+        List<String> removed = new ArrayList<>();
+        LongHashSet written = new LongHashSet(lines.size());
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            deviceLog.merge(file, (position, entry) -> {
+                long fingerprint = fingerprint(entry);
+                if (baseline.contains(fingerprint) != current.contains(fingerprint)) {
+                    // Removed here, or re-added here and so moved to the end along with the other additions
+                    if (!current.contains(fingerprint)) {
+                        removed.add(entry);
+                    }
+                } else if (written.add(fingerprint)) {
+                    writer.write(entry);
+                    writer.newLine();
+                }
+            });
+            for (String line : added) {
+                if (written.add(fingerprint(line))) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+        }
+        deviceLog.append(added, removed);
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    private DeviceLog deviceLogFor(Path file) {
+        return deviceLogs.computeIfAbsent(file, f -> {
+            String fileName = f.getFileName().toString();
+            int dot = fileName.lastIndexOf('.');
+            String name = dot > 0 ? fileName.substring(0, dot) : fileName;
+            return new DeviceLog(f.toAbsolutePath().resolveSibling(JOURNAL_DIR_NAME), name, deviceId);
+        });
+    }
+
+    private static long fingerprint(String line) {
+        return AlbumCatalog.hashKey(line, 0);
+    }
+
+    private CatalogEntries readEntries(AlbumCatalog catalog, Path file,
+                                       ToIntFunction<String> resolver, Function<String, Path> toPath) throws IOException {
+        EntryCollector collector = new EntryCollector(catalog, file, resolver, toPath);
+        deviceLogFor(file).merge(file, collector);
+        baselines.put(file, collector.fingerprints);
+
+        if (!collector.malformed.isEmpty()) {
+            LOGGER.warning("Skipped " + collector.malformed.size() + " malformed entries in " + file + ": " + collector.malformed);
+        }
+        if (!collector.orphaned.isEmpty()) {
+            LOGGER.info(collector.orphaned.size() + " entries in " + file + " refer to albums that are no longer in the library");
+        }
+        return new CatalogEntries(catalog, Arrays.copyOf(collector.ordinals, collector.count),
+                collector.orphaned, collector.malformed);
+    }
+
+    /**
+     * Resolves entries into catalog ordinals as they are merged, de-duplicating on the fly.
+     */
+    private static class EntryCollector implements LineReader.LineHandler {
+        private final Path file;
+        private final ToIntFunction<String> resolver;
+        private final Function<String, Path> toPath;
+        private final BitSet seen;
+        private final List<Path> orphaned = new ArrayList<>();
+        private final List<String> malformed = new ArrayList<>();
+        private final LongHashSet fingerprints = new LongHashSet();
+        private int[] ordinals;
+        private int count;
+
+        EntryCollector(AlbumCatalog catalog, Path file, ToIntFunction<String> resolver, Function<String, Path> toPath) {
+            this.file = file;
+            this.resolver = resolver;
+            this.toPath = toPath;
+            this.seen = new BitSet(catalog.size());
+            this.ordinals = new int[16];
+        }
+
+        @Override
+        public void line(int lineNumber, String line) {
+            fingerprints.add(fingerprint(line));
+            try {
+                int ordinal = resolver.applyAsInt(line);
+                if (ordinal < 0) {
+                    orphaned.add(toPath.apply(line));
+                } else if (!seen.get(ordinal)) {
+                    seen.set(ordinal);
+                    if (count == ordinals.length) {
+                        ordinals = Arrays.copyOf(ordinals, count * 2);
+                    }
+                    ordinals[count++] = ordinal;
+                }
+            } catch (InvalidPathException e) {
+                malformed(lineNumber, e.getReason());
+            }
+        }
+
+        @Override
+        public void malformed(int lineNumber, String reason) {
+            malformed.add(file.getFileName() + ":" + lineNumber + ": " + reason);
+        }
+    }
+
     @Override
     public List<Path> findAllAlbums(Path musicDir) {
         if (!Files.exists(musicDir) || !Files.isDirectory(musicDir)) {
@@ -110,8 +325,30 @@ public class FileAlbumRepository implements AlbumRepository {
         if (allAlbums != null) 
             return allAlbums;
 
+        if (coordinator != null && !coordinator.isCatalogMaintainer()) {
+            // Another instance maintains the catalog; reuse its snapshot instead of rescanning,
+            // unless it was scanned with other discovery settings
+            CatalogSnapshot shared = readCatalogSnapshot();
+            if (shared != null && shared.getMusicDir().equals(musicDir.toAbsolutePath().toString())
+                    && discovery.equals(shared.getDiscovery())) {
+                LOGGER.info("Using catalog maintained by another instance: " + catalogFile);
+                allAlbums = AlbumCatalog.fromSnapshot(musicDir, shared);
+                recordSeenAlbums(allAlbums);
+                return allAlbums;
+            }
+        }
+
+        if (discovery.mode() == AlbumDiscovery.Mode.AUDIO_FOLDERS) {
+            List<Path> albumDirs = new ArrayList<>();
+            List<AlbumManifest> manifests = new ArrayList<>();
+            for (Path child : listDirectory(musicDir.toAbsolutePath()).subdirectories()) {
+                discoverAlbums(child, null, 1, albumDirs, manifests);
+            }
+            return saveScan(musicDir, albumDirs, manifests);
+        }
+
         try (Stream<Path> artists = Files.list(musicDir)) {
-            allAlbums = artists
+            List<Path> albumDirs = artists
                     .filter(Files::isDirectory)
                     .flatMap(artistDir -> {
                         try (Stream<Path> albums = Files.list(artistDir)) {
@@ -124,9 +361,233 @@ public class FileAlbumRepository implements AlbumRepository {
                         }
                     })
                     .collect(Collectors.toList());
-            return allAlbums;
+            List<AlbumManifest> manifests = new ArrayList<>(albumDirs.size());
+            for (Path albumDir : albumDirs) {
+                manifests.add(manifestOf(listDirectory(albumDir), List.of()));
+            }
+            return saveScan(musicDir, albumDirs, manifests);
         } catch (IOException e) {
             throw new MusicDirectoryException("Failed to list albums in directory: " + musicDir, e);
         }
     }
+
+    private AlbumCatalog saveScan(Path musicDir, List<Path> albumDirs, List<AlbumManifest> manifests) {
+        allAlbums = AlbumCatalog.withManifests(musicDir, albumDirs, manifests, readCatalogSnapshot());
+        writeCatalogSnapshot(allAlbums);
+        recordSeenAlbums(allAlbums);
+        return allAlbums;
+    }
+
+    /**
+     * Looks for albums in and below a directory: the directory is an album if it holds audio files,
+     * or, when folding disc folders, disc subfolders that do. The search does not descend into an
+     * album or below the depth limit, so every directory is listed at most once and deep trees of
+     * non-music files below an album cost nothing.
+     *
+     * @param dir the directory to look in
+     * @param listing the directory's listing if it was already taken, or null
+     * @param depth the level of the directory below the music directory
+     */
+    private void discoverAlbums(Path dir, DirectoryListing listing, int depth,
+                                List<Path> albumDirs, List<AlbumManifest> manifests) {
+        if (listing == null) {
+            listing = listDirectory(dir);
+        }
+        Map<Path, DirectoryListing> listed = new HashMap<>();
+        List<DiscFolder> discs = new ArrayList<>();
+        if (discovery.foldDiscFolders()) {
+            for (Path subdirectory : listing.subdirectories()) {
+                int discNumber = discNumberOf(subdirectory.getFileName().toString());
+                if (discNumber >= 0) {
+                    DirectoryListing discListing = listDirectory(subdirectory);
+                    listed.put(subdirectory, discListing);
+                    if (!discListing.trackSizes().isEmpty()) {
+                        discs.add(new DiscFolder(subdirectory.getFileName().toString(), discNumber, discListing));
+                    }
+                }
+            }
+        }
+        if (!listing.trackSizes().isEmpty() || !discs.isEmpty()) {
+            albumDirs.add(dir);
+            manifests.add(manifestOf(listing, discs));
+            return;
+        }
+        if (depth >= discovery.maxDepth()) {
+            return;
+        }
+        for (Path subdirectory : listing.subdirectories()) {
+            discoverAlbums(subdirectory, listed.get(subdirectory), depth + 1, albumDirs, manifests);
+        }
+    }
+
+    /**
+     * @return the disc number a folder name such as {@code CD1}, {@code Disc 2} or {@code Disk 3 - Live} denotes,
+     *         or -1 if it is not a disc folder name
+     */
+    static int discNumberOf(String folderName) {
+        Matcher matcher = DISC_FOLDER.matcher(folderName);
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    private record DirectoryListing(List<String> fileNames, SortedMap<String, Long> trackSizes,
+                                    List<Path> subdirectories) {
+    }
+
+    private record DiscFolder(String name, int number, DirectoryListing listing) {
+    }
+
+    /**
+     * Lists a directory once, collecting its file names, the sizes of its audio files and its
+     * subdirectories. The sizes come with the listing, which on some platforms saves a stat per file.
+     *
+     * @return the listing, empty if the directory cannot be listed
+     */
+    private static DirectoryListing listDirectory(Path dir) {
+        List<String> fileNames = new ArrayList<>();
+        SortedMap<String, Long> trackSizes = new TreeMap<>(AlbumManifest.TRACK_ORDER);
+        List<Path> subdirectories = new ArrayList<>();
+        try {
+            Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    String fileName = file.getFileName().toString();
+                    fileNames.add(fileName);
+                    if (attributes.isDirectory()) {
+                        subdirectories.add(file.toAbsolutePath());
+                    } else if (attributes.isRegularFile() && AlbumManifest.isAudioFile(fileName)) {
+                        trackSizes.put(fileName, attributes.size());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to list directory " + dir, e);
+        }
+        subdirectories.sort(null);
+        return new DirectoryListing(fileNames, trackSizes, subdirectories);
+    }
+
+    /**
+     * Builds an album's manifest from its directory listing and those of its folded disc folders,
+     * ranking folder images by name alone, without opening any file. The album's own tracks and
+     * images come first, then those of each disc in disc number order.
+     */
+    private AlbumManifest manifestOf(DirectoryListing album, List<DiscFolder> discs) {
+        List<String> trackNames = new ArrayList<>(album.trackSizes().keySet());
+        List<Long> sizes = new ArrayList<>(album.trackSizes().values());
+        List<String> images = new ArrayList<>(folderImageMatcher.candidates(album.fileNames()));
+        List<DiscFolder> sortedDiscs = new ArrayList<>(discs);
+        sortedDiscs.sort(Comparator.comparingInt(DiscFolder::number)
+                .thenComparing(DiscFolder::name, AlbumManifest.TRACK_ORDER));
+        for (DiscFolder disc : sortedDiscs) {
+            for (Map.Entry<String, Long> track : disc.listing().trackSizes().entrySet()) {
+                trackNames.add(disc.name() + "/" + track.getKey());
+                sizes.add(track.getValue());
+            }
+            for (String image : folderImageMatcher.candidates(disc.listing().fileNames())) {
+                images.add(disc.name() + "/" + image);
+            }
+        }
+        long[] trackSizes = new long[sizes.size()];
+        for (int i = 0; i < trackSizes.length; i++) {
+            trackSizes[i] = sizes.get(i);
+        }
+        return new AlbumManifest(trackNames, trackSizes, images);
+    }
+
+    @Override
+    public CatalogDiff diffWithPreviousCatalog(Path musicDir) {
+        AlbumCatalog current = AlbumCatalog.of(musicDir, findAllAlbums(musicDir));
+        return CatalogDiff.compute(seenBeforeScan, current);
+    }
+
+    /**
+     * Remembers which albums the previous scan on this device saw, then records the catalog's albums
+     * as seen. The record is kept per device, next to the catalog snapshot: an instance that reuses
+     * another's snapshot still finds the albums that are new to it.
+     */
+    private void recordSeenAlbums(AlbumCatalog catalog) {
+        if (catalogFile == null) {
+            return;
+        }
+        Path seenFile = catalogFile.resolveSibling(catalogFile.getFileName() + "." + deviceId + SEEN_SUFFIX);
+        String musicDir = catalog.getMusicDir().toString();
+        long[] ids = catalog.sortedIds();
+        try {
+            seenBeforeScan = coordinator.withFileLock(seenFile, () -> {
+                long[] seen = readSeenIds(seenFile, musicDir);
+                writeSeenIds(seenFile, musicDir, ids);
+                return seen;
+            });
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to update the albums seen on this device in " + seenFile, e);
+        }
+    }
+
+    /**
+     * @return the sorted album IDs recorded for the music directory, or null if none are
+     */
+    private static long[] readSeenIds(Path seenFile, String musicDir) throws IOException {
+        if (!Files.exists(seenFile)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(seenFile)))) {
+            if (!in.readUTF().equals(musicDir)) {
+                return null;
+            }
+            long[] ids = new long[in.readInt()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = in.readLong();
+            }
+            return ids;
+        } catch (EOFException e) {
+            LOGGER.log(Level.WARNING, "Ignoring truncated record of seen albums " + seenFile, e);
+            return null;
+        }
+    }
+
+    private static void writeSeenIds(Path seenFile, String musicDir, long[] ids) throws IOException {
+        Files.createDirectories(seenFile.toAbsolutePath().getParent());
+        Path tempFile = seenFile.resolveSibling(seenFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeUTF(musicDir);
+            out.writeInt(ids.length);
+            for (long id : ids) {
+                out.writeLong(id);
+            }
+        }
+        Files.move(tempFile, seenFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private CatalogSnapshot readCatalogSnapshot() {
+        if (catalogFile == null) {
+            return null;
+        }
+        try {
+            return CatalogSnapshot.read(catalogFile);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Ignoring unreadable catalog snapshot " + catalogFile, e);
+            return null;
+        }
+    }
+
+    private void writeCatalogSnapshot(AlbumCatalog catalog) {
+        if (catalogFile == null || !coordinator.isCatalogMaintainer()) {
+            return;
+        }
+        try {
+            CatalogSnapshot snapshot = catalog.toSnapshot(discovery);
+            coordinator.withFileLock(catalogFile, () -> {
+                snapshot.write(catalogFile);
+                return null;
+            });
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save catalog snapshot " + catalogFile, e);
+        }
+    }
 }
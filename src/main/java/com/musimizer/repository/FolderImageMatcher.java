@@ -0,0 +1,69 @@
+package com.musimizer.repository;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Ranks image files found in an album directory (such as {@code cover.jpg} or {@code folder.png})
+ * as candidates for the album's art.
+ * <p>
+ * Candidates are matched by base name, case-insensitively, in the configured priority order;
+ * for the same base name JPEG is preferred over PNG.
+ */
+public class FolderImageMatcher {
+    /** Base names recognized when nothing is configured, best first. */
+    public static final List<String> DEFAULT_NAMES = List.of("cover", "folder", "front", "album", "albumart");
+
+    private static final List<String> EXTENSIONS = List.of(".jpg", ".jpeg", ".png");
+
+    private final List<String> baseNames;
+
+    /**
+     * @param baseNames the file names to recognize without extension, best first
+     */
+    public FolderImageMatcher(List<String> baseNames) {
+        List<String> normalized = new ArrayList<>(baseNames.size());
+        for (String baseName : baseNames) {
+            String trimmed = baseName.trim().toLowerCase(Locale.ROOT);
+            if (!trimmed.isEmpty()) {
+                normalized.add(trimmed);
+            }
+        }
+        this.baseNames = List.copyOf(normalized);
+    }
+
+    /**
+     * @param fileName a file name within an album directory
+     * @return the rank of the file as a folder image, lower is better, or -1 if it is not a candidate
+     */
+    public int rank(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        int dot = name.lastIndexOf('.');
+        if (dot <= 0) {
+            return -1;
+        }
+        int extension = EXTENSIONS.indexOf(name.substring(dot));
+        if (extension < 0) {
+            return -1;
+        }
+        int baseName = baseNames.indexOf(name.substring(0, dot));
+        return baseName < 0 ? -1 : baseName * EXTENSIONS.size() + extension;
+    }
+
+    /**
+     * @param fileNames the file names in an album directory
+     * @return the folder images among them, best first
+     */
+    public List<String> candidates(Iterable<String> fileNames) {
+        List<String> candidates = new ArrayList<>();
+        for (String fileName : fileNames) {
+            if (rank(fileName) >= 0) {
+                candidates.add(fileName);
+            }
+        }
+        candidates.sort(Comparator.comparingInt(this::rank));
+        return candidates;
+    }
+}
@@ -0,0 +1,113 @@
+package com.musimizer.repository;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coordinates Musimizer instances that share one application data directory,
+ * for example two machines pointing at the same folder on a network drive.
+ * <p>
+ * One instance at a time holds the catalog lock for as long as it runs and is the only one
+ * that rescans the library and rewrites the catalog snapshot; the others reuse that snapshot.
+ * Writes to shared files are serialized across processes with short-lived exclusive locks.
+ * Locks are taken on separate {@code .lock} files because the data files themselves are replaced atomically.
+ */
+public class InstanceCoordinator {
+    private static final Logger LOGGER = Logger.getLogger(InstanceCoordinator.class.getName());
+    private static final String CATALOG_LOCK_FILE_NAME = "catalog.lock";
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final Map<Path, InstanceCoordinator> INSTANCES = new ConcurrentHashMap<>();
+
+    /**
+     * Work performed while holding a file lock.
+     */
+    @FunctionalInterface
+    public interface LockedAction<T> {
+        T run() throws IOException;
+    }
+
+    private final Path directory;
+    private final Map<Path, ReentrantLock> fileLocks = new ConcurrentHashMap<>();
+    private FileChannel catalogLockChannel;
+    private FileLock catalogLock;
+
+    private InstanceCoordinator(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the coordinator for a data directory. All repositories in this JVM share it,
+     * since file locks are held per process and cannot be taken twice.
+     *
+     * @param directory the shared application data directory
+     * @return the coordinator
+     */
+    public static InstanceCoordinator forDirectory(Path directory) {
+        return INSTANCES.computeIfAbsent(directory.toAbsolutePath().normalize(), InstanceCoordinator::new);
+    }
+
+    /**
+     * Tries to become (or confirms that this instance is) the one maintaining the shared catalog.
+     * An instance that loses the election tries again on the next call, so leadership passes on
+     * once the previous maintainer exits.
+     *
+     * @return true if this instance holds the catalog lock
+     */
+    public synchronized boolean isCatalogMaintainer() {
+        if (catalogLock != null && catalogLock.isValid()) {
+            return true;
+        }
+        try {
+            Files.createDirectories(directory);
+            if (catalogLockChannel == null || !catalogLockChannel.isOpen()) {
+                catalogLockChannel = FileChannel.open(directory.resolve(CATALOG_LOCK_FILE_NAME),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            }
+            catalogLock = catalogLockChannel.tryLock();
+        } catch (IOException | OverlappingFileLockException e) {
+            LOGGER.log(Level.WARNING, "Could not take catalog lock in " + directory + ", assuming another instance holds it", e);
+            catalogLock = null;
+        }
+        return catalogLock != null;
+    }
+
+    /**
+     * Runs an action while holding an exclusive lock associated with the given file.
+     * Blocks until other instances have released the lock.
+     *
+     * @param file the shared file about to be read and written
+     * @param action the work to do under the lock
+     * @return the action's result
+     * @throws IOException if the lock cannot be taken or the action fails
+     */
+    public <T> T withFileLock(Path file, LockedAction<T> action) throws IOException {
+        Path lockFile = file.toAbsolutePath().normalize().resolveSibling(file.getFileName() + LOCK_SUFFIX);
+        // File locks are per process, so threads of this JVM are serialized per file first;
+        // a thread waiting on another process for one file does not hold up writes to the others
+        ReentrantLock threadLock = fileLocks.computeIfAbsent(lockFile, f -> new ReentrantLock());
+        threadLock.lock();
+        try {
+            Files.createDirectories(lockFile.getParent());
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock();
+                try {
+                    return action.run();
+                } finally {
+                    lock.release();
+                }
+            }
+        } finally {
+            threadLock.unlock();
+        }
+    }
+}
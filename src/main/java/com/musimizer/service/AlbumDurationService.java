@@ -0,0 +1,150 @@
+package com.musimizer.service;
+
+import com.musimizer.repository.DurationCache;
+import com.musimizer.util.AudioMetadataRetriever;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Computes album durations by summing the durations of their tracks, as read from the container
+ * headers by {@link AudioMetadataRetriever#getDurationMillis}. Track durations are kept in a
+ * {@link DurationCache}, so only files that were added or changed since the last run are opened.
+ * <p>
+ * Albums and the tracks within them are timed in parallel on a pool of this service's own, so
+ * that timing a whole library neither waits on one disk read at a time nor takes over the common pool.
+ */
+public class AlbumDurationService {
+    private static final Logger LOGGER = Logger.getLogger(AlbumDurationService.class.getName());
+
+    /**
+     * @param millis the total duration of the tracks whose duration is known
+     * @param trackCount the number of audio files in the album
+     * @param unknownTracks the number of those whose duration could not be read
+     */
+    public record AlbumDuration(long millis, int trackCount, int unknownTracks) {
+        public static final AlbumDuration EMPTY = new AlbumDuration(0, 0, 0);
+
+        /**
+         * @return whether every track's duration is known, so that {@link #millis()} is the full length
+         */
+        public boolean isComplete() {
+            return unknownTracks == 0;
+        }
+    }
+
+    private final DurationCache cache;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param cache the persisted track durations
+     * @param parallelism the number of files read at the same time
+     */
+    public AlbumDurationService(DurationCache cache, int parallelism) {
+        this.cache = cache;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    /**
+     * @param albumService the library the album belongs to, which knows its tracks
+     * @param album an album directory
+     * @return the album's duration, or {@link AlbumDuration#EMPTY} if it has no tracks
+     */
+    public AlbumDuration getAlbumDuration(AlbumService albumService, Path album) {
+        return pool.submit(() -> sumTracks(albumService.getTracks(album))).join();
+    }
+
+    /**
+     * Computes the durations of many albums at once, then saves the cache if any track was measured.
+     *
+     * @param albumService the library the albums belong to, which knows their tracks
+     * @param albums album directories
+     * @return each album's duration, in the iteration order of {@code albums}
+     */
+    public Map<Path, AlbumDuration> getAlbumDurations(AlbumService albumService, Collection<Path> albums) {
+        List<Path> distinct = albums.stream().distinct().toList();
+        List<AlbumDuration> durations = pool.submit(() -> distinct.parallelStream()
+                .map(album -> sumTracks(albumService.getTracks(album)))
+                .toList()).join();
+        Map<Path, AlbumDuration> result = new LinkedHashMap<>();
+        for (int i = 0; i < distinct.size(); i++) {
+            result.put(distinct.get(i), durations.get(i));
+        }
+        save();
+        return result;
+    }
+
+    /**
+     * Writes the track durations measured so far to disk.
+     */
+    public void save() {
+        try {
+            cache.save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not save track durations", e);
+        }
+    }
+
+    /**
+     * Sums the durations of the given tracks, reading them in parallel on the pool of the calling
+     * thread, or on the common pool when not called from a pool.
+     *
+     * @param tracks audio files
+     * @return their total duration
+     */
+    public AlbumDuration sumTracks(List<Path> tracks) {
+        return sumTracks(tracks, bytes -> { });
+    }
+
+    /**
+     * Sums the durations of the given tracks like {@link #sumTracks(List)}, reporting the bytes read
+     * from each track whose duration was not cached.
+     *
+     * @param tracks audio files
+     * @param bytesRead receives the bytes read per track; called from the threads reading the tracks
+     * @return their total duration
+     */
+    public AlbumDuration sumTracks(List<Path> tracks, LongConsumer bytesRead) {
+        long[] millis = tracks.parallelStream().mapToLong(track -> trackDuration(track, bytesRead)).toArray();
+        long total = 0;
+        int unknown = 0;
+        for (long trackMillis : millis) {
+            if (trackMillis < 0) {
+                unknown++;
+            } else {
+                total += trackMillis;
+            }
+        }
+        return new AlbumDuration(total, tracks.size(), unknown);
+    }
+
+    private long trackDuration(Path track, LongConsumer bytesRead) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(track, BasicFileAttributes.class);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not read attributes of " + track, e);
+            return -1;
+        }
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+        OptionalLong cached = cache.get(track, size, modified);
+        if (cached.isPresent()) {
+            return cached.getAsLong();
+        }
+        long millis = AudioMetadataRetriever.getDurationMillis(track, bytesRead);
+        cache.put(track, size, modified, millis);
+        return millis;
+    }
+}
@@ -0,0 +1,231 @@
+package com.musimizer.service;
+
+import com.musimizer.repository.AlbumMetadata;
+import com.musimizer.repository.AlbumMetadataStore;
+import com.musimizer.util.AudioMetadataRetriever;
+import com.musimizer.util.AudioTags;
+import com.musimizer.util.IoThrottle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the {@link AlbumMetadataStore} in step with the library. A refresh stats each album's
+ * directory and tracks, and re-reads tags and durations only for albums whose files changed, so
+ * refreshing an unchanged library opens no audio file at all.
+ * <p>
+ * Album art is not part of the store: the thumbnail cache already keeps it against the size and
+ * modification time of the file it came from.
+ */
+public class AlbumMetadataService {
+    private static final Logger LOGGER = Logger.getLogger(AlbumMetadataService.class.getName());
+    // Full refreshes read at full speed
+    private static final IoThrottle UNTHROTTLED = new IoThrottle(0);
+
+    /**
+     * @param unchanged the number of albums whose stored metadata was still current
+     * @param updated the number of albums that were read
+     * @param removed the number of albums dropped because they left the library
+     */
+    public record RefreshResult(int unchanged, int updated, int removed) {
+    }
+
+    private enum Outcome { UNCHANGED, UPDATED, UNREADABLE }
+
+    private final AlbumMetadataStore store;
+    private final AlbumDurationService durationService;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param store the persisted metadata
+     * @param durationService computes the durations of changed albums
+     * @param parallelism the number of albums checked or read at the same time
+     */
+    public AlbumMetadataService(AlbumMetadataStore store, AlbumDurationService durationService, int parallelism) {
+        this.store = store;
+        this.durationService = durationService;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    /**
+     * Never waits for the store to be read from disk, so it is safe to call from the FX thread.
+     *
+     * @param albumId an album ID
+     * @return the album's metadata as of the last refresh, or empty if it has not been read yet
+     *         or the store has not been loaded yet
+     */
+    public Optional<AlbumMetadata> getMetadata(long albumId) {
+        return store.isLoaded() ? Optional.ofNullable(store.get(albumId)) : Optional.empty();
+    }
+
+    /**
+     * Lets refreshes in progress finish and releases this service's threads. The service must
+     * not be refreshed afterwards.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Brings the store up to date with every album of the library, then saves it.
+     *
+     * @param albumService the library to refresh from
+     * @return what the refresh did
+     */
+    public RefreshResult refresh(AlbumService albumService) {
+        return refreshAsync(albumService).join();
+    }
+
+    /**
+     * Like {@link #refresh(AlbumService)}, but on this service's threads.
+     */
+    public CompletableFuture<RefreshResult> refreshAsync(AlbumService albumService) {
+        return CompletableFuture.supplyAsync(() -> doRefresh(albumService), pool);
+    }
+
+    private RefreshResult doRefresh(AlbumService albumService) {
+        long start = System.nanoTime();
+        List<Path> albums = albumService.getAllAlbums();
+        Set<Long> albumIds = ConcurrentHashMap.newKeySet(albums.size());
+        AtomicInteger unchanged = new AtomicInteger();
+        AtomicInteger updated = new AtomicInteger();
+        albums.parallelStream().forEach(album -> {
+            OptionalLong albumId = albumService.getAlbumId(album);
+            if (albumId.isEmpty()) {
+                return;
+            }
+            albumIds.add(albumId.getAsLong());
+            Outcome outcome;
+            try {
+                outcome = update(album, albumId.getAsLong(), albumService.getTracks(album), UNTHROTTLED);
+            } catch (InterruptedException e) {
+                // An unlimited throttle never waits
+                Thread.currentThread().interrupt();
+                return;
+            }
+            switch (outcome) {
+                case UNCHANGED -> unchanged.incrementAndGet();
+                case UPDATED -> updated.incrementAndGet();
+                case UNREADABLE -> { }
+            }
+        });
+        int removed = completeRefresh(albumIds);
+        RefreshResult result = new RefreshResult(unchanged.get(), updated.get(), removed);
+        LOGGER.info("Album metadata refreshed in " + (System.nanoTime() - start) / 1_000_000 + " ms: " + result);
+        return result;
+    }
+
+    /**
+     * Brings the metadata of one album up to date, for callers that schedule the albums of a
+     * refresh themselves. Each read is charged to the throttle with the bytes it actually took as
+     * soon as it completes, so that the next read waits until the rate allows it.
+     *
+     * @param albumService the library the album belongs to
+     * @param album the album directory
+     * @param albumId the album's ID
+     * @param throttle limits the rate of reads
+     * @return whether the album's files had changed and were read
+     * @throws InterruptedException if interrupted while waiting on the throttle
+     */
+    public boolean refreshAlbum(AlbumService albumService, Path album, long albumId, IoThrottle throttle)
+            throws InterruptedException {
+        return update(album, albumId, albumService.getTracks(album), throttle) == Outcome.UPDATED;
+    }
+
+    /**
+     * Ends a refresh scheduled through {@link #refreshAlbum(AlbumService, Path, long, IoThrottle)}:
+     * drops the albums that left the library and saves the store.
+     *
+     * @param albumIds the IDs of every album of the library
+     * @return the number of albums dropped
+     */
+    public int completeRefresh(Set<Long> albumIds) {
+        int removed = store.retainAll(albumIds);
+        try {
+            store.save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not save album metadata", e);
+        }
+        durationService.save();
+        return removed;
+    }
+
+    private Outcome update(Path album, long albumId, List<Path> tracks, IoThrottle throttle)
+            throws InterruptedException {
+        AlbumMetadata stored = store.get(albumId);
+        if (stored != null && namesOf(stored).equals(namesOf(album, tracks)) && stored.isCurrent(album)) {
+            return Outcome.UNCHANGED;
+        }
+        AlbumMetadata metadata = read(album, tracks, throttle);
+        if (metadata == null) {
+            return Outcome.UNREADABLE;
+        }
+        store.put(albumId, metadata);
+        return Outcome.UPDATED;
+    }
+
+    /**
+     * Reads the metadata of one album from its files.
+     *
+     * @param tracks the album's tracks as found by the library scan, which may lie in folded disc folders
+     * @param throttle charged with the bytes of each tag read, and of the duration reads once they are done
+     * @return the metadata, or null if the album directory cannot be read
+     */
+    private AlbumMetadata read(Path album, List<Path> tracks, IoThrottle throttle) throws InterruptedException {
+        try {
+            long directoryModified = Files.getLastModifiedTime(album).toMillis();
+            List<AlbumMetadata.TrackFile> trackFiles = new ArrayList<>(tracks.size());
+            for (Path track : tracks) {
+                BasicFileAttributes attributes = Files.readAttributes(track, BasicFileAttributes.class);
+                trackFiles.add(new AlbumMetadata.TrackFile(nameOf(album, track),
+                        attributes.size(), attributes.lastModifiedTime().toMillis()));
+            }
+            LongAdder bytesRead = new LongAdder();
+            AudioTags tags = AudioTags.EMPTY;
+            for (Path track : tracks) {
+                AudioTags trackTags = AudioMetadataRetriever.getTags(track, bytesRead::add);
+                throttle.acquire(bytesRead.sumThenReset());
+                if (trackTags != null && !trackTags.equals(AudioTags.EMPTY)) {
+                    tags = trackTags;
+                    break;
+                }
+            }
+            // Durations are read in parallel, so they are charged together
+            AlbumDurationService.AlbumDuration duration = durationService.sumTracks(tracks, bytesRead::add);
+            throttle.acquire(bytesRead.sum());
+            return new AlbumMetadata(directoryModified, trackFiles, tags, duration.millis(), duration.unknownTracks());
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not read metadata of " + album, e);
+            return null;
+        }
+    }
+
+    private static List<String> namesOf(AlbumMetadata metadata) {
+        return metadata.tracks().stream().map(AlbumMetadata.TrackFile::name).toList();
+    }
+
+    private static List<String> namesOf(Path album, List<Path> tracks) {
+        return tracks.stream().map(track -> nameOf(album, track)).toList();
+    }
+
+    /**
+     * @return the track's path relative to the album directory, with '/' separators
+     */
+    private static String nameOf(Path album, Path track) {
+        return album.relativize(track).toString().replace(track.getFileSystem().getSeparator(), "/");
+    }
+}
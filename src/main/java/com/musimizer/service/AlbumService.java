@@ -1,9 +1,14 @@
 package com.musimizer.service;
 
 import com.musimizer.exception.MusicDirectoryException;
+import com.musimizer.repository.AlbumCatalog;
+import com.musimizer.repository.AlbumManifest;
 import com.musimizer.repository.AlbumRepository;
+import com.musimizer.repository.CatalogDiff;
+import com.musimizer.repository.CatalogEntries;
 import com.musimizer.settings.ApplicationSettings;
 import com.musimizer.settings.DefaultApplicationSettings;
+import com.musimizer.util.LongHashSet;
 
 import java.io.IOException;
 import java.nio.file.DirectoryStream;
@@ -12,6 +17,7 @@ import java.nio.file.Path;
 import java.util.*;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class AlbumService {
@@ -21,9 +27,27 @@ public class AlbumService {
     private final Path savedPicksFile;
     private final Path bookmarksFile;
     private final ApplicationSettings settings;
-    private Set<Path> excludedAlbums;
-    private SequencedSet<Path> bookmarkedAlbums;
+    // Replaced as a whole under the list lock and read without it. getCatalog() holds the service's
+    // monitor for as long as a scan takes, so the lists have a lock of their own.
+    private final Object listLock = new Object();
+    private volatile Exclusions exclusions;
+    private volatile Bookmarks bookmarks;
     private List<Path> currentPicks;
+    // Written under the lock by getCatalog(), but read without it by getCachedAlbumId() on the FX thread
+    private volatile AlbumCatalog catalog;
+
+    /**
+     * The excluded albums in the catalog, by album ID, and the entries that matched no album, kept so
+     * that saving does not drop them. Never modified once published.
+     */
+    private record Exclusions(LongHashSet ids, Set<Path> orphaned) {
+    }
+
+    /**
+     * The bookmarked albums in bookmark order, like {@link Exclusions}.
+     */
+    private record Bookmarks(SequencedSet<Long> ids, SequencedSet<Path> orphaned) {
+    }
 
     public AlbumService(AlbumRepository albumRepository, Path musicDir, Path exclusionFile) {
         this(albumRepository, musicDir, exclusionFile, new DefaultApplicationSettings());
@@ -44,19 +68,28 @@ public class AlbumService {
         this.settings = settings;
         this.savedPicksFile = exclusionFile.getParent().resolve("saved_picks.txt");
         this.bookmarksFile = exclusionFile.getParent().resolve("bookmarks.txt");
-        this.excludedAlbums = new LinkedHashSet<>();
-        this.bookmarkedAlbums = new LinkedHashSet<>();
         this.currentPicks = new ArrayList<>();
-        
-        loadExcludedAlbums();
-        loadBookmarks();
+        // Exclusions and bookmarks are loaded on first use
     }
 
+    /**
+     * (Re)loads the excluded albums. The library is scanned first if that has not happened yet,
+     * so that entries are resolved (and orphaned ones reported) against the real catalog, once.
+     */
     public void loadExcludedAlbums() {
-        try {
-            excludedAlbums = albumRepository.loadExcludedAlbums(musicDir, exclusionFile);
-        } catch (Exception e) {
-            throw new MusicDirectoryException("Failed to load excluded albums", e);
+        AlbumCatalog current = getCatalog();
+        synchronized (listLock) {
+            CatalogEntries entries;
+            try {
+                entries = albumRepository.loadExcludedAlbums(current, exclusionFile);
+            } catch (Exception e) {
+                throw new MusicDirectoryException("Failed to load excluded albums", e);
+            }
+            LongHashSet ids = new LongHashSet(entries.ordinals().length);
+            for (int ordinal : entries.ordinals()) {
+                ids.add(current.idOf(ordinal));
+            }
+            exclusions = new Exclusions(ids, Collections.unmodifiableSet(new LinkedHashSet<>(entries.orphaned())));
         }
     }
 
@@ -69,10 +102,14 @@ public class AlbumService {
     }
 
     public void generateNewPicks(int numberOfPicks) {
-        List<Path> allAlbums = findAllAlbums();
-        List<Path> eligibleAlbums = allAlbums.stream()
-                .filter(album -> !excludedAlbums.contains(album))
-                .collect(Collectors.toList());
+        AlbumCatalog allAlbums = getCatalog();
+        LongHashSet excluded = exclusions().ids();
+        List<Path> eligibleAlbums = new ArrayList<>(allAlbums.size() - excluded.size());
+        for (int ordinal = 0; ordinal < allAlbums.size(); ordinal++) {
+            if (allAlbums.hasAudio(ordinal) && !excluded.contains(allAlbums.idOf(ordinal))) {
+                eligibleAlbums.add(allAlbums.get(ordinal));
+            }
+        }
 
         if (eligibleAlbums.isEmpty()) {
             throw new IllegalStateException("No albums available after applying exclusions");
@@ -87,10 +124,24 @@ public class AlbumService {
     }
 
     public void excludeAlbum(Path albumPath) {
-        if (!excludedAlbums.add(albumPath))
-            return;
+        AlbumCatalog current = getCatalog();
+        int ordinal = current.ordinalOf(albumPath);
+        synchronized (listLock) {
+            Exclusions before = exclusions();
+            if (ordinal >= 0) {
+                LongHashSet ids = new LongHashSet(before.ids());
+                if (!ids.add(current.idOf(ordinal)))
+                    return;
+                exclusions = new Exclusions(ids, before.orphaned());
+            } else {
+                Set<Path> orphaned = new LinkedHashSet<>(before.orphaned());
+                if (!orphaned.add(albumPath))
+                    return;
+                exclusions = new Exclusions(before.ids(), Collections.unmodifiableSet(orphaned));
+            }
+            saveExcludedAlbums();
+        }
         currentPicks.remove(albumPath);
-        saveExcludedAlbums();
         saveCurrentPicks();
     }
 
@@ -98,13 +149,16 @@ public class AlbumService {
         if (searchTerms == null || searchTerms.isEmpty() || maxResults <= 0) {
             return Collections.emptyList();
         }
-        List<Path> allAlbums = findAllAlbums();
-        var albumStream = allAlbums.stream();
-        if (settings.isApplyExclusionsToSearch()) 
-            albumStream = albumStream.filter(Predicate.not(excludedAlbums::contains));
+        AlbumCatalog allAlbums = getCatalog();
+        var albumStream = IntStream.range(0, allAlbums.size()).filter(allAlbums::hasAudio);
+        if (settings.isApplyExclusionsToSearch()) {
+            LongHashSet excluded = exclusions().ids();
+            albumStream = albumStream.filter(ordinal -> !excluded.contains(allAlbums.idOf(ordinal)));
+        }
             
     
         List<Path> searchResults = albumStream
+                .mapToObj(allAlbums::get)
                 .filter(album -> {
                     String searchableAlbum = removeDiacriticalMarks(albumPathToDisplayString(album).toLowerCase());
                     return searchTerms.stream()
@@ -118,6 +172,28 @@ public class AlbumService {
         return searchResults.subList(0, Math.min(maxResults, searchResults.size()));
     }
 
+    /**
+     * Returns the albums that appeared since the previous library scan, excluding excluded albums.
+     * This only compares persisted album IDs and does not touch the album directories.
+     *
+     * @return the new albums, sorted by display name
+     */
+    public List<Path> findNewArrivals() {
+        CatalogDiff diff;
+        try {
+            diff = albumRepository.diffWithPreviousCatalog(musicDir);
+        } catch (Exception e) {
+            throw new MusicDirectoryException("Failed to compare album catalog with previous scan", e);
+        }
+        if (diff == null) {
+            return Collections.emptyList();
+        }
+        return diff.addedAlbums().stream()
+                .filter(Predicate.not(this::isExcluded))
+                .sorted(Comparator.comparing(this::albumPathToDisplayString, String.CASE_INSENSITIVE_ORDER))
+                .collect(Collectors.toList());
+    }
+
     /**
      * Removes diacritical marks (accents) from a string.
      * For example, converts "Café" to "Cafe" and "Héllò" to "Hello".
@@ -134,6 +210,66 @@ public class AlbumService {
         return normalized.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
     }
 
+    /**
+     * Returns the catalog for the current album list. When the repository already returns
+     * an {@link AlbumCatalog} it is used as is; otherwise one is built over the list.
+     */
+    private synchronized AlbumCatalog getCatalog() {
+        AlbumCatalog current = AlbumCatalog.of(musicDir, findAllAlbums());
+        catalog = current;
+        return current;
+    }
+
+    /**
+     * Returns every album in the music directory, scanning it if that has not happened yet.
+     *
+     * @return the albums, in catalog order
+     */
+    public List<Path> getAllAlbums() {
+        return getCatalog();
+    }
+
+    /**
+     * Returns the stable 64-bit ID of an album, for use as a key in per-album caches.
+     *
+     * @param albumPath the album directory
+     * @return the album ID, or empty if the album is not in the catalog
+     */
+    public OptionalLong getAlbumId(Path albumPath) {
+        AlbumCatalog current = getCatalog();
+        int ordinal = current.ordinalOf(albumPath);
+        return ordinal >= 0 ? OptionalLong.of(current.idOf(ordinal)) : OptionalLong.empty();
+    }
+
+    /**
+     * Like {@link #getAlbumId(Path)}, but never triggers a library scan and never waits for one in
+     * progress, so it is safe to call from the FX thread.
+     *
+     * @param albumPath the album directory
+     * @return the album ID, or empty if the album is not in the catalog or the library has not been scanned yet
+     */
+    public OptionalLong getCachedAlbumId(Path albumPath) {
+        AlbumCatalog current = catalog;
+        if (current == null) {
+            return OptionalLong.empty();
+        }
+        int ordinal = current.ordinalOf(albumPath);
+        return ordinal >= 0 ? OptionalLong.of(current.idOf(ordinal)) : OptionalLong.empty();
+    }
+
+    /**
+     * Returns the folder image (such as {@code cover.jpg}) the library scan found for an album.
+     *
+     * @param albumPath the album directory
+     * @return the image file, or empty if the album has none or is not in the catalog
+     */
+    public Optional<Path> findFolderImage(Path albumPath) {
+        AlbumCatalog current = getCatalog();
+        int ordinal = current.ordinalOf(albumPath);
+        String folderImage = ordinal >= 0 ? current.folderImageOf(ordinal) : null;
+        return folderImage != null ? Optional.of(albumPath.resolve(folderImage)) : Optional.empty();
+    }
+
     private List<Path> findAllAlbums() {
         try {
             return albumRepository.findAllAlbums(musicDir);
@@ -144,7 +280,7 @@ public class AlbumService {
 
     private void saveExcludedAlbums() {
         try {
-            albumRepository.saveExcludedAlbums(musicDir, exclusionFile, excludedAlbums);
+            albumRepository.saveExcludedAlbums(musicDir, exclusionFile, getExcludedAlbums());
         } catch (Exception e) {
             throw new MusicDirectoryException("Failed to save excluded albums", e);
         }
@@ -173,73 +309,188 @@ public class AlbumService {
         return artistDir.getFileName().toString() + " - " + albumPath.getFileName().toString();
     }
 
+    /**
+     * @return the excluded albums in catalog order, followed by excluded entries that match no album
+     */
     public Set<Path> getExcludedAlbums() {
-        return Collections.unmodifiableSet(excludedAlbums);
+        AlbumCatalog current = getCatalog();
+        Exclusions excluded = exclusions();
+        Set<Path> albums = new LinkedHashSet<>();
+        for (int ordinal = 0; ordinal < current.size(); ordinal++) {
+            if (excluded.ids().contains(current.idOf(ordinal))) {
+                albums.add(current.get(ordinal));
+            }
+        }
+        albums.addAll(excluded.orphaned());
+        return Collections.unmodifiableSet(albums);
     }
-    
+
+    public boolean isExcluded(Path albumPath) {
+        AlbumCatalog current = getCatalog();
+        int ordinal = current.ordinalOf(albumPath);
+        Exclusions excluded = exclusions();
+        return ordinal >= 0 ? excluded.ids().contains(current.idOf(ordinal)) : excluded.orphaned().contains(albumPath);
+    }
+
+    /**
+     * @return the bookmarked albums in bookmark order, followed by bookmarks that match no album
+     */
     public SequencedSet<Path> getBookmarkedAlbums() {
-        return Collections.unmodifiableSequencedSet(bookmarkedAlbums);
+        AlbumCatalog current = getCatalog();
+        Bookmarks bookmarked = bookmarks();
+        SequencedSet<Path> albums = new LinkedHashSet<>();
+        for (long id : bookmarked.ids()) {
+            int ordinal = current.ordinalOfId(id);
+            if (ordinal >= 0) {
+                albums.add(current.get(ordinal));
+            }
+        }
+        albums.addAll(bookmarked.orphaned());
+        return Collections.unmodifiableSequencedSet(albums);
     }
     
+    /**
+     * (Re)loads the bookmarked albums, resolving them against the catalog like {@link #loadExcludedAlbums()}.
+     */
     public void loadBookmarks() {
-        bookmarkedAlbums = albumRepository.loadBookmarks(bookmarksFile);
+        AlbumCatalog current = getCatalog();
+        synchronized (listLock) {
+            CatalogEntries entries = albumRepository.loadBookmarks(current, bookmarksFile);
+            SequencedSet<Long> ids = new LinkedHashSet<>(entries.ordinals().length * 4 / 3 + 1);
+            for (int ordinal : entries.ordinals()) {
+                ids.add(current.idOf(ordinal));
+            }
+            bookmarks = new Bookmarks(Collections.unmodifiableSequencedSet(ids),
+                    Collections.unmodifiableSequencedSet(new LinkedHashSet<>(entries.orphaned())));
+        }
+    }
+
+    private Exclusions exclusions() {
+        Exclusions current = exclusions;
+        if (current == null) {
+            synchronized (listLock) {
+                if (exclusions == null) {
+                    loadExcludedAlbums();
+                }
+                current = exclusions;
+            }
+        }
+        return current;
+    }
+
+    private Bookmarks bookmarks() {
+        Bookmarks current = bookmarks;
+        if (current == null) {
+            synchronized (listLock) {
+                if (bookmarks == null) {
+                    loadBookmarks();
+                }
+                current = bookmarks;
+            }
+        }
+        return current;
     }
     
     public boolean toggleBookmark(Path albumPath) {
-        boolean wasBookmarked = bookmarkedAlbums.contains(albumPath);
-        if (wasBookmarked) {
-            bookmarkedAlbums.remove(albumPath);
-        } else {
-            bookmarkedAlbums.add(albumPath);
+        AlbumCatalog current = getCatalog();
+        int ordinal = current.ordinalOf(albumPath);
+        synchronized (listLock) {
+            Bookmarks before = bookmarks();
+            boolean bookmarked;
+            if (ordinal >= 0) {
+                SequencedSet<Long> ids = new LinkedHashSet<>(before.ids());
+                bookmarked = toggle(ids, current.idOf(ordinal));
+                bookmarks = new Bookmarks(Collections.unmodifiableSequencedSet(ids), before.orphaned());
+            } else {
+                SequencedSet<Path> orphaned = new LinkedHashSet<>(before.orphaned());
+                bookmarked = toggle(orphaned, albumPath);
+                bookmarks = new Bookmarks(before.ids(), Collections.unmodifiableSequencedSet(orphaned));
+            }
+            saveBookmarks();
+            return bookmarked;
+        }
+    }
+
+    private static <T> boolean toggle(Set<T> set, T element) {
+        if (set.remove(element)) {
+            return false;
         }
-        saveBookmarks();
-        return !wasBookmarked;
+        set.add(element);
+        return true;
     }
     
     public boolean isBookmarked(Path albumPath) {
-        return bookmarkedAlbums.contains(albumPath);
+        AlbumCatalog current = getCatalog();
+        int ordinal = current.ordinalOf(albumPath);
+        Bookmarks bookmarked = bookmarks();
+        return ordinal >= 0 ? bookmarked.ids().contains(current.idOf(ordinal)) : bookmarked.orphaned().contains(albumPath);
     }
     
     private void saveBookmarks() {
-        albumRepository.saveBookmarks(bookmarksFile, bookmarkedAlbums);
+        albumRepository.saveBookmarks(bookmarksFile, getBookmarkedAlbums());
     }
     
     /**
-     * Finds the first audio file in the specified album directory.
+     * Finds the first audio file in the specified album directory, using the manifest the library
+     * scan recorded; the directory is only listed for albums scanned without one.
      * @param albumPath The path to the album directory
      * @return An Optional containing the path to the first audio file, or empty if none found
      */
     public Optional<Path> findFirstAudioFile(Path albumPath) {
-        if (albumPath == null || !Files.isDirectory(albumPath)) {
+        if (albumPath == null) {
             return Optional.empty();
         }
-        
+        AlbumManifest manifest = findManifest(albumPath);
+        if (manifest != null) {
+            String firstTrack = manifest.firstTrack();
+            return firstTrack != null ? Optional.of(albumPath.resolve(firstTrack)) : Optional.empty();
+        }
+        List<Path> tracks = listTracks(albumPath);
+        return tracks.isEmpty() ? Optional.empty() : Optional.of(tracks.get(0));
+    }
+
+    /**
+     * Returns the audio files of an album, sorted by name, from the manifest the library scan recorded
+     * when there is one.
+     *
+     * @param albumPath the album directory
+     * @return the audio files, empty if there are none or the directory cannot be read
+     */
+    public List<Path> getTracks(Path albumPath) {
+        if (albumPath == null) {
+            return List.of();
+        }
+        AlbumManifest manifest = findManifest(albumPath);
+        return manifest != null ? manifest.tracks(albumPath) : listTracks(albumPath);
+    }
+
+    private AlbumManifest findManifest(Path albumPath) {
+        AlbumCatalog current = getCatalog();
+        int ordinal = current.ordinalOf(albumPath);
+        return ordinal >= 0 ? current.manifestOf(ordinal) : null;
+    }
+
+    private static List<Path> listTracks(Path albumPath) {
+        if (!Files.isDirectory(albumPath)) {
+            return List.of();
+        }
         try (Stream<Path> files = Files.list(albumPath)) {
             return files
                 .filter(Files::isRegularFile)
-                .filter(this::isAudioFile)
-                .sorted()
-                .findFirst();
+                .filter(AlbumService::isAudioFile)
+                .sorted(Comparator.comparing(track -> track.getFileName().toString(), AlbumManifest.TRACK_ORDER))
+                .collect(Collectors.toList());
         } catch (IOException e) {
-            return Optional.empty();
+            return List.of();
         }
     }
-    
+
     /**
      * Checks if the given path is an audio file based on its extension.
      * @param filePath The path to check
      * @return true if the file is an audio file, false otherwise
      */
-    private boolean isAudioFile(Path filePath) {
-        if (filePath == null) {
-            return false;
-        }
-        String fileName = filePath.getFileName().toString().toLowerCase();
-        return fileName.endsWith(".mp3") || 
-               fileName.endsWith(".m4a") || 
-               fileName.endsWith(".aac") ||
-               fileName.endsWith(".flac") ||
-               fileName.endsWith(".wav") ||
-               fileName.endsWith(".ogg");
+    static boolean isAudioFile(Path filePath) {
+        return filePath != null && AlbumManifest.isAudioFile(filePath.getFileName().toString());
     }
 }
@@ -7,7 +7,6 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class PlaybackService {
 
@@ -34,19 +33,14 @@ public class PlaybackService {
         }
     }
 
-    public void playAlbum(Path albumPath) {
+    /**
+     * Opens a playlist of the given tracks in the system's default player.
+     *
+     * @param albumPath the album directory, which names the playlist
+     * @param trackPaths the album's audio files, in playing order
+     */
+    public void playAlbum(Path albumPath, List<Path> trackPaths) {
         try {
-            List<Path> trackPaths = Files.list(albumPath)
-                    .filter(p -> p.toString().toLowerCase().endsWith(".mp3") ||
-                            p.toString().toLowerCase().endsWith(".flac") ||
-                            p.toString().toLowerCase().endsWith(".wav") ||
-                            p.toString().toLowerCase().endsWith(".m4a") ||
-                            p.toString().toLowerCase().endsWith(".aac") ||
-                            p.toString().toLowerCase().endsWith(".ogg") ||
-                            p.toString().toLowerCase().endsWith(".m4a"))
-                    .sorted()
-                    .collect(Collectors.toList());
-
             if (trackPaths.isEmpty()) {
                 // Handle case with no playable tracks
                 System.out.println("No playable tracks found in: " + albumPath);
@@ -0,0 +1,426 @@
+package com.musimizer.ui;
+
+import com.musimizer.service.AlbumService;
+import com.musimizer.util.AudioMetadataRetriever;
+import com.musimizer.util.XxHash64;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads album list thumbnails on a small, fixed pool of worker threads.
+ * <p>
+ * Requests for rows that are on screen are served before prefetch requests, and within a priority
+ * the most recent request goes first, since that is the row the user is looking at now.
+ * Concurrent requests for the same album share one job. A request is cancelled when its cell moves
+ * on to another album; a job whose requests have all been cancelled is dropped from the queue, or
+ * abandoned between stages if it is already running.
+ * <p>
+ * Decoded images are cached by the content hash of the encoded art rather than by album, so that
+ * albums with identical art (the discs of a box set, say) share one cache entry and one {@link Image},
+ * and only the first of them is decoded at all. Albums find their image through an alias of the entry,
+ * so nothing is remembered about an album once its image has been evicted.
+ */
+public class AlbumArtLoader {
+    private static final Logger LOGGER = Logger.getLogger(AlbumArtLoader.class.getName());
+    static final int THUMBNAIL_SIZE = 40;
+    // Room for a handful of screen-sized covers
+    private static final long FULL_SIZE_CACHE_BYTES = 48L * 1024 * 1024;
+
+    /**
+     * Scheduling priority of a request, most urgent first.
+     */
+    public enum Priority {
+        VISIBLE,
+        PREFETCH
+    }
+
+    /**
+     * Handle to a pending request.
+     */
+    public interface Request {
+        /**
+         * Withdraws the request. Its callback will not be called afterwards.
+         */
+        void cancel();
+    }
+
+    private final Supplier<AlbumService> albumService;
+    private final ThumbnailCache thumbnailCache;
+    private final ImageCache imageCache;
+    private final ThreadPoolExecutor executor;
+    private final ExecutorService fullSizeExecutor;
+    private final ImageCache fullSizeCache = new ImageCache(FULL_SIZE_CACHE_BYTES);
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<Path, Job> jobs = new HashMap<>();
+
+    /**
+     * @param albumService supplies the current album service (it is replaced when settings change)
+     * @param thumbnailCache the persistent thumbnail cache
+     * @param imageCache the in-memory cache of decoded thumbnails, keyed by content hash
+     * @param threads the maximum number of albums read at the same time
+     */
+    public AlbumArtLoader(Supplier<AlbumService> albumService, ThumbnailCache thumbnailCache,
+                          ImageCache imageCache, int threads) {
+        this.albumService = albumService;
+        this.thumbnailCache = thumbnailCache;
+        this.imageCache = imageCache;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "album-art-loader-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.fullSizeExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "album-art-viewer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Requests the thumbnail of an album.
+     *
+     * @param album the album directory
+     * @param priority how urgently the thumbnail is needed
+     * @param onLoaded called on the FX thread with the thumbnail, or with null if the album has no art,
+     *                 unless the request was cancelled first
+     * @return a handle that cancels the request
+     */
+    public Request load(Path album, Priority priority, Consumer<Image> onLoaded) {
+        Ticket ticket = new Ticket(onLoaded);
+        synchronized (jobs) {
+            Job job = jobs.get(album);
+            if (job == null) {
+                job = new Job(album, priority);
+                jobs.put(album, job);
+                job.tickets.add(ticket);
+                ticket.job = job;
+                executor.execute(job);
+            } else {
+                job.tickets.add(ticket);
+                ticket.job = job;
+                if (!job.started && priority.ordinal() < job.priority.ordinal() && executor.remove(job)) {
+                    // Promote a queued prefetch job now that its row is on screen
+                    job.priority = priority;
+                    job.sequence = sequence.incrementAndGet();
+                    executor.execute(job);
+                }
+            }
+        }
+        return ticket;
+    }
+
+    /**
+     * Looks up an album's thumbnail in memory. Cheap enough to call on the FX thread.
+     *
+     * @param albumId the album ID
+     * @return the thumbnail, or null if it has not been loaded or was evicted
+     */
+    public Image getCachedThumbnail(long albumId) {
+        return imageCache.getAliased(albumId);
+    }
+
+    /**
+     * Like {@link #getCachedThumbnail(long)}, but without counting as a cache access.
+     *
+     * @param albumId the album ID
+     * @return true if the album's thumbnail is in memory
+     */
+    public boolean isThumbnailCached(long albumId) {
+        return imageCache.containsAlias(albumId);
+    }
+
+    /**
+     * Stops all workers. Queued requests are dropped.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        fullSizeExecutor.shutdownNow();
+    }
+
+    private final class Ticket implements Request {
+        private final Consumer<Image> onLoaded;
+        private Job job;
+        private volatile boolean cancelled;
+
+        Ticket(Consumer<Image> onLoaded) {
+            this.onLoaded = onLoaded;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            synchronized (jobs) {
+                job.tickets.remove(this);
+                if (job.tickets.isEmpty() && jobs.get(job.album) == job) {
+                    jobs.remove(job.album);
+                    if (!job.started) {
+                        executor.remove(job);
+                    }
+                }
+            }
+        }
+    }
+
+    private final class Job implements Runnable, Comparable<Job> {
+        private final Path album;
+        private final List<Ticket> tickets = new ArrayList<>(1);
+        private Priority priority;
+        private long sequence;
+        private boolean started;
+
+        Job(Path album, Priority priority) {
+            this.album = album;
+            this.priority = priority;
+            this.sequence = AlbumArtLoader.this.sequence.incrementAndGet();
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(other.sequence, sequence);
+        }
+
+        private boolean isAbandoned() {
+            synchronized (jobs) {
+                return tickets.isEmpty();
+            }
+        }
+
+        @Override
+        public void run() {
+            synchronized (jobs) {
+                started = true;
+                if (tickets.isEmpty()) {
+                    return;
+                }
+            }
+            Image image = null;
+            try {
+                image = loadThumbnail(this);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Error loading album art for: " + album, e);
+            }
+
+            List<Ticket> waiting;
+            synchronized (jobs) {
+                if (jobs.get(album) == this) {
+                    jobs.remove(album);
+                }
+                waiting = new ArrayList<>(tickets);
+                tickets.clear();
+            }
+            if (!waiting.isEmpty()) {
+                Image result = image;
+                Platform.runLater(() -> {
+                    for (Ticket ticket : waiting) {
+                        if (!ticket.cancelled) {
+                            ticket.onLoaded.accept(result);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private Image loadThumbnail(Job job) throws Exception {
+        Path albumPath = job.album;
+        AlbumService service = albumService.get();
+        OptionalLong albumId = service.getAlbumId(albumPath);
+
+        if (albumId.isPresent()) {
+            Image decoded = getCachedThumbnail(albumId.getAsLong());
+            if (decoded != null) {
+                return decoded;
+            }
+            Image cached = thumbnailCache.get(albumId.getAsLong(), albumPath);
+            OptionalLong contentHash = thumbnailCache.contentHashOf(albumId.getAsLong());
+            if (cached != null && contentHash.isPresent()) {
+                LOGGER.fine("Using cached thumbnail for: " + albumPath);
+                return share(albumId.getAsLong(), contentHash.getAsLong(), cached);
+            }
+        }
+        if (job.isAbandoned()) {
+            return null;
+        }
+
+        ArtSource source = readArt(service, albumPath);
+        if (source == null || job.isAbandoned()) {
+            return null;
+        }
+
+        // The lookup was counted when the album's alias missed above
+        long contentHash = XxHash64.hash(source.data());
+        Image thumbnail = imageCache.peek(contentHash);
+        if (thumbnail == null) {
+            thumbnail = ImageUtils.createScaledImage(source.data(), THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+        } else {
+            LOGGER.fine("Sharing the thumbnail of identical art for: " + albumPath);
+        }
+        if (thumbnail != null && albumId.isPresent()) {
+            thumbnailCache.put(albumId.getAsLong(), albumPath, source.file(), contentHash, thumbnail);
+            thumbnail = share(albumId.getAsLong(), contentHash, thumbnail);
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Caches a thumbnail under its content hash, aliased by the album's ID.
+     *
+     * @return the thumbnail already cached for the same art, if another album got there first, else the given one
+     */
+    private Image share(long albumId, long contentHash, Image thumbnail) {
+        Image shared = imageCache.peek(contentHash);
+        if (shared == null) {
+            imageCache.put(contentHash, thumbnail);
+            shared = thumbnail;
+        }
+        imageCache.alias(albumId, contentHash);
+        return shared;
+    }
+
+    /**
+     * Identifies the art of an album without holding on to it, so that list cells can keep a reference
+     * to what they show for as long as they like.
+     *
+     * @param album the album directory
+     * @param albumId the album ID, if it was already known when the key was made
+     */
+    public record ArtKey(Path album, OptionalLong albumId) {
+    }
+
+    /**
+     * Makes the art key of an album. Cheap enough to call on the FX thread.
+     *
+     * @param album the album directory
+     * @return the key
+     */
+    public ArtKey keyOf(Path album) {
+        return new ArtKey(album, albumService.get().getCachedAlbumId(album));
+    }
+
+    /**
+     * Loads the art of an album for display at a large size, decoded on a worker thread directly at
+     * (at most) the given size. Recently viewed images are kept in a small cache.
+     *
+     * @param key the album's art key
+     * @param maxWidth the maximum width to decode to
+     * @param maxHeight the maximum height to decode to
+     * @return a future completed with the image, or with null if the album has no art
+     */
+    public CompletableFuture<Image> loadScreenSizedArt(ArtKey key, int maxWidth, int maxHeight) {
+        Image cached = key.albumId().isPresent() ? fullSizeCache.getAliased(key.albumId().getAsLong()) : null;
+        if (cached != null && cached.getWidth() <= maxWidth && cached.getHeight() <= maxHeight) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            OptionalLong albumId = key.albumId().isPresent() ? key.albumId() : albumService.get().getAlbumId(key.album());
+            byte[] imageData = loadFullSizeArt(key.album(), albumId);
+            if (imageData == null) {
+                return null;
+            }
+            long contentHash = XxHash64.hash(imageData);
+            Image image = fullSizeCache.peek(contentHash);
+            if (image == null || image.getWidth() > maxWidth || image.getHeight() > maxHeight) {
+                image = ImageUtils.createScaledImage(imageData, maxWidth, maxHeight);
+                if (image != null) {
+                    fullSizeCache.put(contentHash, image);
+                }
+            }
+            if (image != null && albumId.isPresent()) {
+                fullSizeCache.alias(albumId.getAsLong(), contentHash);
+            }
+            return image;
+        }, fullSizeExecutor);
+    }
+
+    /**
+     * Reads the full-size art of an album, as encoded in its source file.
+     */
+    private byte[] loadFullSizeArt(Path album, OptionalLong albumId) {
+        try {
+            // The thumbnail cache remembers which file the art came from, which saves looking for it again
+            Path knownSource = albumId.isPresent() ? thumbnailCache.sourceOf(albumId.getAsLong(), album) : null;
+            if (knownSource != null) {
+                byte[] imageData = readArtFrom(knownSource);
+                if (imageData != null) {
+                    return imageData;
+                }
+            }
+            ArtSource source = readArt(albumService.get(), album);
+            return source != null ? source.data() : null;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read album art for: " + album, e);
+            return null;
+        }
+    }
+
+    private static byte[] readArtFrom(Path sourceFile) throws IOException {
+        try {
+            String name = sourceFile.getFileName().toString().toLowerCase(Locale.ROOT);
+            if (name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png")) {
+                return Files.readAllBytes(sourceFile);
+            }
+            return AudioMetadataRetriever.getCoverImage(sourceFile);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Encoded art and the file it was read from.
+     */
+    record ArtSource(Path file, byte[] data) {
+    }
+
+    /**
+     * Reads an album's art, preferring the folder image found by the library scan, which needs no
+     * directory listing or tag parsing, over art embedded in the first track.
+     */
+    static ArtSource readArt(AlbumService service, Path albumPath) throws IOException {
+        Optional<Path> folderImage = service.findFolderImage(albumPath);
+        if (folderImage.isPresent()) {
+            try {
+                return new ArtSource(folderImage.get(), Files.readAllBytes(folderImage.get()));
+            } catch (NoSuchFileException e) {
+                LOGGER.fine("Folder image has gone since the last scan: " + folderImage.get());
+            }
+        }
+
+        LOGGER.fine("Finding first audio file in: " + albumPath);
+        Optional<Path> audioFile = service.findFirstAudioFile(albumPath);
+        if (audioFile.isEmpty()) {
+            LOGGER.fine("No audio files found in: " + albumPath);
+            return null;
+        }
+        byte[] imageData = AudioMetadataRetriever.getCoverImage(audioFile.get());
+        return imageData != null ? new ArtSource(audioFile.get(), imageData) : null;
+    }
+}
@@ -0,0 +1,173 @@
+package com.musimizer.ui;
+
+import com.musimizer.controller.AppController;
+
+import javafx.application.Platform;
+import javafx.collections.ListChangeListener;
+import javafx.scene.Node;
+import javafx.scene.control.IndexedCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.skin.VirtualFlow;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+
+/**
+ * Requests cover art for the rows just outside the visible part of the album list, at prefetch
+ * priority, so that scrolling reveals real covers rather than placeholders.
+ * <p>
+ * By default one screenful is prefetched on each side. While the user scrolls, the distance
+ * in the scroll direction grows with the scroll speed, up to {@link #MAX_PAGES_AHEAD} screenfuls.
+ * Requests that fall out of the window are cancelled, and prefetch requests always queue behind
+ * those of visible rows.
+ */
+public class AlbumArtPrefetcher {
+    private static final int MAX_PAGES_AHEAD = 4;
+    // How far ahead, in seconds of scrolling at the current speed, art should be requested
+    private static final double LOOKAHEAD_SECONDS = 1.0;
+    // Weight of the newest sample in the smoothed scroll speed
+    private static final double SPEED_SMOOTHING = 0.3;
+
+    private final ListView<Path> listView;
+    private final AppController controller;
+    private final Map<Path, AlbumArtLoader.Request> pending = new HashMap<>();
+    // Albums in the window found to have no art, so that they are not requested again on every scroll
+    private final Set<Path> artless = new HashSet<>();
+    private final ListChangeListener<Path> itemsListener = change -> itemsChanged();
+    private VirtualFlow<?> flow;
+    private int lastFirstVisible = -1;
+    private long lastSampleNanos;
+    private double rowsPerSecond;
+
+    private AlbumArtPrefetcher(ListView<Path> listView, AppController controller) {
+        this.listView = listView;
+        this.controller = controller;
+    }
+
+    /**
+     * Attaches a prefetcher to an album list.
+     *
+     * @param listView the album list
+     * @param controller the controller owning the art loader and caches
+     */
+    public static void install(ListView<Path> listView, AppController controller) {
+        AlbumArtPrefetcher prefetcher = new AlbumArtPrefetcher(listView, controller);
+        listView.skinProperty().addListener((obs, oldSkin, newSkin) -> Platform.runLater(prefetcher::attachToFlow));
+        listView.itemsProperty().addListener((obs, oldItems, newItems) -> {
+            if (oldItems != null) {
+                oldItems.removeListener(prefetcher.itemsListener);
+            }
+            if (newItems != null) {
+                newItems.addListener(prefetcher.itemsListener);
+            }
+            prefetcher.itemsChanged();
+        });
+        if (listView.getItems() != null) {
+            listView.getItems().addListener(prefetcher.itemsListener);
+        }
+        prefetcher.attachToFlow();
+    }
+
+    private void attachToFlow() {
+        Node node = listView.lookup(".virtual-flow");
+        if (node instanceof VirtualFlow<?> virtualFlow && virtualFlow != flow) {
+            flow = virtualFlow;
+            flow.positionProperty().addListener((obs, oldPosition, newPosition) -> update());
+            update();
+        }
+    }
+
+    private void itemsChanged() {
+        lastFirstVisible = -1;
+        rowsPerSecond = 0;
+        // A rescan may have found art for them
+        artless.clear();
+        // Wait for the list to lay out the new items before looking at what is visible
+        Platform.runLater(this::update);
+    }
+
+    private void update() {
+        if (flow == null || controller.getAlbumService() == null) {
+            return;
+        }
+        IndexedCell<?> firstCell = flow.getFirstVisibleCell();
+        IndexedCell<?> lastCell = flow.getLastVisibleCell();
+        List<Path> items = listView.getItems();
+        if (firstCell == null || lastCell == null || items.isEmpty()) {
+            cancelAll();
+            return;
+        }
+        int first = firstCell.getIndex();
+        int last = lastCell.getIndex();
+        int pageSize = Math.max(1, last - first + 1);
+
+        sampleSpeed(first);
+        int pagesAhead = (int) Math.min(MAX_PAGES_AHEAD,
+                1 + Math.ceil(Math.abs(rowsPerSecond) * LOOKAHEAD_SECONDS / pageSize));
+        int before = pageSize * (rowsPerSecond < 0 ? pagesAhead : 1);
+        int after = pageSize * (rowsPerSecond > 0 ? pagesAhead : 1);
+        int from = Math.max(0, first - before);
+        int to = Math.min(items.size() - 1, last + after);
+
+        // Drop requests that are no longer near the viewport
+        Set<Path> window = new HashSet<>(items.subList(from, to + 1));
+        Iterator<Map.Entry<Path, AlbumArtLoader.Request>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, AlbumArtLoader.Request> entry = iterator.next();
+            if (!window.contains(entry.getKey())) {
+                entry.getValue().cancel();
+                iterator.remove();
+            }
+        }
+        artless.retainAll(window);
+
+        // The loader serves the newest request first, so request the farthest rows first
+        for (int distance = Math.max(first - from, to - last); distance > 0; distance--) {
+            if (last + distance <= to) {
+                prefetch(items.get(last + distance));
+            }
+            if (first - distance >= from) {
+                prefetch(items.get(first - distance));
+            }
+        }
+    }
+
+    private void sampleSpeed(int first) {
+        long now = System.nanoTime();
+        if (lastFirstVisible >= 0 && now > lastSampleNanos) {
+            double seconds = (now - lastSampleNanos) / 1e9;
+            double sample = (first - lastFirstVisible) / seconds;
+            rowsPerSecond += SPEED_SMOOTHING * (sample - rowsPerSecond);
+        }
+        lastFirstVisible = first;
+        lastSampleNanos = now;
+    }
+
+    private void prefetch(Path album) {
+        if (pending.containsKey(album) || artless.contains(album)) {
+            return;
+        }
+        OptionalLong albumId = controller.getAlbumService().getCachedAlbumId(album);
+        if (albumId.isPresent() && controller.getAlbumArtLoader().isThumbnailCached(albumId.getAsLong())) {
+            return;
+        }
+        pending.put(album, controller.getAlbumArtLoader().load(album, AlbumArtLoader.Priority.PREFETCH, image -> {
+            pending.remove(album);
+            if (image == null) {
+                artless.add(album);
+            }
+        }));
+    }
+
+    private void cancelAll() {
+        pending.values().forEach(AlbumArtLoader.Request::cancel);
+        pending.clear();
+        artless.clear();
+    }
+}
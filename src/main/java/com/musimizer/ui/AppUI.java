@@ -2,8 +2,6 @@ package com.musimizer.ui;
 
 import com.musimizer.util.SettingsManager;
 import com.musimizer.controller.AppController;
-import com.musimizer.service.AlbumService;
-import com.musimizer.util.AudioMetadataRetriever;
 
 import javafx.scene.Scene;
 import javafx.scene.control.*;
@@ -37,8 +35,7 @@ import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.OptionalLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -71,6 +68,7 @@ public class AppUI {
         // Initialize controller
         AppController controller = new AppController(primaryStage, albumListView, pickButton, backButton, titleLabel);
         root.setUserData(controller);
+        AlbumArtPrefetcher.install(albumListView, controller);
 
         // Set up button actions
         pickButton.setOnAction(e -> controller.pickAlbums());
@@ -116,7 +114,13 @@ public class AppUI {
             AppController controller = (AppController) ((BorderPane) primaryStage.getScene().getRoot()).getUserData();
             controller.showBookmarks();
         });
-        viewMenu.getItems().add(bookmarksItem);
+        MenuItem newArrivalsItem = new MenuItem("New Arrivals");
+        newArrivalsItem.setAccelerator(KeyCombination.keyCombination("shortcut+N"));
+        newArrivalsItem.setOnAction(e -> {
+            AppController controller = (AppController) ((BorderPane) primaryStage.getScene().getRoot()).getUserData();
+            controller.showNewArrivals();
+        });
+        viewMenu.getItems().addAll(bookmarksItem, newArrivalsItem);
 
         menuBar.getMenus().addAll(fileMenu, editMenu, viewMenu);
         return menuBar;
@@ -152,9 +156,8 @@ public class AppUI {
     
     private static void addKeyboardShortcuts(Scene scene, AppController controller) {
         scene.addEventHandler(KeyEvent.KEY_PRESSED, event -> {
-            // Handle ESC key to go back to random picks from bookmarks or search results
-            if (event.getCode() == KeyCode.ESCAPE && 
-                (controller.isShowingBookmarks() || controller.isShowingSearchResults())) {
+            // Handle ESC key to go back to random picks from bookmarks, search results or new arrivals
+            if (event.getCode() == KeyCode.ESCAPE && !controller.isShowingRandomPicks()) {
                 controller.showRandomPicks();
                 event.consume();
             }
@@ -168,8 +171,7 @@ public class AppUI {
 
     private static void addEscapeHandler(Scene scene, AppController controller) {
         scene.addEventHandler(KeyEvent.KEY_RELEASED, event -> {
-            if (event.getCode() == KeyCode.ESCAPE && 
-                (controller.isShowingBookmarks() || controller.isShowingSearchResults())) {
+            if (event.getCode() == KeyCode.ESCAPE && !controller.isShowingRandomPicks()) {
                 controller.showRandomPicks();
                 event.consume();
             }
@@ -241,12 +243,14 @@ public class AppUI {
 
     private static class AlbumListCell extends ListCell<Path> {
         private static final Logger LOGGER = Logger.getLogger(AlbumListCell.class.getName());
-        private static final ExecutorService executorService = Executors.newCachedThreadPool();
         private static final Image DEFAULT_ALBUM_ART = createDefaultAlbumArt();
 
         private final ImageView albumArtView = new ImageView(DEFAULT_ALBUM_ART);
         private final Label albumLabel = new Label();
-        private byte[] currentAlbumArtData;
+        private final Tooltip albumTooltip = new Tooltip();
+        private AlbumArtLoader.ArtKey artKey;
+        private AlbumArtLoader.Request artRequest;
+        private long artGeneration;
         private final Button excludeButton = new Button();
         private final Button playButton = new Button();
         private final Button folderButton = new Button();
@@ -271,6 +275,8 @@ public class AppUI {
         protected void updateItem(Path item, boolean empty) {
             super.updateItem(item, empty);
             if (empty || item == null) {
+                cancelAlbumArtRequest();
+                artKey = null;
                 setGraphic(null);
                 setText(null);
             } else {
@@ -278,6 +284,7 @@ public class AppUI {
                     controller = (AppController) getScene().getRoot().getUserData();
                 }
                 albumLabel.setText(controller.albumPathToDisplayString(item));
+                updateAlbumTooltip(item);
                 loadAlbumArt(item);
                 updateBookmarkButton(item);
                 setGraphic(hbox);
@@ -291,15 +298,20 @@ public class AppUI {
             }
         }
 
-        private void showFullSizeAlbumArt(byte[] imageData) {
-            if (imageData == null)
-                return;
+        private void updateAlbumTooltip(Path albumPath) {
+            Optional<String> description = controller.describeAlbum(albumPath);
+            albumTooltip.setText(description.orElse(null));
+            albumLabel.setTooltip(description.isPresent() ? albumTooltip : null);
+        }
 
+        private void showFullSizeAlbumArt(AlbumArtLoader.ArtKey key) {
             try {
-                // Create and show the album art dialog
+                // Show the thumbnail scaled up while the full image is decoded in the background
+                AlbumArtLoader loader = controller.getAlbumArtLoader();
                 AlbumArtDialog dialog = new AlbumArtDialog(
                         getScene().getWindow(),
-                        imageData);
+                        albumArtView.getImage(),
+                        (maxWidth, maxHeight) -> loader.loadScreenSizedArt(key, maxWidth, maxHeight));
                 dialog.showAndWait();
             } catch (Exception e) {
                 LOGGER.log(Level.WARNING, "Failed to display full size album art", e);
@@ -307,69 +319,45 @@ public class AppUI {
         }
 
         private void handleAlbumArtClick(MouseEvent event) {
-            if (currentAlbumArtData != null) {
-                showFullSizeAlbumArt(currentAlbumArtData);
+            // The cell only keeps a key; the dialog resolves the image itself. The default art
+            // means the album has none (or it has not loaded yet), so there is nothing to enlarge.
+            if (artKey != null && albumArtView.getImage() != DEFAULT_ALBUM_ART) {
+                showFullSizeAlbumArt(artKey);
             }
         }
 
         private void loadAlbumArt(Path albumPath) {
             LOGGER.fine("Loading album art for: " + albumPath);
+            cancelAlbumArtRequest();
+            artKey = controller.getAlbumArtLoader().keyOf(albumPath);
+            OptionalLong knownAlbumId = artKey.albumId();
+            if (knownAlbumId.isPresent()) {
+                Image decoded = controller.getAlbumArtLoader().getCachedThumbnail(knownAlbumId.getAsLong());
+                if (decoded != null) {
+                    albumArtView.setImage(decoded);
+                    return;
+                }
+            }
             // Reset to default art while loading
             albumArtView.setImage(DEFAULT_ALBUM_ART);
 
-            // Load in background to avoid UI freezing
-            executorService.submit(() -> {
-                try {
-                    AlbumService albumService = controller.getAlbumService();
-                    LOGGER.fine("Finding first audio file in: " + albumPath);
-                    Optional<Path> audioFileOpt = albumService.findFirstAudioFile(albumPath);
-
-                    if (!audioFileOpt.isPresent()) {
-                        LOGGER.fine("No audio files found in: " + albumPath);
-                        return;
-                    }
-
-                    Path audioFile = audioFileOpt.get();
-                    LOGGER.fine("Found audio file: " + audioFile);
-                    
-                    try {
-                        LOGGER.fine("Attempting to extract cover image from: " + audioFile);
-                        byte[] imageData = AudioMetadataRetriever.getCoverImage(audioFile);
-                        LOGGER.fine("Cover image extraction " + (imageData != null ? "succeeded" : "failed"));
-
-                        if (imageData == null) 
-                            return;
-                        
-                        currentAlbumArtData = imageData; // Store the image data for full-size view
-                        LOGGER.fine("Cover image size: " + imageData.length + " bytes");
-
-                        // Create and update the image on the JavaFX Application Thread
-                        javafx.application.Platform.runLater(() -> {
-                            try {
-                                LOGGER.fine("Creating JavaFX Image from byte array");
-                                Image img = ImageUtils.createImageFromBytes(imageData, 40, 40);
-                                
-                                if (img != null) {
-                                    LOGGER.fine("Successfully created image, dimensions: " +
-                                            img.getWidth() + "x" + img.getHeight());
-                                    albumArtView.setImage(img);
-                                } else 
-                                    throw new IOException("Failed to create image from byte array");
-                                
-                            } catch (Exception e) {
-                                LOGGER.log(Level.WARNING, "Failed to create/display album art: " + e.getMessage(), e);
-                                albumArtView.setImage(DEFAULT_ALBUM_ART);
-                            }
-                        });
-                    } catch (Exception e) {
-                        LOGGER.log(Level.WARNING, "Error extracting album art from: " + audioFile, e);
-                    }
-                } catch (Exception e) {
-                    LOGGER.log(Level.WARNING, "Error finding audio file in: " + albumPath, e);
+            // The generation guards against a result arriving after the cell has been reused
+            long generation = artGeneration;
+            artRequest = controller.getAlbumArtLoader().load(albumPath, AlbumArtLoader.Priority.VISIBLE, img -> {
+                if (generation == artGeneration && img != null) {
+                    albumArtView.setImage(img);
                 }
             });
         }
 
+        private void cancelAlbumArtRequest() {
+            artGeneration++;
+            if (artRequest != null) {
+                artRequest.cancel();
+                artRequest = null;
+            }
+        }
+
         private void setupCell(ListView<Path> albumListView) {
             setupAlbumArtView();
 
@@ -0,0 +1,361 @@
+package com.musimizer.ui;
+
+import com.musimizer.service.AlbumMetadataService;
+import com.musimizer.service.AlbumService;
+import com.musimizer.util.IoThrottle;
+import com.musimizer.util.XxHash64;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.scene.image.Image;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Extracts the list thumbnails and the tags of the whole library in the background, so that
+ * scrolling later finds them in the {@link ThumbnailCache} and the {@link AlbumMetadataService}
+ * instead of reading tags on demand.
+ * <p>
+ * Work flows through a bounded pipeline with its own threads per stage: one thread discovers the
+ * albums, a few read the art of those without a current thumbnail, a few more hash, decode and
+ * scale it, and one writes the thumbnails to the cache. Alongside the art, a few threads of their
+ * own bring the metadata of every album up to date. The queues between the stages are short, so
+ * only a handful of encoded images are held at once and reading stops when decoding falls behind.
+ * Reads of both art and tags are charged to one {@link IoThrottle} so that indexing leaves disk
+ * bandwidth for everything else.
+ */
+public class BackgroundIndexer {
+    private static final Logger LOGGER = Logger.getLogger(BackgroundIndexer.class.getName());
+    private static final int QUEUE_SLOTS_PER_THREAD = 2;
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * Progress of the current run.
+     *
+     * @param done the number of albums handled so far, including those that were already indexed
+     * @param total the number of albums in the library, 0 until they have been listed
+     * @param paused whether the run is paused
+     * @param finished whether the run is over, or none was started
+     */
+    public record Progress(int done, int total, boolean paused, boolean finished) {
+    }
+
+    private record Pending(Path album, long albumId) {
+    }
+
+    private record Encoded(Path album, long albumId, AlbumArtLoader.ArtSource source) {
+    }
+
+    private record Decoded(Path album, long albumId, Path sourceFile, long contentHash, Image thumbnail) {
+    }
+
+    private final Supplier<AlbumService> albumService;
+    private final Supplier<AlbumMetadataService> metadataService;
+    private final ThumbnailCache thumbnailCache;
+    private final int readThreads;
+    private final int decodeThreads;
+    private final int tagThreads;
+    private final ReadOnlyObjectWrapper<Progress> progress =
+            new ReadOnlyObjectWrapper<>(new Progress(0, 0, false, true));
+    private Run currentRun;
+    private boolean paused;
+
+    /**
+     * @param albumService supplies the current album service
+     * @param metadataService supplies the metadata service of the current library; may supply null
+     * @param thumbnailCache the cache to fill
+     * @param readThreads the number of albums whose art is read at the same time
+     * @param decodeThreads the number of images decoded at the same time
+     * @param tagThreads the number of albums whose tags are read at the same time
+     */
+    public BackgroundIndexer(Supplier<AlbumService> albumService, Supplier<AlbumMetadataService> metadataService,
+                             ThumbnailCache thumbnailCache, int readThreads, int decodeThreads, int tagThreads) {
+        this.albumService = albumService;
+        this.metadataService = metadataService;
+        this.thumbnailCache = thumbnailCache;
+        this.readThreads = Math.max(1, readThreads);
+        this.decodeThreads = Math.max(1, decodeThreads);
+        this.tagThreads = Math.max(1, tagThreads);
+    }
+
+    /**
+     * Starts indexing the library of the current album service, stopping any run in progress first.
+     *
+     * @param bytesPerSecond the read rate limit, or 0 for none
+     */
+    public synchronized void start(long bytesPerSecond) {
+        stop();
+        AlbumService service = albumService.get();
+        if (service == null) {
+            return;
+        }
+        currentRun = new Run(service, metadataService.get(), new IoThrottle(bytesPerSecond));
+        currentRun.start();
+    }
+
+    /**
+     * Stops the run in progress, if any. Thumbnails already written stay in the cache; metadata
+     * already read is saved with the next complete run.
+     */
+    public synchronized void stop() {
+        if (currentRun != null) {
+            currentRun.cancel();
+            currentRun = null;
+        }
+    }
+
+    /**
+     * Suspends all stages once they finish the album at hand. Also applies to runs started later.
+     */
+    public synchronized void pause() {
+        paused = true;
+        if (currentRun != null) {
+            currentRun.publish();
+        }
+    }
+
+    /**
+     * Lets a paused run continue.
+     */
+    public synchronized void resume() {
+        paused = false;
+        notifyAll();
+        if (currentRun != null) {
+            currentRun.publish();
+        }
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @return the progress of the current run, updated on the FX thread
+     */
+    public ReadOnlyObjectProperty<Progress> progressProperty() {
+        return progress.getReadOnlyProperty();
+    }
+
+    private synchronized void awaitResumed() throws InterruptedException {
+        while (paused) {
+            wait();
+        }
+    }
+
+    private synchronized boolean isCurrent(Run run) {
+        return currentRun == run;
+    }
+
+    /**
+     * One pass over the library.
+     */
+    private final class Run {
+        private final AlbumService service;
+        private final AlbumMetadataService metadata;
+        private final IoThrottle throttle;
+        private final BlockingQueue<Pending> toRead = new ArrayBlockingQueue<>(readThreads * QUEUE_SLOTS_PER_THREAD);
+        private final BlockingQueue<Pending> toTag = new ArrayBlockingQueue<>(tagThreads * QUEUE_SLOTS_PER_THREAD);
+        private final BlockingQueue<Encoded> toDecode = new ArrayBlockingQueue<>(decodeThreads * QUEUE_SLOTS_PER_THREAD);
+        private final BlockingQueue<Decoded> toPersist = new ArrayBlockingQueue<>(decodeThreads * QUEUE_SLOTS_PER_THREAD);
+        private final CountDownLatch discovering = new CountDownLatch(1);
+        private final CountDownLatch reading = new CountDownLatch(readThreads);
+        private final CountDownLatch decoding = new CountDownLatch(decodeThreads);
+        private final CountDownLatch tagging;
+        private final Set<Long> albumIds = ConcurrentHashMap.newKeySet();
+        private final ExecutorService threads;
+        private final AtomicInteger done = new AtomicInteger();
+        private final AtomicBoolean publishPending = new AtomicBoolean();
+        private volatile int total;
+        private volatile boolean discovered;
+        private volatile boolean cancelled;
+        private volatile boolean finished;
+
+        Run(AlbumService service, AlbumMetadataService metadata, IoThrottle throttle) {
+            this.service = service;
+            this.metadata = metadata;
+            this.throttle = throttle;
+            this.tagging = new CountDownLatch(metadata != null ? tagThreads : 0);
+            int threadCount = readThreads + decodeThreads + (int) tagging.getCount() + 2;
+            AtomicInteger threadNumber = new AtomicInteger();
+            this.threads = Executors.newFixedThreadPool(threadCount, runnable -> {
+                Thread thread = new Thread(runnable, "album-indexer-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        }
+
+        void start() {
+            threads.execute(stage("discover", discovering, this::discover));
+            for (int i = 0; i < readThreads; i++) {
+                threads.execute(stage("read", reading, this::read));
+            }
+            for (int i = 0; i < decodeThreads; i++) {
+                threads.execute(stage("decode", decoding, this::decode));
+            }
+            for (int i = 0; i < tagging.getCount(); i++) {
+                threads.execute(stage("tags", tagging, this::readTags));
+            }
+            threads.execute(stage("persist", new CountDownLatch(1), this::persist));
+            threads.shutdown();
+        }
+
+        void cancel() {
+            cancelled = true;
+            threads.shutdownNow();
+        }
+
+        private Runnable stage(String name, CountDownLatch finishing, StageBody body) {
+            return () -> {
+                try {
+                    body.run();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Background indexer stage '" + name + "' failed", e);
+                } finally {
+                    finishing.countDown();
+                }
+            };
+        }
+
+        private void discover() throws InterruptedException {
+            List<Path> albums = service.getAllAlbums();
+            total = albums.size();
+            publish();
+            for (Path album : albums) {
+                awaitResumed();
+                OptionalLong albumId = service.getAlbumId(album);
+                if (albumId.isPresent() && metadata != null) {
+                    albumIds.add(albumId.getAsLong());
+                    toTag.put(new Pending(album, albumId.getAsLong()));
+                }
+                if (albumId.isEmpty() || thumbnailCache.contains(albumId.getAsLong(), album)) {
+                    completeOne();
+                } else {
+                    toRead.put(new Pending(album, albumId.getAsLong()));
+                }
+            }
+            discovered = true;
+        }
+
+        private void readTags() throws InterruptedException {
+            Pending pending;
+            while ((pending = take(toTag, discovering)) != null) {
+                awaitResumed();
+                metadata.refreshAlbum(service, pending.album(), pending.albumId(), throttle);
+            }
+        }
+
+        private void read() throws InterruptedException {
+            Pending pending;
+            while ((pending = take(toRead, discovering)) != null) {
+                awaitResumed();
+                AlbumArtLoader.ArtSource source;
+                try {
+                    source = AlbumArtLoader.readArt(service, pending.album());
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Could not read art of " + pending.album(), e);
+                    source = null;
+                }
+                if (source == null) {
+                    completeOne();
+                    continue;
+                }
+                throttle.acquire(source.data().length);
+                toDecode.put(new Encoded(pending.album(), pending.albumId(), source));
+            }
+        }
+
+        private void decode() throws InterruptedException {
+            Encoded encoded;
+            while ((encoded = take(toDecode, reading)) != null) {
+                awaitResumed();
+                byte[] data = encoded.source().data();
+                Image thumbnail = ImageUtils.createScaledImage(data,
+                        AlbumArtLoader.THUMBNAIL_SIZE, AlbumArtLoader.THUMBNAIL_SIZE);
+                if (thumbnail == null) {
+                    completeOne();
+                    continue;
+                }
+                toPersist.put(new Decoded(encoded.album(), encoded.albumId(), encoded.source().file(),
+                        XxHash64.hash(data), thumbnail));
+            }
+        }
+
+        private void persist() throws InterruptedException {
+            Decoded decoded;
+            while ((decoded = take(toPersist, decoding)) != null) {
+                thumbnailCache.put(decoded.albumId(), decoded.album(), decoded.sourceFile(), decoded.contentHash(), decoded.thumbnail());
+                completeOne();
+            }
+            tagging.await();
+            // Only a complete pass knows which albums left the library
+            if (metadata != null && discovered && !cancelled) {
+                metadata.completeRefresh(albumIds);
+            }
+            finished = true;
+            publish();
+            LOGGER.info("Background indexing finished: " + done.get() + " of " + total + " albums");
+        }
+
+        /**
+         * Takes the next item of a stage's input.
+         *
+         * @return the item, or null once the upstream stage has finished and the queue is drained
+         */
+        private <T> T take(BlockingQueue<T> queue, CountDownLatch upstream) throws InterruptedException {
+            while (true) {
+                T item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (item != null) {
+                    return item;
+                }
+                // Upstream counts down only after its last put, so an empty queue now stays empty
+                if (upstream.getCount() == 0 && queue.isEmpty()) {
+                    return null;
+                }
+            }
+        }
+
+        private void completeOne() {
+            done.incrementAndGet();
+            publish();
+        }
+
+        /**
+         * Schedules a progress update on the FX thread, coalescing updates that arrive faster than it runs them.
+         */
+        void publish() {
+            if (publishPending.compareAndSet(false, true)) {
+                Platform.runLater(() -> {
+                    publishPending.set(false);
+                    if (isCurrent(this)) {
+                        progress.set(new Progress(done.get(), total, isPaused(), finished));
+                    }
+                });
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface StageBody {
+        void run() throws InterruptedException;
+    }
+}
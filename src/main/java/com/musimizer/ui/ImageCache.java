@@ -0,0 +1,232 @@
+package com.musimizer.ui;
+
+import javafx.scene.image.Image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory cache of decoded album art images, bounded by an approximate byte budget
+ * (four bytes per pixel) and evicting the least recently used images first.
+ * <p>
+ * Lookups never lock: they read a concurrent map and bump the entry's access stamp, so the
+ * FX thread can consult the cache while worker threads are filling it. Only insertions that
+ * push the cache over budget take a lock, and they evict down to 90% of the budget at once so
+ * that the cost of finding the oldest entries is amortized over many insertions.
+ * <p>
+ * An image can also be found by any number of aliases (album IDs, for art cached by content hash).
+ * Aliases live only as long as their image, so they are bounded by the cache too.
+ */
+public class ImageCache {
+    private static final double EVICT_TO_FRACTION = 0.9;
+
+    private static final class Node {
+        final Image image;
+        final long bytes;
+        final Set<Long> aliases = ConcurrentHashMap.newKeySet();
+        volatile long lastAccess;
+
+        Node(Image image, long bytes, long lastAccess) {
+            this.image = image;
+            this.bytes = bytes;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private final Map<Long, Node> entries = new ConcurrentHashMap<>();
+    // Alias to the key of the image it refers to
+    private final Map<Long, Long> aliases = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final long budgetBytes;
+
+    /**
+     * @param budgetBytes the maximum number of pixel bytes to keep
+     */
+    public ImageCache(long budgetBytes) {
+        this.budgetBytes = Math.max(0, budgetBytes);
+    }
+
+    /**
+     * @param key the cache key
+     * @return the cached image, or null
+     */
+    public Image get(long key) {
+        Node node = entries.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        node.lastAccess = clock.incrementAndGet();
+        hits.increment();
+        return node.image;
+    }
+
+    /**
+     * Like {@link #get(long)}, but without counting a hit or miss or refreshing the image's age,
+     * for further probes within a lookup that has already been counted.
+     *
+     * @param key the cache key
+     * @return the cached image, or null
+     */
+    public Image peek(long key) {
+        Node node = entries.get(key);
+        return node != null ? node.image : null;
+    }
+
+    /**
+     * Checks for an image without counting a hit or miss or refreshing its age.
+     *
+     * @param key the cache key
+     * @return true if the image is cached
+     */
+    public boolean contains(long key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * @param alias an alias given to an image with {@link #alias(long, long)}
+     * @return the image, or null if it is not cached (any more)
+     */
+    public Image getAliased(long alias) {
+        Long key = aliases.get(alias);
+        if (key == null) {
+            misses.increment();
+            return null;
+        }
+        Image image = get(key);
+        if (image == null) {
+            // The image was evicted while the alias was being added
+            aliases.remove(alias, key);
+        }
+        return image;
+    }
+
+    /**
+     * Like {@link #getAliased(long)}, but without counting a hit or miss or refreshing the image's age.
+     *
+     * @param alias an alias given to an image with {@link #alias(long, long)}
+     * @return true if the image is cached
+     */
+    public boolean containsAlias(long alias) {
+        Long key = aliases.get(alias);
+        return key != null && entries.containsKey(key);
+    }
+
+    /**
+     * Makes a cached image findable by another key as well, replacing whatever the alias referred to
+     * before. The alias is dropped with the image. Does nothing if the image is not cached.
+     *
+     * @param alias the alias
+     * @param key the cache key of the image
+     */
+    public void alias(long alias, long key) {
+        Node node = entries.get(key);
+        if (node == null) {
+            return;
+        }
+        node.aliases.add(alias);
+        Long previous = aliases.put(alias, key);
+        if (previous != null && previous != key) {
+            Node previousNode = entries.get(previous);
+            if (previousNode != null) {
+                previousNode.aliases.remove(alias);
+            }
+        }
+    }
+
+    /**
+     * Adds an image, evicting older ones if the cache goes over budget.
+     * Images larger than the whole budget are not cached.
+     *
+     * @param key the cache key
+     * @param image the image
+     */
+    public void put(long key, Image image) {
+        long bytes = sizeOf(image);
+        if (bytes > budgetBytes) {
+            return;
+        }
+        Node node = new Node(image, bytes, clock.incrementAndGet());
+        Node previous = entries.put(key, node);
+        if (previous != null) {
+            node.aliases.addAll(previous.aliases);
+        }
+        long total = totalBytes.addAndGet(bytes - (previous != null ? previous.bytes : 0));
+        if (total > budgetBytes) {
+            evict();
+        }
+    }
+
+    private synchronized void evict() {
+        long target = (long) (budgetBytes * EVICT_TO_FRACTION);
+        if (totalBytes.get() <= budgetBytes) {
+            return;
+        }
+        List<Map.Entry<Long, Node>> candidates = new ArrayList<>(entries.entrySet());
+        candidates.sort((a, b) -> Long.compare(a.getValue().lastAccess, b.getValue().lastAccess));
+        for (Map.Entry<Long, Node> candidate : candidates) {
+            if (totalBytes.get() <= target) {
+                break;
+            }
+            if (entries.remove(candidate.getKey(), candidate.getValue())) {
+                removed(candidate.getKey(), candidate.getValue());
+            }
+        }
+    }
+
+    /**
+     * Removes an image from the cache.
+     *
+     * @param key the cache key
+     */
+    public void invalidate(long key) {
+        Node removed = entries.remove(key);
+        if (removed != null) {
+            removed(key, removed);
+        }
+    }
+
+    private void removed(long key, Node node) {
+        totalBytes.addAndGet(-node.bytes);
+        for (Long alias : node.aliases) {
+            aliases.remove(alias, key);
+        }
+    }
+
+    private static long sizeOf(Image image) {
+        return 4L * Math.round(image.getWidth()) * Math.round(image.getHeight());
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getSizeInBytes() {
+        return totalBytes.get();
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        long hitCount = getHitCount();
+        long lookups = hitCount + getMissCount();
+        return String.format("ImageCache[%d images, %d/%d KB, hits %d of %d (%.1f%%)]",
+                getEntryCount(), getSizeInBytes() / 1024, budgetBytes / 1024, hitCount, lookups,
+                lookups == 0 ? 0.0 : 100.0 * hitCount / lookups);
+    }
+}
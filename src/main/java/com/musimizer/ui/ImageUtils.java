@@ -1,8 +1,21 @@
 package com.musimizer.ui;
 
 import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Iterator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -54,6 +67,77 @@ public static Image createImageFromBytes(byte[] imageData, double targetWidth, d
         }
     }
     
+    /**
+     * Decodes an image scaled to fit within the given size, preserving its aspect ratio, without
+     * ever holding the full-resolution pixels: the decoder reads only every n-th pixel of every n-th
+     * row (down to about twice the target size), and the result is smoothed down to the target.
+     * This is meant for worker threads; the returned image is ready to be shown as is.
+     * <p>
+     * Images that ImageIO cannot read (such as CMYK JPEGs) fall back to
+     * {@link #createImageFromBytes(byte[], double, double)}.
+     *
+     * @param imageData the encoded image
+     * @param maxWidth the maximum width of the result
+     * @param maxHeight the maximum height of the result
+     * @return the scaled image, or null if the data cannot be decoded
+     */
+    public static Image createScaledImage(byte[] imageData, int maxWidth, int maxHeight) {
+        if (imageData == null || imageData.length == 0) {
+            return null;
+        }
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(imageData))) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers != null && readers.hasNext()) {
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(input, true, true);
+                    BufferedImage decoded = readSubsampled(reader, maxWidth, maxHeight);
+                    return toFxImage(scaleToFit(decoded, maxWidth, maxHeight));
+                } finally {
+                    reader.dispose();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Subsampled decode failed, falling back to full decode", e);
+        }
+        return createImageFromBytes(imageData, maxWidth, maxHeight);
+    }
+
+    private static BufferedImage readSubsampled(ImageReader reader, int maxWidth, int maxHeight) throws IOException {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        // Keep about twice the target resolution so the final smoothing step has something to average
+        int subsampling = Math.max(1, Math.min(width / (2 * maxWidth), height / (2 * maxHeight)));
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return reader.read(0, param);
+    }
+
+    private static BufferedImage scaleToFit(BufferedImage source, int maxWidth, int maxHeight) {
+        double scale = Math.min(1.0, Math.min((double) maxWidth / source.getWidth(), (double) maxHeight / source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private static Image toFxImage(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        WritableImage fxImage = new WritableImage(width, height);
+        fxImage.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        return fxImage;
+    }
+
     /**
      * Determines the image type based on the magic number in the byte array.
      * 
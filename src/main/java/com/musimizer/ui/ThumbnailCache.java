@@ -0,0 +1,592 @@
+package com.musimizer.ui;
+
+import com.musimizer.repository.AlbumCatalog;
+import com.musimizer.repository.InstanceCoordinator;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritableImage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * On-disk cache of album list thumbnails.
+ * <p>
+ * Thumbnails are stored already scaled to the list size, as raw ARGB pixels, in append-only pack
+ * segments that are memory-mapped for reading. A small index file maps each album ID to the pixels'
+ * position in the pack together with the path (relative to the album directory), size and
+ * modification time of the file the art was taken from. A hit therefore costs one {@code stat} of
+ * that file and one mapped read; no audio file is listed, opened or parsed, and no image is decoded.
+ * <p>
+ * Each record also carries the content hash of the encoded art. Albums with identical art (a box set
+ * whose discs all embed the same cover, say) share one set of pixels in the pack.
+ * <p>
+ * The files only ever grow while the cache is open; a newer record for the same album shadows the
+ * older one. When loading finds that most of the pack or index is shadowed, it copies the live
+ * thumbnails into a new generation of files and deletes the old one. A generation is never
+ * rewritten in place, since a file that is still mapped cannot be replaced on Windows.
+ * <p>
+ * Instances sharing the directory serialize loads and appends with a file lock. Another instance may
+ * compact the files to a newer generation at any time, deleting the generation this one has loaded,
+ * so before every append this instance checks for a newer generation and, if there is one, drops its
+ * mappings and reloads from it. Until then, reads of segments it had not mapped yet are misses.
+ * <p>
+ * The index is loaded on first use rather than on construction, so that opening the cache costs
+ * the FX thread nothing.
+ */
+public class ThumbnailCache {
+    private static final Logger LOGGER = Logger.getLogger(ThumbnailCache.class.getName());
+    private static final String FILE_PREFIX = "thumbnails";
+    private static final String FORMAT = FILE_PREFIX + "-v3";
+    // thumbnails-v3-<generation>.idx
+    private static final Pattern INDEX_FILE = Pattern.compile(Pattern.quote(FORMAT) + "-(\\d+)\\.idx");
+    // Each segment is mapped as a single buffer, so it must stay below 2 GB
+    private static final long DEFAULT_SEGMENT_BYTES = 256L * 1024 * 1024;
+    // Below these, shadowed pixels and index records are not worth a rewrite
+    private static final long MIN_COMPACTION_BYTES = 16L * 1024 * 1024;
+    private static final long MIN_COMPACTION_RECORDS = 50_000;
+
+    /**
+     * Location and validity information of one cached thumbnail.
+     *
+     * @param position the segment number in the upper 32 bits, the offset within it in the lower 32
+     */
+    private record Entry(String sourcePath, long sourceSize, long sourceModified, long contentHash,
+                         long position, int width, int height) {
+
+        int segment() {
+            return (int) (position >>> 32);
+        }
+
+        int offset() {
+            return (int) position;
+        }
+
+        int byteCount() {
+            return 4 * width * height;
+        }
+    }
+
+    private final Path directory;
+    private final Path lockFile;
+    private final InstanceCoordinator coordinator;
+    private final long segmentBytes;
+    private final long minCompactionBytes;
+    private final Object loadLock = new Object();
+    private final Map<Long, Entry> index = new HashMap<>();
+    private final Map<Long, Entry> byContentHash = new HashMap<>();
+    private final Map<Integer, MappedByteBuffer> mappedSegments = new HashMap<>();
+    private volatile boolean loaded;
+    private int generation;
+    private int lastSegment;
+
+    /**
+     * Opens (or creates) the cache in the given directory. Its index is loaded on first use.
+     *
+     * @param directory the directory holding the pack and index files
+     */
+    public ThumbnailCache(Path directory) {
+        this(directory, DEFAULT_SEGMENT_BYTES, MIN_COMPACTION_BYTES);
+    }
+
+    ThumbnailCache(Path directory, long segmentBytes, long minCompactionBytes) {
+        this.directory = directory;
+        this.lockFile = directory.resolve(FORMAT);
+        this.coordinator = InstanceCoordinator.forDirectory(directory);
+        this.segmentBytes = Math.min(segmentBytes, Integer.MAX_VALUE);
+        this.minCompactionBytes = minCompactionBytes;
+    }
+
+    private Path indexFile(int generation) {
+        return directory.resolve(FORMAT + "-" + generation + ".idx");
+    }
+
+    private Path segmentFile(int generation, int segment) {
+        return directory.resolve(FORMAT + "-" + generation + "-" + segment + ".pack");
+    }
+
+    /**
+     * Loads the index of the latest generation, compacting it first if most of it is shadowed.
+     * Must not be called while holding this cache's monitor, since loading takes the file lock.
+     */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (loadLock) {
+            if (loaded) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                coordinator.withFileLock(lockFile, () -> {
+                    load();
+                    return null;
+                });
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load thumbnail cache in " + directory, e);
+            }
+            loaded = true;
+            LOGGER.fine("Loaded " + index.size() + " thumbnail index entries in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+    }
+
+    /**
+     * Called with the file lock held.
+     */
+    private void load() throws IOException {
+        int latest = findLatestGeneration();
+        Map<Long, Entry> entries = new HashMap<>();
+        long records = readIndex(indexFile(latest), entries);
+        int segment = 0;
+        long packBytes = 0;
+        while (Files.exists(segmentFile(latest, segment))) {
+            packBytes += Files.size(segmentFile(latest, segment));
+            segment++;
+        }
+        long liveBytes = liveBytesOf(entries);
+
+        int current = latest;
+        if (packBytes - liveBytes > Math.max(liveBytes, minCompactionBytes)
+                || records - entries.size() > Math.max(entries.size(), MIN_COMPACTION_RECORDS)) {
+            try {
+                entries = compact(latest, entries);
+                current = latest + 1;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to compact thumbnail cache, keeping generation " + latest, e);
+            }
+        }
+        deleteOtherFiles(current);
+        install(current, entries);
+    }
+
+    /**
+     * Switches to the latest generation if another instance has compacted the files since this one
+     * loaded them. Called with the file lock held.
+     */
+    private void reloadIfSuperseded() throws IOException {
+        int latest = findLatestGeneration();
+        synchronized (this) {
+            if (latest == generation) {
+                return;
+            }
+        }
+        Map<Long, Entry> entries = new HashMap<>();
+        readIndex(indexFile(latest), entries);
+        install(latest, entries);
+        LOGGER.fine("Switched to thumbnail cache generation " + latest + " written by another instance");
+    }
+
+    /**
+     * Makes a generation current, replacing the entries and mappings of the previous one.
+     */
+    private void install(int newGeneration, Map<Long, Entry> entries) {
+        int last = 0;
+        while (Files.exists(segmentFile(newGeneration, last + 1))) {
+            last++;
+        }
+        synchronized (this) {
+            generation = newGeneration;
+            lastSegment = last;
+            mappedSegments.clear();
+            index.clear();
+            byContentHash.clear();
+            index.putAll(entries);
+            for (Entry entry : entries.values()) {
+                byContentHash.put(entry.contentHash(), entry);
+            }
+        }
+    }
+
+    private int findLatestGeneration() throws IOException {
+        int latest = 0;
+        if (!Files.isDirectory(directory)) {
+            return latest;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FORMAT + "-*.idx")) {
+            for (Path file : files) {
+                Matcher matcher = INDEX_FILE.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    latest = Math.max(latest, Integer.parseInt(matcher.group(1)));
+                }
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * @return the number of records read, including shadowed ones
+     */
+    private static long readIndex(Path file, Map<Long, Entry> entries) {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        long records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                long albumId = in.readLong();
+                Entry entry = new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readLong(), in.readLong(),
+                        in.readUnsignedShort(), in.readUnsignedShort());
+                entries.put(albumId, entry);
+                records++;
+            }
+        } catch (EOFException e) {
+            // End of index; a record cut short by a crash is simply ignored
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read thumbnail index " + file, e);
+        }
+        return records;
+    }
+
+    private static long liveBytesOf(Map<Long, Entry> entries) {
+        Map<Long, Integer> distinct = new HashMap<>();
+        for (Entry entry : entries.values()) {
+            distinct.put(entry.position(), entry.byteCount());
+        }
+        long bytes = 0;
+        for (int count : distinct.values()) {
+            bytes += count;
+        }
+        return bytes;
+    }
+
+    /**
+     * Copies the live thumbnails of a generation into the next one. The new index is written last,
+     * under a temporary name, so that a crash midway leaves the old generation current.
+     *
+     * @return the entries of the new generation
+     */
+    private Map<Long, Entry> compact(int from, Map<Long, Entry> entries) throws IOException {
+        int to = from + 1;
+        Map<Long, Entry> compacted = new HashMap<>();
+        Map<Long, Long> moved = new HashMap<>();
+        Map<Integer, FileChannel> sources = new HashMap<>();
+        Path tempIndex = directory.resolve(FORMAT + "-" + to + ".idx.tmp");
+        int segment = 0;
+        long offset = 0;
+        FileChannel target = FileChannel.open(segmentFile(to, segment),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempIndex)))) {
+            for (Map.Entry<Long, Entry> record : entries.entrySet()) {
+                Entry entry = record.getValue();
+                Long position = moved.get(entry.position());
+                if (position == null) {
+                    FileChannel source = sources.get(entry.segment());
+                    if (source == null) {
+                        source = FileChannel.open(segmentFile(from, entry.segment()), StandardOpenOption.READ);
+                        sources.put(entry.segment(), source);
+                    }
+                    ByteBuffer pixels = ByteBuffer.allocate(entry.byteCount());
+                    if (source.read(pixels, entry.offset()) < pixels.capacity()) {
+                        // Shorter than its index: the pixels never made it to disk
+                        continue;
+                    }
+                    if (offset + pixels.capacity() > segmentBytes) {
+                        target.close();
+                        segment++;
+                        offset = 0;
+                        target = FileChannel.open(segmentFile(to, segment),
+                                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                    }
+                    target.write(pixels.flip(), offset);
+                    position = (long) segment << 32 | offset;
+                    offset += pixels.capacity();
+                    moved.put(entry.position(), position);
+                }
+                Entry copy = new Entry(entry.sourcePath(), entry.sourceSize(), entry.sourceModified(),
+                        entry.contentHash(), position, entry.width(), entry.height());
+                writeIndexRecord(out, record.getKey(), copy);
+                compacted.put(record.getKey(), copy);
+            }
+        } finally {
+            target.close();
+            for (FileChannel source : sources.values()) {
+                source.close();
+            }
+        }
+        // A new name rather than a replacement, so that no mapped file is ever replaced
+        Files.move(tempIndex, indexFile(to), StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.info("Compacted thumbnail cache to " + compacted.size() + " entries in " + (segment + 1) + " segments");
+        return compacted;
+    }
+
+    /**
+     * Deletes the files of other generations and of older formats. A file still mapped by another
+     * instance cannot be deleted on Windows; it is left for a later load.
+     */
+    private void deleteOtherFiles(int current) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        String currentPrefix = FORMAT + "-" + current + "-";
+        String currentIndex = indexFile(current).getFileName().toString();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*.{idx,pack,tmp}")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.equals(currentIndex) || name.startsWith(currentPrefix) && name.endsWith(".pack")) {
+                    continue;
+                }
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Could not delete old thumbnail file " + name, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the cached thumbnail of an album if the file it was made from has not changed since.
+     *
+     * @param albumId the album ID
+     * @param albumDir the album directory, used to locate the recorded source file
+     * @return the thumbnail, or null on a miss
+     */
+    public Image get(long albumId, Path albumDir) {
+        ensureLoaded();
+        Entry entry;
+        synchronized (this) {
+            entry = index.get(albumId);
+        }
+        if (entry == null) {
+            return null;
+        }
+        try {
+            if (!isCurrent(entry, albumDir)) {
+                return null;
+            }
+            int[] pixels = readPixels(entry);
+            WritableImage image = new WritableImage(entry.width(), entry.height());
+            image.getPixelWriter().setPixels(0, 0, entry.width(), entry.height(),
+                    PixelFormat.getIntArgbInstance(), pixels, 0, entry.width());
+            return image;
+        } catch (NoSuchFileException e) {
+            // The source file is gone, or another instance compacted the pack away
+            reload();
+            return null;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Thumbnail cache read failed for album " + albumId, e);
+            return null;
+        }
+    }
+
+    private void reload() {
+        try {
+            coordinator.withFileLock(lockFile, () -> {
+                reloadIfSuperseded();
+                return null;
+            });
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to check for a newer thumbnail cache generation in " + directory, e);
+        }
+    }
+
+    /**
+     * @param albumId the album ID
+     * @param albumDir the album directory
+     * @return the file the album's cached thumbnail was made from, or null if none is cached;
+     *         the file may have changed or gone since
+     */
+    public Path sourceOf(long albumId, Path albumDir) {
+        ensureLoaded();
+        Entry entry;
+        synchronized (this) {
+            entry = index.get(albumId);
+        }
+        return entry != null ? albumDir.resolve(entry.sourcePath()) : null;
+    }
+
+    /**
+     * Checks whether the cached thumbnail of an album is still current, without reading it.
+     *
+     * @param albumId the album ID
+     * @param albumDir the album directory, used to locate the recorded source file
+     * @return true if a thumbnail is cached and its source file has not changed since
+     */
+    public boolean contains(long albumId, Path albumDir) {
+        ensureLoaded();
+        Entry entry;
+        synchronized (this) {
+            entry = index.get(albumId);
+        }
+        try {
+            return entry != null && isCurrent(entry, albumDir);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean isCurrent(Entry entry, Path albumDir) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(albumDir.resolve(entry.sourcePath()), BasicFileAttributes.class);
+        return attributes.size() == entry.sourceSize() && attributes.lastModifiedTime().toMillis() == entry.sourceModified();
+    }
+
+    /**
+     * @param albumId the album ID
+     * @return the content hash of the art the album's thumbnail was made from, if one is cached
+     */
+    public OptionalLong contentHashOf(long albumId) {
+        ensureLoaded();
+        Entry entry;
+        synchronized (this) {
+            entry = index.get(albumId);
+        }
+        return entry != null ? OptionalLong.of(entry.contentHash()) : OptionalLong.empty();
+    }
+
+    private synchronized int[] readPixels(Entry entry) throws IOException {
+        long end = (long) entry.offset() + entry.byteCount();
+        MappedByteBuffer mapped = mappedSegments.get(entry.segment());
+        if (mapped == null || mapped.capacity() < end) {
+            try (FileChannel channel = FileChannel.open(segmentFile(generation, entry.segment()), StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            mappedSegments.put(entry.segment(), mapped);
+        }
+        if (mapped.capacity() < end) {
+            throw new IOException("Thumbnail pack is shorter than its index");
+        }
+        int[] pixels = new int[entry.width() * entry.height()];
+        mapped.slice(entry.offset(), pixels.length * 4).asIntBuffer().get(pixels);
+        return pixels;
+    }
+
+    /**
+     * Stores a thumbnail for an album, replacing any previous one. If a thumbnail of the same art is
+     * already in the pack, the album's record points at its pixels instead of writing them again.
+     *
+     * @param albumId the album ID
+     * @param albumDir the album directory, against which the source file is recorded
+     * @param sourceFile the file the art was taken from
+     * @param contentHash the content hash of the encoded art
+     * @param thumbnail the scaled thumbnail
+     */
+    public void put(long albumId, Path albumDir, Path sourceFile, long contentHash, Image thumbnail) {
+        int width = (int) thumbnail.getWidth();
+        int height = (int) thumbnail.getHeight();
+        PixelReader reader = thumbnail.getPixelReader();
+        if (reader == null || width <= 0 || height <= 0) {
+            return;
+        }
+
+        ensureLoaded();
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(sourceFile, BasicFileAttributes.class);
+            String sourcePath = AlbumCatalog.toKey(albumDir, sourceFile);
+            if (sourcePath == null) {
+                sourcePath = sourceFile.toAbsolutePath().toString();
+            }
+            String recordedPath = sourcePath;
+            coordinator.withFileLock(lockFile, () -> {
+                reloadIfSuperseded();
+                Entry shared;
+                synchronized (this) {
+                    shared = byContentHash.get(contentHash);
+                }
+                long position;
+                if (shared != null && shared.width() == width && shared.height() == height) {
+                    position = shared.position();
+                } else {
+                    position = appendPixels(reader, width, height);
+                }
+                Entry entry = new Entry(recordedPath, attributes.size(), attributes.lastModifiedTime().toMillis(),
+                        contentHash, position, width, height);
+                appendIndexRecord(albumId, entry);
+                synchronized (this) {
+                    index.put(albumId, entry);
+                    byContentHash.put(contentHash, entry);
+                }
+                return null;
+            });
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to cache thumbnail for album " + albumId, e);
+        }
+    }
+
+    /**
+     * Appends a thumbnail's pixels to the last pack segment, starting a new segment when it is full.
+     * Called with the file lock held.
+     *
+     * @return the position of the pixels in the pack
+     */
+    private long appendPixels(PixelReader reader, int width, int height) throws IOException {
+        int[] pixels = new int[width * height];
+        reader.getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        ByteBuffer data = ByteBuffer.allocate(pixels.length * 4);
+        IntBuffer ints = data.asIntBuffer();
+        ints.put(pixels);
+
+        int segment;
+        int currentGeneration;
+        synchronized (this) {
+            segment = lastSegment;
+            currentGeneration = generation;
+        }
+        Files.createDirectories(directory);
+        while (true) {
+            try (FileChannel pack = FileChannel.open(segmentFile(currentGeneration, segment),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                long offset = pack.size();
+                // An empty segment takes any thumbnail, so that one larger than a segment cannot loop forever
+                if (offset == 0 || offset + data.capacity() <= segmentBytes) {
+                    pack.write(data, offset);
+                    synchronized (this) {
+                        lastSegment = segment;
+                    }
+                    return (long) segment << 32 | offset;
+                }
+            }
+            segment++;
+        }
+    }
+
+    private void appendIndexRecord(long albumId, Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeIndexRecord(out, albumId, entry);
+        }
+        int currentGeneration;
+        synchronized (this) {
+            currentGeneration = generation;
+        }
+        // One write per record so that a crash leaves at most one truncated record at the end
+        Files.write(indexFile(currentGeneration), bytes.toByteArray(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static void writeIndexRecord(DataOutputStream out, long albumId, Entry entry) throws IOException {
+        out.writeLong(albumId);
+        out.writeUTF(entry.sourcePath());
+        out.writeLong(entry.sourceSize());
+        out.writeLong(entry.sourceModified());
+        out.writeLong(entry.contentHash());
+        out.writeLong(entry.position());
+        out.writeShort(entry.width());
+        out.writeShort(entry.height());
+    }
+}
@@ -1,5 +1,6 @@
 package com.musimizer.ui.dialogs;
 
+import javafx.application.Platform;
 import javafx.scene.control.Dialog;
 import javafx.scene.control.DialogPane;
 import javafx.scene.image.Image;
@@ -14,30 +15,55 @@ import javafx.scene.control.ButtonType;
 import javafx.geometry.Rectangle2D;
 import javafx.geometry.Pos;
 
-import java.io.ByteArrayInputStream;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * A dialog for displaying album art in full size.
+ * <p>
+ * The image is decoded off the FX thread at no more than the size it is shown at. Until it
+ * arrives, the preview (normally the list thumbnail) is shown scaled up in its place.
  */
 public class AlbumArtDialog extends Dialog<Void> {
     private static final Logger LOGGER = Logger.getLogger(AlbumArtDialog.class.getName());
     private static final double SCREEN_SIZE_FACTOR = 0.8;
     private static final int DIALOG_PADDING = 40;
+
+    /**
+     * Supplies the image to display, decoded to fit within the given size.
+     */
+    @FunctionalInterface
+    public interface ImageSource {
+        /**
+         * @param maxWidth the maximum width of the image
+         * @param maxHeight the maximum height of the image
+         * @return a future completed (on any thread) with the image, or with null if there is none
+         */
+        CompletableFuture<Image> load(int maxWidth, int maxHeight);
+    }
     
     private final ImageView fullSizeView = new ImageView();
-    private Image originalImage;
     
     /**
-     * Creates a new AlbumArtDialog with the specified owner and image data.
+     * Creates a new AlbumArtDialog that shows a preview until the full image has been loaded.
      *
      * @param owner The owner window of this dialog.
-     * @param imageData The image data to display, or null if no image is available.
+     * @param preview A small version of the image to show while loading, or null.
+     * @param imageSource The source of the full image.
      */
-    public AlbumArtDialog(Window owner, byte[] imageData) {
+    public AlbumArtDialog(Window owner, Image preview, ImageSource imageSource) {
         initializeDialog(owner);
-        loadImage(imageData);
+
+        Rectangle2D screenBounds = Screen.getPrimary().getVisualBounds();
+        double maxHeight = screenBounds.getHeight() * SCREEN_SIZE_FACTOR;
+        double maxWidth = Math.min(maxHeight, screenBounds.getWidth() * SCREEN_SIZE_FACTOR);
+
+        if (preview != null) {
+            showPreview(preview, maxWidth, maxHeight);
+        }
+        imageSource.load((int) maxWidth, (int) maxHeight)
+                .whenComplete((image, error) -> Platform.runLater(() -> showImage(image, error, preview != null)));
     }
     
     private void initializeDialog(Window owner) {
@@ -77,56 +103,36 @@ public class AlbumArtDialog extends Dialog<Void> {
         }
     }
     
-    private void loadImage(byte[] imageData) {
-        if (imageData == null) {
-            LOGGER.fine("No image data provided to load");
-            return;
-        }
-        
-        try {
-            loadAndScaleImage(imageData);
-            resizeDialogToFitImage();
-        } catch (Exception e) {
-            handleImageLoadError(e);
-        }
+    private void showPreview(Image preview, double maxWidth, double maxHeight) {
+        double scale = Math.min(maxWidth / preview.getWidth(), maxHeight / preview.getHeight());
+        fullSizeView.setImage(preview);
+        fullSizeView.setFitWidth(preview.getWidth() * scale);
+        fullSizeView.setFitHeight(preview.getHeight() * scale);
+        resizeDialogToFitImage();
     }
-    
-    private void loadAndScaleImage(byte[] imageData) {
-        originalImage = new Image(new ByteArrayInputStream(imageData));
-        fullSizeView.setImage(originalImage);
-        
-        Screen screen = Screen.getPrimary();
-        Rectangle2D screenBounds = screen.getVisualBounds();
-        double maxHeight = screenBounds.getHeight() * SCREEN_SIZE_FACTOR;
-        double maxWidth = Math.min(maxHeight, screenBounds.getWidth() * SCREEN_SIZE_FACTOR);
-        
-        if (needsScaling(maxWidth, maxHeight)) {
-            scaleImageToFit(maxWidth, maxHeight);
-        } else {
-            setOriginalImageSize();
+
+    private void showImage(Image image, Throwable error, boolean previewShown) {
+        if (error != null || image == null) {
+            if (error != null) {
+                LOGGER.log(Level.WARNING, "Failed to load album art", error);
+            }
+            if (previewShown) {
+                return;
+            }
+            if (error != null) {
+                handleImageLoadError(error);
+            } else {
+                // Nothing to show after all
+                close();
+            }
+            return;
         }
-    }
-    
-    private boolean needsScaling(double maxWidth, double maxHeight) {
-        return originalImage.getWidth() > maxWidth || originalImage.getHeight() > maxHeight;
-    }
-    
-    private void scaleImageToFit(double maxWidth, double maxHeight) {
-        double scale = calculateOptimalScale(maxWidth, maxHeight);
-        fullSizeView.setFitWidth(originalImage.getWidth() * scale);
-        fullSizeView.setFitHeight(originalImage.getHeight() * scale);
-    }
-    
-    private double calculateOptimalScale(double maxWidth, double maxHeight) {
-        return Math.min(
-            maxWidth / originalImage.getWidth(), 
-            maxHeight / originalImage.getHeight()
-        );
-    }
-    
-    private void setOriginalImageSize() {
-        fullSizeView.setFitWidth(originalImage.getWidth());
-        fullSizeView.setFitHeight(originalImage.getHeight());
+        // The image was decoded to fit the screen already
+        fullSizeView.setImage(image);
+        fullSizeView.setFitWidth(image.getWidth());
+        fullSizeView.setFitHeight(image.getHeight());
+        resizeDialogToFitImage();
+        getDialogPane().getScene().getWindow().sizeToScene();
     }
     
     private void resizeDialogToFitImage() {
@@ -150,10 +156,7 @@ public class AlbumArtDialog extends Dialog<Void> {
         positionCloseButton();
     }
     
-    private void handleImageLoadError(Exception e) {
-        String errorMsg = "Failed to load album art";
-        LOGGER.log(Level.SEVERE, errorMsg, e);
-        
+    private void handleImageLoadError(Throwable e) {
         // Optionally show an error to the user
         DialogPane dialogPane = getDialogPane();
         dialogPane.setContentText("Could not load album art: " + e.getMessage());
@@ -16,16 +16,23 @@ public class SettingsDialog extends Dialog<SettingsDialog.Settings> {
         public final int numberOfPicks;
         public final int numberOfSearchResults;
         public final boolean applyExclusionsToSearch;
+        public final boolean backgroundIndexing;
 
         public Settings(String musicDir, int numberOfPicks, int numberOfSearchResults) {
             this(musicDir, numberOfPicks, numberOfSearchResults, true);
         }
         
         public Settings(String musicDir, int numberOfPicks, int numberOfSearchResults, boolean applyExclusionsToSearch) {
+            this(musicDir, numberOfPicks, numberOfSearchResults, applyExclusionsToSearch, false);
+        }
+
+        public Settings(String musicDir, int numberOfPicks, int numberOfSearchResults, boolean applyExclusionsToSearch,
+                        boolean backgroundIndexing) {
             this.musicDir = musicDir;
             this.numberOfPicks = numberOfPicks;
             this.numberOfSearchResults = numberOfSearchResults;
             this.applyExclusionsToSearch = applyExclusionsToSearch;
+            this.backgroundIndexing = backgroundIndexing;
         }
     }
 
@@ -38,6 +45,7 @@ public class SettingsDialog extends Dialog<SettingsDialog.Settings> {
         int currentPicks = SettingsManager.getNumberOfPicks();
         int currentSearchResults = SettingsManager.getNumberOfSearchResults();
         boolean applyExclusionsToSearch = SettingsManager.isApplyExclusionsToSearch();
+        boolean backgroundIndexing = SettingsManager.isBackgroundIndexing();
         
         GridPane grid = new GridPane();
         grid.setHgap(10);
@@ -61,6 +69,10 @@ public class SettingsDialog extends Dialog<SettingsDialog.Settings> {
         // Apply exclusions to search results checkbox
         CheckBox applyExclusionsCheckbox = new CheckBox("Apply exclusions to search results");
         applyExclusionsCheckbox.setSelected(applyExclusionsToSearch);
+
+        // Background indexing checkbox
+        CheckBox backgroundIndexingCheckbox = new CheckBox("Extract album art for the whole library in the background");
+        backgroundIndexingCheckbox.setSelected(backgroundIndexing);
         
         // Add components to grid
         grid.add(dirLabel, 0, 0);
@@ -71,6 +83,7 @@ public class SettingsDialog extends Dialog<SettingsDialog.Settings> {
         grid.add(searchResultsLabel, 0, 2);
         grid.add(searchResultsSpinner, 1, 2);
         grid.add(applyExclusionsCheckbox, 0, 3, 2, 1);
+        grid.add(backgroundIndexingCheckbox, 0, 4, 2, 1);
         
         // Set up browse button action
         browse.setOnAction(e -> {
@@ -129,7 +142,8 @@ public class SettingsDialog extends Dialog<SettingsDialog.Settings> {
                     dirPath,
                     picksSpinner.getValue(),
                     searchResultsSpinner.getValue(),
-                    applyExclusionsCheckbox.isSelected()
+                    applyExclusionsCheckbox.isSelected(),
+                    backgroundIndexingCheckbox.isSelected()
                 );
             }
             return null;
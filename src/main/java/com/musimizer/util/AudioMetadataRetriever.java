@@ -2,24 +2,118 @@ package com.musimizer.util;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Utility class for retrieving metadata from audio files.
- * Currently supports extracting album art from MP3 and AAC (M4A) files.
+ * Currently supports extracting album art and descriptive tags from MP3, AAC (M4A), FLAC and
+ * Ogg Vorbis/Opus files, and reading the duration of those and WAV files from their headers.
  */
 public class AudioMetadataRetriever {
     private static final byte[] ID3_HEADER = "ID3".getBytes(StandardCharsets.ISO_8859_1);
     private static final byte[] MP4_HEADER = "ftyp".getBytes(StandardCharsets.ISO_8859_1);
-    private static final byte[] COVER_ART_MP3 = "APIC".getBytes(StandardCharsets.ISO_8859_1);
-    private static final byte[] COVER_ART_AAC = "covr".getBytes(StandardCharsets.ISO_8859_1);
+    private static final int ID3_HEADER_SIZE = 10;
+    private static final byte[] MP4_MOOV = "moov".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] FLAC_MARKER = "fLaC".getBytes(StandardCharsets.ISO_8859_1);
+    private static final int FLAC_PICTURE_BLOCK = 6;
+    private static final byte[] OGG_CAPTURE = "OggS".getBytes(StandardCharsets.ISO_8859_1);
+    private static final int OGG_PAGE_HEADER_SIZE = 27;
+    private static final byte[] VORBIS_COMMENT_HEADER = "\u0003vorbis".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] OPUS_TAGS_HEADER = "OpusTags".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] PICTURE_COMMENT_KEY = "METADATA_BLOCK_PICTURE=".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] COVERART_COMMENT_KEY = "COVERART=".getBytes(StandardCharsets.ISO_8859_1);
+    // Bytes read (or decoded) to parse a FLAC picture header without its data
+    private static final int PICTURE_HEADER_PREFIX = 1024;
+    private static final int PICTURE_TYPE_OTHER = 0;
+    private static final int PICTURE_TYPE_FILE_ICON = 1;
+    private static final int PICTURE_TYPE_OTHER_FILE_ICON = 2;
+    private static final int PICTURE_TYPE_FRONT_COVER = 3;
+    private static final int FLAC_VORBIS_COMMENT_BLOCK = 4;
+    // Minimum size of a read while walking tag structures
+    private static final int TAG_READ_WINDOW = 16 * 1024;
+    // Comment blocks beyond this size hold pictures; the text comments come first in practice
+    private static final int MAX_COMMENT_BLOCK_READ = 256 * 1024;
+
+    // How far past the ID3 tag to look for the first MPEG audio frame
+    private static final int MP3_SYNC_SEARCH_LIMIT = 64 * 1024;
+    // Enough of the first MPEG frame to hold a Xing, VBRI or LAME header
+    private static final int MP3_INFO_FRAME_READ = 256;
+    private static final byte[] XING_HEADER = "Xing".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] INFO_HEADER = "Info".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] VBRI_HEADER = "VBRI".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] ID3V1_HEADER = "TAG".getBytes(StandardCharsets.ISO_8859_1);
+    private static final int[][] MPEG1_BITRATES = {
+            { 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 },
+            { 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384 },
+            { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 } };
+    private static final int[][] MPEG2_BITRATES = {
+            { 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256 },
+            { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 },
+            { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 } };
+    private static final int[] MPEG1_SAMPLE_RATES = { 44100, 48000, 32000 };
+    // Tail of an Ogg file searched for the last page
+    private static final int OGG_TAIL_READ = 64 * 1024;
+    private static final byte[] VORBIS_ID_HEADER = "\u0001vorbis".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] OPUS_HEAD = "OpusHead".getBytes(StandardCharsets.ISO_8859_1);
+    private static final int OPUS_SAMPLE_RATE = 48000;
+
+    private enum TagField {
+        ARTIST, ALBUM_ARTIST, ALBUM, YEAR, GENRE, TRACK, TRACK_COUNT, DISC, DISC_COUNT
+    }
+
+    private static final Map<String, TagField> ID3_TEXT_FRAMES = Map.ofEntries(
+            Map.entry("TPE1", TagField.ARTIST), Map.entry("TP1", TagField.ARTIST),
+            Map.entry("TPE2", TagField.ALBUM_ARTIST), Map.entry("TP2", TagField.ALBUM_ARTIST),
+            Map.entry("TALB", TagField.ALBUM), Map.entry("TAL", TagField.ALBUM),
+            Map.entry("TDRC", TagField.YEAR), Map.entry("TYER", TagField.YEAR), Map.entry("TYE", TagField.YEAR),
+            Map.entry("TCON", TagField.GENRE), Map.entry("TCO", TagField.GENRE),
+            Map.entry("TRCK", TagField.TRACK), Map.entry("TRK", TagField.TRACK),
+            Map.entry("TPOS", TagField.DISC), Map.entry("TPA", TagField.DISC));
+
+    private static final Map<String, TagField> VORBIS_COMMENT_FIELDS = Map.ofEntries(
+            Map.entry("ARTIST", TagField.ARTIST),
+            Map.entry("ALBUMARTIST", TagField.ALBUM_ARTIST), Map.entry("ALBUM ARTIST", TagField.ALBUM_ARTIST),
+            Map.entry("ALBUM", TagField.ALBUM),
+            Map.entry("DATE", TagField.YEAR), Map.entry("YEAR", TagField.YEAR),
+            Map.entry("GENRE", TagField.GENRE),
+            Map.entry("TRACKNUMBER", TagField.TRACK),
+            Map.entry("TRACKTOTAL", TagField.TRACK_COUNT), Map.entry("TOTALTRACKS", TagField.TRACK_COUNT),
+            Map.entry("DISCNUMBER", TagField.DISC),
+            Map.entry("DISCTOTAL", TagField.DISC_COUNT), Map.entry("TOTALDISCS", TagField.DISC_COUNT));
+
+    private static final Map<String, TagField> MP4_TEXT_ATOMS = Map.of(
+            "\u00A9ART", TagField.ARTIST,
+            "aART", TagField.ALBUM_ARTIST,
+            "\u00A9alb", TagField.ALBUM,
+            "\u00A9day", TagField.YEAR,
+            "\u00A9gen", TagField.GENRE);
+
+    // Genres referenced by number in ID3v1 and in old ID3v2 and MP4 tags
+    private static final String[] ID3V1_GENRES = {
+            "Blues", "Classic Rock", "Country", "Dance", "Disco", "Funk", "Grunge", "Hip-Hop", "Jazz", "Metal",
+            "New Age", "Oldies", "Other", "Pop", "R&B", "Rap", "Reggae", "Rock", "Techno", "Industrial",
+            "Alternative", "Ska", "Death Metal", "Pranks", "Soundtrack", "Euro-Techno", "Ambient", "Trip-Hop",
+            "Vocal", "Jazz+Funk", "Fusion", "Trance", "Classical", "Instrumental", "Acid", "House", "Game",
+            "Sound Clip", "Gospel", "Noise", "AlternRock", "Bass", "Soul", "Punk", "Space", "Meditative",
+            "Instrumental Pop", "Instrumental Rock", "Ethnic", "Gothic", "Darkwave", "Techno-Industrial",
+            "Electronic", "Pop-Folk", "Eurodance", "Dream", "Southern Rock", "Comedy", "Cult", "Gangsta",
+            "Top 40", "Christian Rap", "Pop/Funk", "Jungle", "Native American", "Cabaret", "New Wave",
+            "Psychadelic", "Rave", "Showtunes", "Trailer", "Lo-Fi", "Tribal", "Acid Punk", "Acid Jazz", "Polka",
+            "Retro", "Musical", "Rock & Roll", "Hard Rock" };
 
     private static final Logger LOGGER = Logger.getLogger(AudioMetadataRetriever.class.getName());
 
@@ -39,15 +133,18 @@ public class AudioMetadataRetriever {
         LOGGER.fine("Extracting cover art from: " + audioFilePath);
         
         String fileName = audioFilePath.getFileName().toString().toLowerCase();
-        try (RandomAccessFile file = new RandomAccessFile(audioFilePath.toFile(), "r");
-             FileChannel channel = file.getChannel()) {
+        try (FileChannel channel = FileChannel.open(audioFilePath, StandardOpenOption.READ)) {
             
             byte[] imageData = null;
             
             if (fileName.endsWith(".mp3")) {
-                imageData = extractMp3CoverArt(file, channel);
+                imageData = extractMp3CoverArt(channel);
             } else if (fileName.endsWith(".m4a") || fileName.endsWith(".aac")) {
-                imageData = extractAacCoverArt(file, channel);
+                imageData = extractAacCoverArt(channel);
+            } else if (fileName.endsWith(".flac")) {
+                imageData = toArray(findFlacCoverArt(channel));
+            } else if (fileName.endsWith(".ogg") || fileName.endsWith(".oga") || fileName.endsWith(".opus")) {
+                imageData = toArray(findOggCoverArt(channel));
             } else {
                 LOGGER.warning("Unsupported audio format: " + fileName);
                 return null;
@@ -78,6 +175,121 @@ public class AudioMetadataRetriever {
         }
     }
     
+    /**
+     * Reads the descriptive tags (artist, album, year, genre, track and disc numbers) of an audio file.
+     * <p>
+     * Only the tag structures are read, through a small window that skips over pictures and other
+     * large items: the ID3v2 frames of an MP3, the {@code moov} atom of an MP4, the comment block of
+     * a FLAC file, or the comment header of an Ogg stream. Audio data is never touched.
+     *
+     * @param audioFilePath path to the audio file
+     * @return the tags, {@link AudioTags#EMPTY} if the file has none, or null if the format is
+     *         not supported or the file cannot be read
+     */
+    public static AudioTags getTags(Path audioFilePath) {
+        return getTags(audioFilePath, bytes -> { });
+    }
+
+    /**
+     * Reads the tags of an audio file like {@link #getTags(Path)}, reporting how much of it was read.
+     *
+     * @param audioFilePath path to the audio file
+     * @param bytesRead receives the number of bytes read from the file, if it could be opened
+     * @return the tags, {@link AudioTags#EMPTY} if the file has none, or null if the format is
+     *         not supported or the file cannot be read
+     */
+    public static AudioTags getTags(Path audioFilePath, LongConsumer bytesRead) {
+        if (audioFilePath == null) {
+            return null;
+        }
+        String fileName = audioFilePath.getFileName().toString().toLowerCase(Locale.ROOT);
+        try (CountingFileChannel channel = new CountingFileChannel(FileChannel.open(audioFilePath, StandardOpenOption.READ))) {
+            try {
+                return readTags(channel, fileName);
+            } finally {
+                bytesRead.accept(channel.bytesRead());
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Error reading tags from: " + audioFilePath, e);
+            return null;
+        }
+    }
+
+    private static AudioTags readTags(FileChannel channel, String fileName) throws IOException {
+        TagCollector tags = new TagCollector();
+        if (fileName.endsWith(".mp3")) {
+            readId3Tags(channel, tags);
+        } else if (fileName.endsWith(".m4a") || fileName.endsWith(".aac")) {
+            readMp4Tags(channel, tags);
+        } else if (fileName.endsWith(".flac")) {
+            readFlacTags(channel, tags);
+        } else if (fileName.endsWith(".ogg") || fileName.endsWith(".oga") || fileName.endsWith(".opus")) {
+            ByteBuffer packet = readOggCommentPacket(channel);
+            if (packet != null) {
+                packet.order(ByteOrder.LITTLE_ENDIAN);
+                readVorbisComments(packet, commentHeaderLength(packet), tags);
+            }
+        } else {
+            LOGGER.fine("Unsupported audio format: " + fileName);
+            return null;
+        }
+        return tags.build();
+    }
+
+    /**
+     * Reads the duration of an audio file from its container headers, without decoding any audio:
+     * the Xing/Info or VBRI header of an MP3 (corrected by the LAME encoder delay and padding), or
+     * its size and bitrate if it has neither; FLAC STREAMINFO; the MP4 {@code mvhd} or {@code mdhd}
+     * atom; the granule position of the last Ogg page, found with one read of the file's tail; the
+     * data chunk size of a WAV file.
+     *
+     * @param audioFilePath path to the audio file
+     * @return the duration in milliseconds, or -1 if it cannot be determined
+     */
+    public static long getDurationMillis(Path audioFilePath) {
+        return getDurationMillis(audioFilePath, bytes -> { });
+    }
+
+    /**
+     * Reads the duration of an audio file like {@link #getDurationMillis(Path)}, reporting how much of it was read.
+     *
+     * @param audioFilePath path to the audio file
+     * @param bytesRead receives the number of bytes read from the file, if it could be opened
+     * @return the duration in milliseconds, or -1 if it cannot be determined
+     */
+    public static long getDurationMillis(Path audioFilePath, LongConsumer bytesRead) {
+        if (audioFilePath == null) {
+            return -1;
+        }
+        String fileName = audioFilePath.getFileName().toString().toLowerCase(Locale.ROOT);
+        try (CountingFileChannel channel = new CountingFileChannel(FileChannel.open(audioFilePath, StandardOpenOption.READ))) {
+            try {
+                return readDuration(channel, fileName);
+            } finally {
+                bytesRead.accept(channel.bytesRead());
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Error reading duration of: " + audioFilePath, e);
+            return -1;
+        }
+    }
+
+    private static long readDuration(FileChannel channel, String fileName) throws IOException {
+        if (fileName.endsWith(".mp3")) {
+            return readMp3Duration(channel);
+        } else if (fileName.endsWith(".m4a") || fileName.endsWith(".aac")) {
+            return readMp4Duration(channel);
+        } else if (fileName.endsWith(".flac")) {
+            return readFlacDuration(channel);
+        } else if (fileName.endsWith(".ogg") || fileName.endsWith(".oga") || fileName.endsWith(".opus")) {
+            return readOggDuration(channel);
+        } else if (fileName.endsWith(".wav")) {
+            return readWavDuration(channel);
+        }
+        LOGGER.fine("Unsupported audio format: " + fileName);
+        return -1;
+    }
+
     private static boolean hasValidImageHeader(byte[] data) {
         if (data == null || data.length < 4) {
             return false;
@@ -129,298 +341,1386 @@ public class AudioMetadataRetriever {
         return null;
     }
 
-    private static byte[] extractMp3CoverArt(RandomAccessFile file, FileChannel channel) throws IOException {
-        // Skip ID3 header (10 bytes: 'ID3' + version + flags + size)
-        file.seek(10);
-        
-        // Read ID3 tags
-        while (file.getFilePointer() < file.length() - 10) {
-            byte[] frameHeader = new byte[10];
-            if (file.read(frameHeader) != 10) break;
-            
-            String frameId = new String(frameHeader, 0, 4, StandardCharsets.ISO_8859_1);
-            int frameSize = ((frameHeader[4] & 0xFF) << 24) | 
-                          ((frameHeader[5] & 0xFF) << 16) | 
-                          ((frameHeader[6] & 0xFF) << 8) | 
-                          (frameHeader[7] & 0xFF);
-            
-            if (frameId.startsWith("APIC")) {
-                // Found APIC frame (picture)
-                file.skipBytes(1); // Skip text encoding
-                
-                // Read mime type (null-terminated string)
-                StringBuilder mimeType = new StringBuilder();
-                byte b;
-                while ((b = file.readByte()) != 0) {
-                    mimeType.append((char) b);
-                }
-                
-                // Skip picture type
-                file.skipBytes(1);
-                
-                // Read description (null-terminated string)
-                while (file.readByte() != 0) {
-                    // Skip until null terminator
-                }
-                
-                // The rest is the image data
-                int imageSize = frameSize - mimeType.length() - 2; // -2 for the two null terminators we skipped
-                byte[] imageData = new byte[imageSize];
-                file.readFully(imageData);
-                return imageData;
-            } else {
-                // Skip to next frame
-                file.skipBytes(frameSize);
-            }
+    private static byte[] extractMp3CoverArt(FileChannel channel) throws IOException {
+        ByteBuffer tag = readId3Tag(channel);
+        if (tag == null) {
+            return null;
+        }
+        int version = tag.get(3);
+        int flags = tag.get(5) & 0xFF;
+        int position = ID3_HEADER_SIZE;
+        if (version < 4 && (flags & 0x80) != 0) {
+            // Before v2.4 unsynchronisation applies to the whole tag; keep the header so offsets stay the same
+            ByteBuffer frames = removeUnsynchronisation(tag, position, tag.limit());
+            tag = ByteBuffer.allocate(position + frames.limit()).put(tag.slice(0, position)).put(frames).flip();
+        }
+        if (version >= 3 && (flags & 0x40) != 0 && tag.limit() >= position + 4) {
+            // v2.3 counts the extended header size without its own size field, v2.4 with it
+            int extendedSize = version == 3 ? tag.getInt(position) + 4 : syncsafeInt(tag, position);
+            position += extendedSize;
         }
-        return null;
-    }
 
-    private static byte[] extractAacCoverArt(RandomAccessFile file, FileChannel channel) throws IOException {
-        // MP4/M4A files use a box structure
-        ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN);
-        
-        // Skip to the first box
-        file.seek(0);
-        
-        while (file.getFilePointer() < file.length() - 8) {
-            // Read box header (size + type)
-            buffer.clear();
-            if (file.read(buffer.array(), 0, 8) != 8) break;
-            
-            long boxSize = buffer.getInt(0) & 0xFFFFFFFFL;
-            if (boxSize == 1) {
-                // Extended size (64-bit)
-                buffer = ByteBuffer.allocate(16).order(ByteOrder.BIG_ENDIAN);
-                file.read(buffer.array(), 8, 8);
-                boxSize = buffer.getLong(8);
+        PictureSelector<ByteBuffer> pictures = new PictureSelector<>();
+        int headerSize = id3FrameHeaderSize(version);
+        while (position + headerSize <= tag.limit()) {
+            Id3FrameHeader frameHeader = parseId3FrameHeader(tag, position, version);
+            if (frameHeader == null) {
+                break; // Padding
             }
-            
-            String boxType = new String(buffer.array(), 4, 4, StandardCharsets.ISO_8859_1);
-            
-            if (boxType.equals("moov")) {
-                // Found moov box, now look for 'udta' -> 'meta' -> 'ilst' -> 'covr'
-                return findCoverArtInMoov(file, boxSize - 8);
+            int dataStart = position + headerSize;
+            if (frameHeader.size() <= 0 || frameHeader.size() > tag.limit() - dataStart) {
+                break; // Corrupt frame; stay inside the tag
             }
-            
-            // Move to next box
-            if (boxSize > 0) {
-                file.seek(file.getFilePointer() + boxSize - 8);
-            } else {
-                break; // Invalid box size
+            position = dataStart + frameHeader.size();
+
+            boolean picture = version == 2 ? frameHeader.id().equals("PIC") : frameHeader.id().equals("APIC");
+            if (picture) {
+                ByteBuffer frame = id3FrameData(tag, version, frameHeader.flags(), dataStart, frameHeader.size());
+                if (frame != null) {
+                    offerPictureFrame(frame, version == 2, pictures);
+                }
             }
         }
-        return null;
+        return toArray(pictures.best());
     }
-    
-    private static byte[] findCoverArtInMoov(RandomAccessFile file, long moovSize) throws IOException {
-        long moovEnd = file.getFilePointer() + moovSize;
-        ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN);
-        
-        while (file.getFilePointer() < moovEnd - 8) {
-            buffer.clear();
-            if (file.read(buffer.array(), 0, 8) != 8) break;
-            
-            long boxSize = buffer.getInt(0) & 0xFFFFFFFFL;
-            String boxType = new String(buffer.array(), 4, 4, StandardCharsets.ISO_8859_1);
-            
-            if (boxType.equals("udta")) {
-                // Found user data box, look for 'meta' -> 'ilst' -> 'covr'
-                return findCoverArtInUdta(file, boxSize - 8);
-            }
-            
-            // Skip to next box
-            if (boxSize > 0) {
-                file.seek(file.getFilePointer() + boxSize - 8);
-            } else {
+
+    private record Id3FrameHeader(String id, int size, int flags) {
+    }
+
+    private static int id3FrameHeaderSize(int version) {
+        return version == 2 ? 6 : 10;
+    }
+
+    /**
+     * Parses the frame header at the given offset.
+     *
+     * @return the header, or null if the offset is in the padding after the last frame
+     */
+    private static Id3FrameHeader parseId3FrameHeader(ByteBuffer buffer, int offset, int version) {
+        if (buffer.get(offset) == 0) {
+            return null;
+        }
+        if (version == 2) {
+            int size = ((buffer.get(offset + 3) & 0xFF) << 16) | ((buffer.get(offset + 4) & 0xFF) << 8)
+                    | (buffer.get(offset + 5) & 0xFF);
+            return new Id3FrameHeader(latin1(buffer, offset, 3), size, 0);
+        }
+        int size = version == 4 && isSyncsafe(buffer, offset + 4)
+                ? syncsafeInt(buffer, offset + 4)
+                : buffer.getInt(offset + 4);
+        return new Id3FrameHeader(latin1(buffer, offset, 4), size, buffer.getShort(offset + 8) & 0xFFFF);
+    }
+
+    /**
+     * Reads the complete ID3v2 tag at the start of a file with one bulk read.
+     *
+     * @return the tag including its 10-byte header, or null if the file has no ID3v2 tag
+     */
+    private static ByteBuffer readId3Tag(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(ID3_HEADER_SIZE);
+        readFully(channel, header, 0);
+        if (header.position() < ID3_HEADER_SIZE || !containsAt(header.array(), ID3_HEADER, 0)) {
+            return null;
+        }
+        int version = header.get(3);
+        if (version < 2 || version > 4 || !isSyncsafe(header, 6)) {
+            return null;
+        }
+        int size = syncsafeInt(header, 6);
+        long available = channel.size() - ID3_HEADER_SIZE;
+        ByteBuffer tag = ByteBuffer.allocate(ID3_HEADER_SIZE + (int) Math.min(size, available));
+        tag.put(header.array());
+        readFully(channel, tag, ID3_HEADER_SIZE);
+        tag.flip();
+        return tag;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
                 break;
             }
+            offset += read;
         }
-        return null;
     }
-    
-    private static byte[] findCoverArtInUdta(RandomAccessFile file, long udtaSize) throws IOException {
-        long udtaEnd = file.getFilePointer() + udtaSize;
-        ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN);
-        
-        while (file.getFilePointer() < udtaEnd - 8) {
-            buffer.clear();
-            if (file.read(buffer.array(), 0, 8) != 8) break;
-            
-            long boxSize = buffer.getInt(0) & 0xFFFFFFFFL;
-            String boxType = new String(buffer.array(), 4, 4, StandardCharsets.ISO_8859_1);
-            
-            if (boxType.equals("meta")) {
-                // Skip version and flags (4 bytes)
-                file.skipBytes(4);
-                return findCoverArtInMeta(file, boxSize - 12);
+
+    /**
+     * Returns the usable content of a frame, undoing v2.4 per-frame unsynchronisation and
+     * skipping the group and data length fields. Compressed and encrypted frames are not supported.
+     */
+    private static ByteBuffer id3FrameData(ByteBuffer tag, int version, int frameFlags, int start, int size) {
+        int end = start + size;
+        if (version == 3) {
+            if ((frameFlags & 0x00C0) != 0) {
+                return null;
             }
-            
-            // Skip to next box
-            if (boxSize > 0) {
-                file.seek(file.getFilePointer() + boxSize - 8);
-            } else {
-                break;
+            if ((frameFlags & 0x0020) != 0) {
+                start++;
+            }
+        } else if (version == 4) {
+            if ((frameFlags & 0x000C) != 0) {
+                return null;
+            }
+            if ((frameFlags & 0x0040) != 0) {
+                start++;
+            }
+            if ((frameFlags & 0x0001) != 0) {
+                start += 4;
+            }
+            if (start > end) {
+                return null;
+            }
+            if ((frameFlags & 0x0002) != 0) {
+                return removeUnsynchronisation(tag, start, end);
             }
         }
-        return null;
+        return start > end ? null : tag.slice(start, end - start);
     }
-    
-    private static byte[] findCoverArtInMeta(RandomAccessFile file, long metaSize) throws IOException {
-        long metaEnd = file.getFilePointer() + metaSize;
-        ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN);
-        
-        while (file.getFilePointer() < metaEnd - 8) {
-            buffer.clear();
-            if (file.read(buffer.array(), 0, 8) != 8) break;
-            
-            long boxSize = buffer.getInt(0) & 0xFFFFFFFFL;
-            String boxType = new String(buffer.array(), 4, 4, StandardCharsets.ISO_8859_1);
-            
-            if (boxType.equals("ilst")) {
-                // Found item list box, look for 'covr' box
-                return findCoverArtInIlst(file, boxSize - 8);
+
+    /**
+     * Parses an APIC (v2.3/v2.4) or PIC (v2.2) frame and offers its picture to the selector.
+     * ID3 does not declare picture dimensions, so they are taken from the image's own header.
+     */
+    private static void offerPictureFrame(ByteBuffer frame, boolean v22, PictureSelector<ByteBuffer> pictures) {
+        int limit = frame.limit();
+        if (limit < 2) {
+            return;
+        }
+        int encoding = frame.get(0);
+        int position = 1;
+        if (v22) {
+            position += 3; // Three-character image format, e.g. "JPG"
+        } else {
+            while (position < limit && frame.get(position) != 0) {
+                position++; // MIME type, Latin-1 and null-terminated
             }
-            
-            // Skip to next box
-            if (boxSize > 0) {
-                file.seek(file.getFilePointer() + boxSize - 8);
-            } else {
-                break;
+            position++;
+        }
+        if (position >= limit) {
+            return;
+        }
+        int pictureType = frame.get(position++) & 0xFF;
+        position = skipEncodedString(frame, position, encoding);
+        if (position >= limit) {
+            return;
+        }
+        ByteBuffer image = frame.slice(position, limit - position);
+        pictures.offer(pictureType, imageArea(image), image);
+    }
+
+    private static int skipEncodedString(ByteBuffer buffer, int position, int encoding) {
+        int limit = buffer.limit();
+        if (encoding == 1 || encoding == 2) {
+            // UTF-16 strings end with a two-byte null on a character boundary
+            while (position + 1 < limit && (buffer.get(position) != 0 || buffer.get(position + 1) != 0)) {
+                position += 2;
             }
+            return position + 2;
         }
-        return null;
+        while (position < limit && buffer.get(position) != 0) {
+            position++;
+        }
+        return position + 1;
     }
-    
-    private static byte[] findCoverArtInIlst(RandomAccessFile file, long ilstSize) throws IOException {
-        long ilstEnd = file.getFilePointer() + ilstSize;
-        ByteBuffer buffer = ByteBuffer.allocate(16).order(ByteOrder.BIG_ENDIAN);
-        
-        LOGGER.fine("Searching for cover art in ilst box, size: " + ilstSize);
-        
-        while (file.getFilePointer() < ilstEnd - 8) {
-            long boxStart = file.getFilePointer();
-            buffer.clear();
-            if (file.read(buffer.array(), 0, 8) != 8) {
-                LOGGER.fine("Failed to read box header at position: " + boxStart);
+
+    private static ByteBuffer removeUnsynchronisation(ByteBuffer buffer, int start, int end) {
+        byte[] result = new byte[end - start];
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            result[length++] = b;
+            if (b == (byte) 0xFF && i + 1 < end && buffer.get(i + 1) == 0) {
+                i++; // Drop the 0x00 inserted after 0xFF
+            }
+        }
+        return ByteBuffer.wrap(result, 0, length).slice();
+    }
+
+    private static boolean isSyncsafe(ByteBuffer buffer, int offset) {
+        return ((buffer.get(offset) | buffer.get(offset + 1) | buffer.get(offset + 2) | buffer.get(offset + 3)) & 0x80) == 0;
+    }
+
+    private static int syncsafeInt(ByteBuffer buffer, int offset) {
+        return ((buffer.get(offset) & 0x7F) << 21) | ((buffer.get(offset + 1) & 0x7F) << 14)
+                | ((buffer.get(offset + 2) & 0x7F) << 7) | (buffer.get(offset + 3) & 0x7F);
+    }
+
+    private static String latin1(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] extractAacCoverArt(FileChannel channel) throws IOException {
+        return toArray(findMp4CoverArt(channel));
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        if (buffer == null) {
+            return null;
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(buffer.position(), bytes);
+        return bytes;
+    }
+
+    /**
+     * Finds the cover art of an MP4 file.
+     * <p>
+     * Top-level atoms are stepped over by their header alone, so {@code mdat} is never read
+     * whether {@code moov} comes before or after it. Only {@code moov} is mapped, and the picture
+     * is returned as a slice of that mapping.
+     *
+     * @return the picture bytes, or null if the file has none
+     */
+    private static ByteBuffer findMp4CoverArt(FileChannel channel) throws IOException {
+        ByteBuffer moov = findMoov(channel);
+        return moov != null ? findCoverArtInMoov(moov) : null;
+    }
+
+    /**
+     * Finds and maps the {@code moov} atom of an MP4 file, stepping over the other top-level atoms by
+     * their headers.
+     *
+     * @return the content of {@code moov}, or null if the file has none
+     */
+    private static ByteBuffer findMoov(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long position = 0;
+        while (position + 8 <= fileSize) {
+            header.clear();
+            readFully(channel, header, position);
+            if (header.position() < 8) {
                 break;
             }
-            
-            long boxSize = buffer.getInt(0) & 0xFFFFFFFFL;
-            String boxType = new String(buffer.array(), 4, 4, StandardCharsets.ISO_8859_1);
-            
-            LOGGER.fine(String.format("Found box: %s, size: %d at position: %d", boxType, boxSize, boxStart));
-            
-            if (boxType.equals("covr")) {
-                LOGGER.fine("Found 'covr' box, processing...");
-                
-                // Read the full box content
-                byte[] boxData = new byte[(int)(boxSize - 8)]; // -8 for the header we already read
-                if (file.read(boxData) != boxData.length) {
-                    LOGGER.warning("Failed to read full covr box data");
-                    return null;
-                }
-                
-                // The covr box contains a data atom
-                // First 4 bytes: size, next 4 bytes: 'data' tag, next 4 bytes: flags
-                if (boxData.length < 12) {
-                    LOGGER.warning("covr box too small to contain valid data");
-                    return null;
+            long atomSize = header.getInt(0) & 0xFFFFFFFFL;
+            int headerSize = 8;
+            if (atomSize == 1) {
+                if (header.position() < 16) {
+                    break;
                 }
-                
-                // Check for 'data' tag (bytes 4-8)
-                if (!(boxData[4] == 'd' && boxData[5] == 'a' && boxData[6] == 't' && boxData[7] == 'a')) {
-                    LOGGER.warning("covr box doesn't contain 'data' atom");
-                    // Try to find image data anyway by looking for image headers
-                    return findImageInData(boxData, 0);
-                }
-                
-                // Skip the data atom header (8 bytes size + 4 bytes 'data' + 4 bytes flags + 8 bytes reserved = 24 bytes)
-                // But some files might have different offsets, so we'll look for image headers
-                return findImageInData(boxData, 16); // Start after 'data' + flags (12 bytes) + 4 bytes reserved
+                atomSize = header.getLong(8);
+                headerSize = 16;
+            } else if (atomSize == 0) {
+                atomSize = fileSize - position; // Atom extends to the end of the file
             }
-            
-            // Skip to next box
-            if (boxSize > 0) {
-                file.seek(boxStart + boxSize);
-            } else {
-                LOGGER.warning("Invalid box size: " + boxSize);
+            if (atomSize < headerSize || position + atomSize > fileSize) {
+                LOGGER.fine("Invalid MP4 atom size " + atomSize + " at " + position);
                 break;
             }
+            if (containsAt(header.array(), MP4_MOOV, 4)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, position + headerSize, atomSize - headerSize);
+            }
+            position += atomSize;
         }
         return null;
     }
-    
-    private static boolean startsWith(byte[] array, byte[] prefix) {
-        if (array.length < prefix.length) {
-            return false;
+
+    /**
+     * @return the iTunes-style item list of a {@code moov} atom, or null if it has none
+     */
+    private static ByteBuffer findIlst(ByteBuffer moov) {
+        ByteBuffer udta = findChildAtom(moov, "udta");
+        ByteBuffer meta = udta == null ? null : findChildAtom(udta, "meta");
+        if (meta == null) {
+            return null;
         }
-        for (int i = 0; i < prefix.length; i++) {
-            if (array[i] != prefix[i]) {
-                return false;
+        // iTunes writes 'meta' as a full atom with four bytes of version and flags, QuickTime does not
+        if (meta.remaining() >= 8 && !isAtomType(meta, 4, "hdlr")) {
+            meta = meta.slice(4, meta.remaining() - 4);
+        }
+        return findChildAtom(meta, "ilst");
+    }
+
+    private static ByteBuffer findCoverArtInMoov(ByteBuffer moov) {
+        ByteBuffer ilst = findIlst(moov);
+        ByteBuffer covr = ilst == null ? null : findChildAtom(ilst, "covr");
+        if (covr == null) {
+            return null;
+        }
+        // 'covr' may hold several pictures, one 'data' atom each, without picture types
+        PictureSelector<ByteBuffer> pictures = new PictureSelector<>();
+        for (ByteBuffer data : findChildAtoms(covr, "data")) {
+            if (data.remaining() > 8) {
+                // Skip the type indicator and locale
+                ByteBuffer image = data.slice(8, data.remaining() - 8);
+                pictures.offer(PICTURE_TYPE_OTHER, imageArea(image), image);
             }
         }
-        return true;
+        return pictures.best();
     }
-    
-    private static boolean containsAt(byte[] array, byte[] pattern, int offset) {
-        if (array.length < offset + pattern.length) {
-            return false;
+
+    /**
+     * Returns the content of the first child atom of the given type, as a slice of the parent.
+     */
+    private static ByteBuffer findChildAtom(ByteBuffer parent, String type) {
+        List<ByteBuffer> atoms = findChildAtoms(parent, type, 1);
+        return atoms.isEmpty() ? null : atoms.get(0);
+    }
+
+    private static List<ByteBuffer> findChildAtoms(ByteBuffer parent, String type) {
+        return findChildAtoms(parent, type, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the content of up to {@code max} child atoms of the given type, as slices of the parent.
+     */
+    private static List<ByteBuffer> findChildAtoms(ByteBuffer parent, String type, int max) {
+        List<ByteBuffer> atoms = new ArrayList<>(1);
+        int position = 0;
+        int limit = parent.remaining();
+        while (position + 8 <= limit && atoms.size() < max) {
+            long atomSize = parent.getInt(position) & 0xFFFFFFFFL;
+            int headerSize = 8;
+            if (atomSize == 1 && position + 16 <= limit) {
+                atomSize = parent.getLong(position + 8);
+                headerSize = 16;
+            } else if (atomSize == 0) {
+                atomSize = limit - position;
+            }
+            if (atomSize < headerSize || atomSize > limit - position) {
+                break;
+            }
+            if (isAtomType(parent, position + 4, type)) {
+                atoms.add(parent.slice(position + headerSize, (int) atomSize - headerSize));
+            }
+            position += (int) atomSize;
         }
-        for (int i = 0; i < pattern.length; i++) {
-            if (array[offset + i] != pattern[i]) {
+        return atoms;
+    }
+
+    private static boolean isAtomType(ByteBuffer buffer, int offset, String type) {
+        for (int i = 0; i < 4; i++) {
+            if (buffer.get(offset + i) != (byte) type.charAt(i)) {
                 return false;
             }
         }
         return true;
     }
-    
+
     /**
-     * Tries to find image data in a byte array by looking for image headers.
-     * @param data The data to search in
-     * @param startOffset The offset to start searching from
-     * @return The image data if found, or null if no valid image header is found
+     * Finds the best PICTURE metadata block of a FLAC file. Only block headers and the fixed part of
+     * picture blocks are read while choosing; the picture data itself is read once, for the chosen
+     * block only. Audio frames are never reached.
+     *
+     * @return the picture bytes, or null if the file has none
      */
-    private static byte[] findImageInData(byte[] data, int startOffset) {
-        if (data == null || startOffset >= data.length) {
+    private static ByteBuffer findFlacCoverArt(FileChannel channel) throws IOException {
+        long position = findFlacMetadata(channel);
+        if (position < 0) {
             return null;
         }
-        
-        // Look for JPEG start marker (0xFF 0xD8)
-        for (int i = startOffset; i < data.length - 1; i++) {
-            // Check for JPEG start marker
-            if (data[i] == (byte) 0xFF && data[i + 1] == (byte) 0xD8) {
-                LOGGER.fine("Found JPEG start marker at offset: " + i);
-                // Look for JPEG end marker (0xFF 0xD9)
-                for (int j = i + 2; j < data.length - 1; j++) {
-                    if (data[j] == (byte) 0xFF && data[j + 1] == (byte) 0xD9) {
-                        // Found complete JPEG
-                        byte[] imageData = new byte[j - i + 2];
-                        System.arraycopy(data, i, imageData, 0, imageData.length);
-                        return imageData;
-                    }
+        ByteBuffer header = ByteBuffer.allocate(4);
+
+        PictureSelector<long[]> pictures = new PictureSelector<>();
+        long fileSize = channel.size();
+        boolean last = false;
+        while (!last && position + 4 <= fileSize) {
+            header.clear();
+            readFully(channel, header, position);
+            int blockHeader = header.getInt(0);
+            last = (blockHeader & 0x80000000) != 0;
+            int blockType = (blockHeader >>> 24) & 0x7F;
+            int blockLength = blockHeader & 0xFFFFFF;
+            position += 4;
+            if (blockType == FLAC_PICTURE_BLOCK) {
+                PictureHeader picture = readFlacPictureHeader(channel, position, blockLength);
+                if (picture != null && picture.dataOffset() + (long) picture.dataLength() <= blockLength) {
+                    pictures.offer(picture.type(), picture.area(),
+                            new long[] { position + picture.dataOffset(), picture.dataLength() });
                 }
-                // If we get here, we found a start but no end - return what we have
-                byte[] imageData = new byte[data.length - i];
-                System.arraycopy(data, i, imageData, 0, imageData.length);
-                return imageData;
-            }
-            // Check for PNG header
-            else if (i < data.length - 7 && 
-                    data[i] == (byte) 0x89 && data[i + 1] == 0x50 && 
-                    data[i + 2] == 0x4E && data[i + 3] == 0x47 &&
-                    data[i + 4] == 0x0D && data[i + 5] == 0x0A &&
-                    data[i + 6] == 0x1A && data[i + 7] == 0x0A) {
-                LOGGER.fine("Found PNG header at offset: " + i);
-                // For PNG, we'll return everything from the header to the end
-                // since PNG has a well-defined end marker (IEND chunk)
-                byte[] imageData = new byte[data.length - i];
-                System.arraycopy(data, i, imageData, 0, imageData.length);
-                return imageData;
             }
+            position += blockLength;
         }
-        
-        LOGGER.warning("Could not find any image data in the provided data");
-        return null;
+
+        long[] best = pictures.best();
+        if (best == null) {
+            return null;
+        }
+        ByteBuffer data = ByteBuffer.allocate((int) best[1]);
+        readFully(channel, data, best[0]);
+        return data.flip();
+    }
+
+    /**
+     * @return the position of the first metadata block of a FLAC file, or -1 if it is not a FLAC file
+     */
+    private static long findFlacMetadata(FileChannel channel) throws IOException {
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(ID3_HEADER_SIZE);
+        readFully(channel, header, 0);
+        if (header.position() == ID3_HEADER_SIZE && containsAt(header.array(), ID3_HEADER, 0) && isSyncsafe(header, 6)) {
+            // Some taggers put an ID3v2 tag in front of the stream marker; step over it without reading it
+            position = ID3_HEADER_SIZE + (long) syncsafeInt(header, 6);
+        }
+        ByteBuffer marker = ByteBuffer.allocate(4);
+        readFully(channel, marker, position);
+        if (marker.position() < 4 || !containsAt(marker.array(), FLAC_MARKER, 0)) {
+            return -1;
+        }
+        return position + 4;
+    }
+
+    private static PictureHeader readFlacPictureHeader(FileChannel channel, long position, int blockLength)
+            throws IOException {
+        ByteBuffer prefix = ByteBuffer.allocate(Math.min(blockLength, PICTURE_HEADER_PREFIX));
+        readFully(channel, prefix, position);
+        PictureHeader picture = parsePictureHeader(prefix.flip());
+        if (picture == null && blockLength > prefix.limit()) {
+            // Unusually long MIME type or description; read the whole block
+            ByteBuffer block = ByteBuffer.allocate(blockLength);
+            readFully(channel, block, position);
+            picture = parsePictureHeader(block.flip());
+        }
+        return picture;
+    }
+
+    /**
+     * Fixed part of a FLAC picture structure.
+     *
+     * @param dataOffset offset of the picture data from the start of the structure
+     */
+    private record PictureHeader(int type, int width, int height, int dataOffset, int dataLength) {
+        long area() {
+            return (long) width * height;
+        }
+    }
+
+    /**
+     * Parses the fixed part of a FLAC picture structure, as stored in a FLAC PICTURE block or (base64-encoded)
+     * in a METADATA_BLOCK_PICTURE comment. The buffer need not contain the picture data.
+     *
+     * @return the header, or null if the buffer is malformed or too short to hold the header
+     */
+    private static PictureHeader parsePictureHeader(ByteBuffer block) {
+        int limit = block.limit();
+        if (limit < 8) {
+            return null;
+        }
+        int type = block.getInt(0);
+        int position = 8 + block.getInt(4); // MIME type
+        if (position < 8 || position + 4 > limit) {
+            return null;
+        }
+        position += 4 + block.getInt(position); // Description
+        if (position < 0 || position + 20 > limit) {
+            return null;
+        }
+        int width = block.getInt(position);
+        int height = block.getInt(position + 4);
+        int dataLength = block.getInt(position + 16); // After colour depth and palette size
+        if (dataLength <= 0) {
+            return null;
+        }
+        return new PictureHeader(type, Math.max(0, width), Math.max(0, height), position + 20, dataLength);
+    }
+
+    /**
+     * Finds a picture in the comment header of an Ogg Vorbis or Opus file. Pages are read only
+     * until the comment packet is complete, which is the second packet of the stream and ends
+     * before any audio.
+     *
+     * @return the picture bytes, or null if the file has none
+     */
+    private static ByteBuffer findOggCoverArt(FileChannel channel) throws IOException {
+        ByteBuffer packet = readOggCommentPacket(channel);
+        return packet != null ? findPictureInComments(packet) : null;
+    }
+
+    /**
+     * Reads the comment header of an Ogg Vorbis or Opus stream, the second packet of the stream,
+     * which ends before any audio.
+     *
+     * @return the packet, or null if the file is not a well-formed Ogg stream
+     */
+    private static ByteBuffer readOggCommentPacket(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        long position = 0;
+        ByteBuffer pageHeader = ByteBuffer.allocate(OGG_PAGE_HEADER_SIZE + 255).order(ByteOrder.LITTLE_ENDIAN);
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        int packetNumber = 0;
+        int serial = 0;
+        boolean firstPage = true;
+
+        while (position + OGG_PAGE_HEADER_SIZE <= fileSize) {
+            pageHeader.clear();
+            readFully(channel, pageHeader, position);
+            if (pageHeader.position() < OGG_PAGE_HEADER_SIZE || !containsAt(pageHeader.array(), OGG_CAPTURE, 0)) {
+                return null;
+            }
+            int pageSerial = pageHeader.getInt(14);
+            int segmentCount = pageHeader.get(26) & 0xFF;
+            if (pageHeader.position() < OGG_PAGE_HEADER_SIZE + segmentCount) {
+                return null;
+            }
+            int pageDataSize = 0;
+            for (int i = 0; i < segmentCount; i++) {
+                pageDataSize += pageHeader.get(OGG_PAGE_HEADER_SIZE + i) & 0xFF;
+            }
+            long dataPosition = position + OGG_PAGE_HEADER_SIZE + segmentCount;
+            position = dataPosition + pageDataSize;
+            if (firstPage) {
+                serial = pageSerial;
+                firstPage = false;
+            } else if (pageSerial != serial) {
+                continue; // Page of another multiplexed stream
+            }
+
+            ByteBuffer pageData = ByteBuffer.allocate(pageDataSize);
+            readFully(channel, pageData, dataPosition);
+            if (pageData.hasRemaining()) {
+                return null; // Truncated page
+            }
+            int offset = 0;
+            for (int i = 0; i < segmentCount; i++) {
+                int lacing = pageHeader.get(OGG_PAGE_HEADER_SIZE + i) & 0xFF;
+                if (packetNumber == 1) {
+                    packet.write(pageData.array(), offset, lacing);
+                }
+                offset += lacing;
+                if (lacing < 255) {
+                    // A segment shorter than 255 bytes ends the packet
+                    if (packetNumber == 1) {
+                        return ByteBuffer.wrap(packet.toByteArray());
+                    }
+                    packetNumber++;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Looks for a METADATA_BLOCK_PICTURE (or legacy COVERART) entry in a Vorbis or Opus comment packet.
+     */
+    private static ByteBuffer findPictureInComments(ByteBuffer packet) {
+        packet.order(ByteOrder.LITTLE_ENDIAN);
+        int position = findCommentList(packet, commentHeaderLength(packet));
+        if (position < 0) {
+            return null;
+        }
+        int limit = packet.limit();
+        int count = packet.getInt(position);
+        position += 4;
+        PictureSelector<CommentPicture> pictures = new PictureSelector<>();
+        for (int i = 0; i < count && position + 4 <= limit; i++) {
+            int length = packet.getInt(position);
+            position += 4;
+            if (length < 0 || length > limit - position) {
+                break;
+            }
+            ByteBuffer comment = packet.slice(position, length);
+            position += length;
+            if (startsWithIgnoreCase(comment, PICTURE_COMMENT_KEY)) {
+                ByteBuffer value = comment.slice(PICTURE_COMMENT_KEY.length, length - PICTURE_COMMENT_KEY.length);
+                // Decode just enough of the value to read the picture header
+                int prefixLength = Math.min(value.limit(), PICTURE_HEADER_PREFIX / 3 * 4);
+                ByteBuffer prefix = decodeBase64(value.slice(0, prefixLength & ~3));
+                PictureHeader picture = prefix != null ? parsePictureHeader(prefix) : null;
+                if (picture == null && prefixLength < value.limit()) {
+                    ByteBuffer block = decodeBase64(value);
+                    picture = block != null ? parsePictureHeader(block) : null;
+                }
+                if (picture != null) {
+                    pictures.offer(picture.type(), picture.area(), new CommentPicture(value, false));
+                }
+            } else if (startsWithIgnoreCase(comment, COVERART_COMMENT_KEY)) {
+                // Legacy raw image without a picture type
+                ByteBuffer value = comment.slice(COVERART_COMMENT_KEY.length, length - COVERART_COMMENT_KEY.length);
+                pictures.offer(0, 0, new CommentPicture(value, true));
+            }
+        }
+
+        CommentPicture best = pictures.best();
+        if (best == null) {
+            return null;
+        }
+        ByteBuffer decoded = decodeBase64(best.value());
+        if (decoded == null || best.raw()) {
+            return decoded;
+        }
+        PictureHeader picture = parsePictureHeader(decoded);
+        if (picture == null || picture.dataOffset() > decoded.limit() - picture.dataLength()) {
+            return null;
+        }
+        return decoded.slice(picture.dataOffset(), picture.dataLength());
+    }
+
+    /**
+     * @return the length of the Vorbis or Opus signature that starts a comment packet, or -1 if there is none
+     */
+    private static int commentHeaderLength(ByteBuffer packet) {
+        if (containsAt(packet, 0, VORBIS_COMMENT_HEADER)) {
+            return VORBIS_COMMENT_HEADER.length;
+        } else if (containsAt(packet, 0, OPUS_TAGS_HEADER)) {
+            return OPUS_TAGS_HEADER.length;
+        }
+        return -1;
+    }
+
+    /**
+     * Steps over the vendor string of a little-endian Vorbis comment structure.
+     *
+     * @param position the start of the structure, or -1
+     * @return the position of the comment count, or -1 if the structure is malformed
+     */
+    private static int findCommentList(ByteBuffer comments, int position) {
+        int limit = comments.limit();
+        if (position < 0 || position + 4 > limit) {
+            return -1;
+        }
+        position += 4 + comments.getInt(position); // Vendor string
+        if (position < 0 || position + 4 > limit) {
+            return -1;
+        }
+        return position;
+    }
+
+    /**
+     * Base64-encoded picture found in a comment header.
+     *
+     * @param raw true for a legacy COVERART image, false for a FLAC picture structure
+     */
+    private record CommentPicture(ByteBuffer value, boolean raw) {
+    }
+
+    private static ByteBuffer decodeBase64(ByteBuffer value) {
+        try {
+            return Base64.getMimeDecoder().decode(value.duplicate()).order(ByteOrder.BIG_ENDIAN);
+        } catch (IllegalArgumentException e) {
+            LOGGER.fine("Invalid base64 picture in comment header");
+            return null;
+        }
+    }
+
+    private static boolean startsWithIgnoreCase(ByteBuffer buffer, byte[] prefix) {
+        if (buffer.limit() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            byte b = buffer.get(i);
+            if (b >= 'a' && b <= 'z') {
+                b -= 'a' - 'A';
+            }
+            if (b != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsAt(ByteBuffer buffer, int offset, byte[] pattern) {
+        if (buffer.limit() < offset + pattern.length) {
+            return false;
+        }
+        for (int i = 0; i < pattern.length; i++) {
+            if (buffer.get(offset + i) != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the text frames of an ID3v2 tag. Frames that are not needed, pictures in particular,
+     * are stepped over by their headers without being read.
+     */
+    private static void readId3Tags(FileChannel channel, TagCollector tags) throws IOException {
+        ChannelWindow window = new ChannelWindow(channel);
+        ByteBuffer header = window.get(0, ID3_HEADER_SIZE);
+        if (header == null || !containsAt(header, 0, ID3_HEADER)) {
+            return;
+        }
+        int version = header.get(3);
+        if (version < 2 || version > 4 || !isSyncsafe(header, 6)) {
+            return;
+        }
+        int flags = header.get(5) & 0xFF;
+        long tagEnd = Math.min(channel.size(), ID3_HEADER_SIZE + (long) syncsafeInt(header, 6));
+        if (version < 4 && (flags & 0x80) != 0) {
+            // Unsynchronisation of the whole tag shifts every offset, so the tag has to be read in full
+            ByteBuffer tag = readId3Tag(channel);
+            ByteBuffer frames = removeUnsynchronisation(tag, ID3_HEADER_SIZE, tag.limit());
+            window = new ChannelWindow(ByteBuffer.allocate(ID3_HEADER_SIZE + frames.limit())
+                    .put(tag.slice(0, ID3_HEADER_SIZE)).put(frames).flip());
+            tagEnd = ID3_HEADER_SIZE + frames.limit();
+        }
+        long position = ID3_HEADER_SIZE;
+        if (version >= 3 && (flags & 0x40) != 0) {
+            ByteBuffer extended = window.get(position, 4);
+            if (extended == null) {
+                return;
+            }
+            position += version == 3 ? extended.getInt(0) + 4 : syncsafeInt(extended, 0);
+        }
+
+        int headerSize = id3FrameHeaderSize(version);
+        while (position + headerSize <= tagEnd && !tags.isComplete()) {
+            ByteBuffer headerBytes = window.get(position, headerSize);
+            Id3FrameHeader frameHeader = headerBytes != null ? parseId3FrameHeader(headerBytes, 0, version) : null;
+            if (frameHeader == null) {
+                break;
+            }
+            long dataStart = position + headerSize;
+            if (frameHeader.size() <= 0 || frameHeader.size() > tagEnd - dataStart) {
+                break;
+            }
+            position = dataStart + frameHeader.size();
+
+            TagField field = ID3_TEXT_FRAMES.get(frameHeader.id());
+            if (field != null) {
+                ByteBuffer raw = window.get(dataStart, frameHeader.size());
+                ByteBuffer frame = raw != null
+                        ? id3FrameData(raw, version, frameHeader.flags(), 0, frameHeader.size())
+                        : null;
+                if (frame != null) {
+                    tags.put(field, id3Text(frame));
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes the value of an ID3v2 text frame. Of several null-separated values (ID3v2.4), the first is kept.
+     */
+    private static String id3Text(ByteBuffer frame) {
+        if (frame.limit() < 2) {
+            return null;
+        }
+        Charset charset = switch (frame.get(0)) {
+            case 1 -> StandardCharsets.UTF_16; // With byte order mark
+            case 2 -> StandardCharsets.UTF_16BE;
+            case 3 -> StandardCharsets.UTF_8;
+            default -> StandardCharsets.ISO_8859_1;
+        };
+        byte[] bytes = new byte[frame.limit() - 1];
+        frame.get(1, bytes);
+        String text = new String(bytes, charset);
+        int end = text.indexOf('\0');
+        return end >= 0 ? text.substring(0, end) : text;
+    }
+
+    /**
+     * Reads the iTunes-style items of an MP4 file. Only {@code moov} is mapped.
+     */
+    private static void readMp4Tags(FileChannel channel, TagCollector tags) throws IOException {
+        ByteBuffer moov = findMoov(channel);
+        ByteBuffer ilst = moov != null ? findIlst(moov) : null;
+        if (ilst == null) {
+            return;
+        }
+        for (Map.Entry<String, TagField> item : MP4_TEXT_ATOMS.entrySet()) {
+            ByteBuffer value = findMp4ItemValue(ilst, item.getKey());
+            if (value != null) {
+                tags.put(item.getValue(), utf8(value, 0, value.remaining()));
+            }
+        }
+        // Track and disc numbers are binary: two reserved bytes, the number, then the total
+        ByteBuffer track = findMp4ItemValue(ilst, "trkn");
+        if (track != null && track.remaining() >= 6) {
+            tags.putNumbers(TagField.TRACK, track.getShort(2) & 0xFFFF, track.getShort(4) & 0xFFFF);
+        }
+        ByteBuffer disc = findMp4ItemValue(ilst, "disk");
+        if (disc != null && disc.remaining() >= 6) {
+            tags.putNumbers(TagField.DISC, disc.getShort(2) & 0xFFFF, disc.getShort(4) & 0xFFFF);
+        }
+        ByteBuffer genre = findMp4ItemValue(ilst, "gnre");
+        if (genre != null && genre.remaining() >= 2) {
+            // One-based ID3v1 genre number
+            tags.put(TagField.GENRE, id3v1Genre((genre.getShort(0) & 0xFFFF) - 1));
+        }
+    }
+
+    /**
+     * @return the value of the first {@code data} atom of an item, without its type and locale, or null
+     */
+    private static ByteBuffer findMp4ItemValue(ByteBuffer ilst, String type) {
+        ByteBuffer item = findChildAtom(ilst, type);
+        ByteBuffer data = item != null ? findChildAtom(item, "data") : null;
+        return data != null && data.remaining() >= 8 ? data.slice(8, data.remaining() - 8) : null;
+    }
+
+    /**
+     * Reads the VORBIS_COMMENT block of a FLAC file, stepping over the other metadata blocks.
+     */
+    private static void readFlacTags(FileChannel channel, TagCollector tags) throws IOException {
+        long position = findFlacMetadata(channel);
+        if (position < 0) {
+            return;
+        }
+        ChannelWindow window = new ChannelWindow(channel);
+        boolean last = false;
+        while (!last) {
+            ByteBuffer header = window.get(position, 4);
+            if (header == null) {
+                return;
+            }
+            int blockHeader = header.getInt(0);
+            last = (blockHeader & 0x80000000) != 0;
+            int blockType = (blockHeader >>> 24) & 0x7F;
+            int blockLength = blockHeader & 0xFFFFFF;
+            position += 4;
+            if (blockType == FLAC_VORBIS_COMMENT_BLOCK) {
+                ByteBuffer block = window.get(position, (int) Math.min(blockLength,
+                        Math.min(MAX_COMMENT_BLOCK_READ, channel.size() - position)));
+                if (block != null) {
+                    readVorbisComments(block.order(ByteOrder.LITTLE_ENDIAN), 0, tags);
+                }
+                return; // There is at most one
+            }
+            position += blockLength;
+        }
+    }
+
+    /**
+     * Reads the fields of a little-endian Vorbis comment structure, as found in FLAC comment blocks and
+     * Ogg comment headers. A structure cut short is read as far as it goes.
+     *
+     * @param position the start of the structure, or -1
+     */
+    private static void readVorbisComments(ByteBuffer comments, int position, TagCollector tags) {
+        position = findCommentList(comments, position);
+        if (position < 0) {
+            return;
+        }
+        int limit = comments.limit();
+        int count = comments.getInt(position);
+        position += 4;
+        for (int i = 0; i < count && position + 4 <= limit; i++) {
+            int length = comments.getInt(position);
+            position += 4;
+            if (length < 0 || length > limit - position) {
+                break;
+            }
+            int equals = position;
+            while (equals < position + length && comments.get(equals) != '=') {
+                equals++;
+            }
+            if (equals > position && equals < position + length) {
+                TagField field = VORBIS_COMMENT_FIELDS.get(latin1(comments, position, equals - position)
+                        .toUpperCase(Locale.ROOT));
+                if (field != null) {
+                    tags.put(field, utf8(comments, equals + 1, position + length - equals - 1));
+                }
+            }
+            position += length;
+        }
+    }
+
+    private static String utf8(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String id3v1Genre(int number) {
+        return number >= 0 && number < ID3V1_GENRES.length ? ID3V1_GENRES[number] : null;
+    }
+
+    /**
+     * Header fields of an MPEG audio frame.
+     *
+     * @param mpeg1 true for MPEG-1, false for MPEG-2 and 2.5
+     * @param layer 1, 2 or 3
+     * @param bitrate the bitrate in kbit/s
+     */
+    private record MpegFrame(boolean mpeg1, int layer, int bitrate, int sampleRate, int padding, boolean mono) {
+        int samplesPerFrame() {
+            return layer == 1 ? 384 : layer == 2 || mpeg1 ? 1152 : 576;
+        }
+
+        int length() {
+            if (layer == 1) {
+                return (12 * bitrate * 1000 / sampleRate + padding) * 4;
+            }
+            return samplesPerFrame() / 8 * bitrate * 1000 / sampleRate + padding;
+        }
+
+        /**
+         * @return the offset of a Xing or Info header from the start of the frame, after the side information
+         */
+        int xingOffset() {
+            return 4 + (mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+        }
+    }
+
+    /**
+     * @return the frame described by a four-byte header, or null if it is not a valid MPEG audio frame header
+     */
+    private static MpegFrame parseMpegFrameHeader(int header) {
+        if ((header & 0xFFE00000) != 0xFFE00000) {
+            return null;
+        }
+        int version = (header >>> 19) & 3; // 0: MPEG-2.5, 2: MPEG-2, 3: MPEG-1
+        int layerBits = (header >>> 17) & 3;
+        int bitrateIndex = (header >>> 12) & 0xF;
+        int sampleRateIndex = (header >>> 10) & 3;
+        if (version == 1 || layerBits == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+            return null; // Reserved values, or free format which has no usable bitrate
+        }
+        boolean mpeg1 = version == 3;
+        int layer = 4 - layerBits;
+        int bitrate = (mpeg1 ? MPEG1_BITRATES : MPEG2_BITRATES)[layer - 1][bitrateIndex];
+        int sampleRate = MPEG1_SAMPLE_RATES[sampleRateIndex] / (mpeg1 ? 1 : version == 2 ? 2 : 4);
+        return new MpegFrame(mpeg1, layer, bitrate, sampleRate, (header >>> 9) & 1, ((header >>> 6) & 3) == 3);
+    }
+
+    private static long readMp3Duration(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        ChannelWindow window = new ChannelWindow(channel);
+        long position = 0;
+        ByteBuffer id3 = window.get(0, ID3_HEADER_SIZE);
+        if (id3 != null && containsAt(id3, 0, ID3_HEADER) && isSyncsafe(id3, 6)) {
+            position = ID3_HEADER_SIZE + (long) syncsafeInt(id3, 6);
+            if ((id3.get(5) & 0x10) != 0) {
+                position += ID3_HEADER_SIZE; // ID3v2.4 footer
+            }
+        }
+
+        // Find the first frame, confirmed by the header of the frame after it
+        MpegFrame frame = null;
+        long searchEnd = Math.min(fileSize - 4, position + MP3_SYNC_SEARCH_LIMIT);
+        for (; position <= searchEnd; position++) {
+            ByteBuffer bytes = window.get(position, 4);
+            frame = bytes != null ? parseMpegFrameHeader(bytes.getInt(0)) : null;
+            if (frame != null) {
+                ByteBuffer next = window.get(position + frame.length(), 4);
+                if (next == null || parseMpegFrameHeader(next.getInt(0)) != null) {
+                    break;
+                }
+                frame = null;
+            }
+        }
+        if (frame == null) {
+            return -1;
+        }
+
+        ByteBuffer first = window.get(position, (int) Math.min(MP3_INFO_FRAME_READ, fileSize - position));
+        int xing = frame.xingOffset();
+        if (containsAt(first, xing, XING_HEADER) || containsAt(first, xing, INFO_HEADER)) {
+            int flags = first.getInt(xing + 4);
+            if ((flags & 1) != 0) {
+                long samples = (first.getInt(xing + 8) & 0xFFFFFFFFL) * frame.samplesPerFrame();
+                int lame = xing + 8 + 4 + ((flags & 2) != 0 ? 4 : 0) + ((flags & 4) != 0 ? 100 : 0)
+                        + ((flags & 8) != 0 ? 4 : 0);
+                if (lame + 24 <= first.limit() && first.get(lame) != 0) {
+                    // LAME tag: nine bytes of encoder version, ..., then 12 bits each of encoder delay and padding
+                    int packed = ((first.get(lame + 21) & 0xFF) << 16) | ((first.get(lame + 22) & 0xFF) << 8)
+                            | (first.get(lame + 23) & 0xFF);
+                    long trimmed = samples - (packed >>> 12) - (packed & 0xFFF);
+                    samples = trimmed > 0 ? trimmed : samples;
+                }
+                return samples * 1000 / frame.sampleRate();
+            }
+        }
+        int vbri = 4 + 32; // Always after 32 bytes, whatever the channel mode
+        if (containsAt(first, vbri, VBRI_HEADER) && first.limit() >= vbri + 18) {
+            long frames = first.getInt(vbri + 14) & 0xFFFFFFFFL;
+            return frames * frame.samplesPerFrame() * 1000 / frame.sampleRate();
+        }
+
+        // Constant bitrate: the audio size gives the duration
+        long audioEnd = fileSize;
+        ByteBuffer id3v1 = fileSize - 128 >= position ? window.get(fileSize - 128, 3) : null;
+        if (id3v1 != null && containsAt(id3v1, 0, ID3V1_HEADER)) {
+            audioEnd -= 128;
+        }
+        return (audioEnd - position) * 8 / frame.bitrate();
+    }
+
+    private static long readFlacDuration(FileChannel channel) throws IOException {
+        long position = findFlacMetadata(channel);
+        if (position < 0) {
+            return -1;
+        }
+        ByteBuffer block = ByteBuffer.allocate(4 + 34);
+        readFully(channel, block, position);
+        if (block.position() < block.capacity() || (block.get(0) & 0x7F) != 0) {
+            return -1; // STREAMINFO is always the first block
+        }
+        // 20 bits sample rate, 3 bits channels, 5 bits sample size, 36 bits total samples
+        long packed = block.getLong(4 + 10);
+        long sampleRate = packed >>> 44;
+        long totalSamples = packed & 0xFFFFFFFFFL;
+        if (sampleRate == 0 || totalSamples == 0) {
+            return -1; // Total not recorded by the encoder
+        }
+        return totalSamples * 1000 / sampleRate;
+    }
+
+    private static long readMp4Duration(FileChannel channel) throws IOException {
+        ByteBuffer moov = findMoov(channel);
+        if (moov == null) {
+            return -1;
+        }
+        long duration = mp4HeaderDuration(findChildAtom(moov, "mvhd"));
+        if (duration >= 0) {
+            return duration;
+        }
+        for (ByteBuffer trak : findChildAtoms(moov, "trak")) {
+            ByteBuffer mdia = findChildAtom(trak, "mdia");
+            duration = mp4HeaderDuration(mdia != null ? findChildAtom(mdia, "mdhd") : null);
+            if (duration >= 0) {
+                return duration;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the duration of an {@code mvhd} or {@code mdhd} atom, which share the layout of their first fields.
+     */
+    private static long mp4HeaderDuration(ByteBuffer header) {
+        if (header == null || header.remaining() < 20) {
+            return -1;
+        }
+        long timescale;
+        long duration;
+        if (header.get(0) == 1) {
+            if (header.remaining() < 32) {
+                return -1;
+            }
+            timescale = header.getInt(20) & 0xFFFFFFFFL;
+            duration = header.getLong(24);
+        } else {
+            timescale = header.getInt(12) & 0xFFFFFFFFL;
+            duration = header.getInt(16) & 0xFFFFFFFFL;
+            duration = duration == 0xFFFFFFFFL ? -1 : duration;
+        }
+        if (timescale == 0 || duration <= 0) {
+            return -1;
+        }
+        return duration * 1000 / timescale;
+    }
+
+    /**
+     * Reads the sample rate from the identification header on the first page, then the total
+     * sample count from the granule position of the last page, found in one read of the file's tail.
+     */
+    private static long readOggDuration(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer firstPage = ByteBuffer.allocate(OGG_PAGE_HEADER_SIZE + 1 + 32).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, firstPage, 0);
+        if (firstPage.position() < firstPage.capacity() || !containsAt(firstPage.array(), OGG_CAPTURE, 0)) {
+            return -1;
+        }
+        int serial = firstPage.getInt(14);
+        // The identification packet is the only packet of the first page, which has a single lacing value
+        int packet = OGG_PAGE_HEADER_SIZE + (firstPage.get(26) & 0xFF);
+        long sampleRate;
+        long preSkip = 0;
+        if (containsAt(firstPage, packet, VORBIS_ID_HEADER)) {
+            sampleRate = firstPage.getInt(packet + 12) & 0xFFFFFFFFL;
+        } else if (containsAt(firstPage, packet, OPUS_HEAD)) {
+            // Opus granule positions always count 48 kHz samples, including the pre-skip
+            sampleRate = OPUS_SAMPLE_RATE;
+            preSkip = firstPage.getShort(packet + 10) & 0xFFFF;
+        } else {
+            return -1;
+        }
+        if (sampleRate == 0) {
+            return -1;
+        }
+
+        long tailStart = Math.max(0, fileSize - OGG_TAIL_READ);
+        ByteBuffer tail = ByteBuffer.allocate((int) (fileSize - tailStart)).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, tail, tailStart);
+        tail.flip();
+        for (int offset = tail.limit() - OGG_PAGE_HEADER_SIZE; offset >= 0; offset--) {
+            if (containsAt(tail, offset, OGG_CAPTURE) && tail.getInt(offset + 14) == serial) {
+                long granule = tail.getLong(offset + 6);
+                if (granule >= 0) {
+                    return Math.max(0, granule - preSkip) * 1000 / sampleRate;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static long readWavDuration(FileChannel channel) throws IOException {
+        ChannelWindow window = new ChannelWindow(channel);
+        ByteBuffer riff = window.get(0, 12);
+        if (riff == null || !containsAt(riff, 0, "RIFF".getBytes(StandardCharsets.ISO_8859_1))
+                || !containsAt(riff, 8, "WAVE".getBytes(StandardCharsets.ISO_8859_1))) {
+            return -1;
+        }
+        long fileSize = channel.size();
+        long byteRate = 0;
+        long position = 12;
+        while (position + 8 <= fileSize) {
+            ByteBuffer chunk = window.get(position, 8).order(ByteOrder.LITTLE_ENDIAN);
+            String id = latin1(chunk, 0, 4);
+            long size = chunk.getInt(4) & 0xFFFFFFFFL;
+            if (id.equals("fmt ")) {
+                ByteBuffer format = window.get(position + 8, 16);
+                if (format == null) {
+                    return -1;
+                }
+                byteRate = format.order(ByteOrder.LITTLE_ENDIAN).getInt(8) & 0xFFFFFFFFL;
+            } else if (id.equals("data")) {
+                if (byteRate == 0) {
+                    return -1;
+                }
+                // Streaming writers may leave the size unset
+                long dataSize = Math.min(size, fileSize - position - 8);
+                return dataSize * 1000 / byteRate;
+            }
+            position += 8 + size + (size & 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Positional reads through a buffer of at least {@link #TAG_READ_WINDOW} bytes, so that walking many
+     * small structures costs one read per window, while large ones that are stepped over are never read.
+     */
+    private static final class ChannelWindow {
+        private final FileChannel channel;
+        private final long end;
+        private long start;
+        private ByteBuffer buffer;
+
+        ChannelWindow(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.end = channel.size();
+            this.buffer = ByteBuffer.allocate(0);
+        }
+
+        /**
+         * A window over contents already in memory.
+         */
+        ChannelWindow(ByteBuffer contents) {
+            this.channel = null;
+            this.end = contents.limit();
+            this.buffer = contents;
+        }
+
+        /**
+         * @return the bytes at the given position as a big-endian buffer, or null if they are past the end
+         */
+        ByteBuffer get(long position, int length) throws IOException {
+            if (position < 0 || length < 0 || position + length > end) {
+                return null;
+            }
+            if (position < start || position + length > start + buffer.limit()) {
+                if (channel == null) {
+                    return null;
+                }
+                ByteBuffer read = ByteBuffer.allocate((int) Math.min(Math.max(length, TAG_READ_WINDOW), end - position));
+                readFully(channel, read, position);
+                if (read.position() < length) {
+                    return null;
+                }
+                buffer = read.flip();
+                start = position;
+            }
+            return buffer.slice((int) (position - start), length);
+        }
+    }
+
+    /**
+     * Accumulates tag values while a file is read. The first value found for a field wins.
+     */
+    private static final class TagCollector {
+        private String artist;
+        private String albumArtist;
+        private String album;
+        private String genre;
+        private int year;
+        private int track;
+        private int trackCount;
+        private int disc;
+        private int discCount;
+
+        void put(TagField field, String value) {
+            if (value == null) {
+                return;
+            }
+            value = value.trim();
+            if (value.isEmpty()) {
+                return;
+            }
+            switch (field) {
+                case ARTIST -> artist = artist != null ? artist : value;
+                case ALBUM_ARTIST -> albumArtist = albumArtist != null ? albumArtist : value;
+                case ALBUM -> album = album != null ? album : value;
+                case GENRE -> genre = genre != null ? genre : resolveGenre(value);
+                case YEAR -> year = year != 0 ? year : parseYear(value);
+                case TRACK, DISC -> {
+                    // "3" or "3/12"
+                    int slash = value.indexOf('/');
+                    putNumbers(field, parseNumber(slash >= 0 ? value.substring(0, slash) : value),
+                            slash >= 0 ? parseNumber(value.substring(slash + 1)) : 0);
+                }
+                case TRACK_COUNT -> trackCount = trackCount != 0 ? trackCount : parseNumber(value);
+                case DISC_COUNT -> discCount = discCount != 0 ? discCount : parseNumber(value);
+            }
+        }
+
+        void putNumbers(TagField field, int number, int total) {
+            if (field == TagField.TRACK) {
+                track = track != 0 ? track : number;
+                trackCount = trackCount != 0 ? trackCount : total;
+            } else {
+                disc = disc != 0 ? disc : number;
+                discCount = discCount != 0 ? discCount : total;
+            }
+        }
+
+        boolean isComplete() {
+            return artist != null && albumArtist != null && album != null && genre != null && year != 0
+                    && track != 0 && trackCount != 0 && disc != 0 && discCount != 0;
+        }
+
+        AudioTags build() {
+            return new AudioTags(artist, albumArtist, album, year, genre, track, trackCount, disc, discCount);
+        }
+
+        /**
+         * Resolves ID3v1 genre references such as {@code (17)} or {@code 17}; {@code (17)Rock} keeps the text.
+         */
+        private static String resolveGenre(String value) {
+            String genre = value;
+            if (genre.startsWith("(")) {
+                int close = genre.indexOf(')');
+                if (close > 0) {
+                    String text = genre.substring(close + 1).trim();
+                    if (!text.isEmpty()) {
+                        return text;
+                    }
+                    genre = genre.substring(1, close);
+                }
+            }
+            if (!genre.isEmpty() && genre.length() <= 3 && genre.chars().allMatch(Character::isDigit)) {
+                String name = id3v1Genre(Integer.parseInt(genre));
+                return name != null ? name : value;
+            }
+            return genre;
+        }
+
+        private static int parseYear(String value) {
+            // "1999", "1999-05-01" or "1999-05-01T12:00"
+            if (value.length() < 4) {
+                return 0;
+            }
+            for (int i = 0; i < 4; i++) {
+                if (!Character.isDigit(value.charAt(i))) {
+                    return 0;
+                }
+            }
+            return Integer.parseInt(value.substring(0, 4));
+        }
+
+        private static int parseNumber(String value) {
+            int end = 0;
+            String trimmed = value.trim();
+            while (end < trimmed.length() && end < 6 && Character.isDigit(trimmed.charAt(end))) {
+                end++;
+            }
+            return end == 0 ? 0 : Integer.parseInt(trimmed.substring(0, end));
+        }
+    }
+
+    /**
+     * Keeps the best of several embedded pictures: a front cover over any other type, then the
+     * picture with the most pixels, then the first one offered.
+     */
+    private static final class PictureSelector<T> {
+        private T best;
+        private int bestRank = Integer.MAX_VALUE;
+        private long bestArea = -1;
+
+        void offer(int pictureType, long area, T picture) {
+            int rank = rankPictureType(pictureType);
+            if (rank < bestRank || (rank == bestRank && area > bestArea)) {
+                best = picture;
+                bestRank = rank;
+                bestArea = area;
+            }
+        }
+
+        T best() {
+            return best;
+        }
+
+        private static int rankPictureType(int pictureType) {
+            switch (pictureType) {
+                case PICTURE_TYPE_FRONT_COVER:
+                    return 0;
+                case PICTURE_TYPE_OTHER:
+                    return 1;
+                case PICTURE_TYPE_FILE_ICON:
+                case PICTURE_TYPE_OTHER_FILE_ICON:
+                    return 3;
+                default:
+                    return 2;
+            }
+        }
+    }
+
+    /**
+     * Reads the pixel dimensions of a JPEG or PNG image from its header, stepping over JPEG
+     * segments by their lengths rather than scanning the compressed data.
+     *
+     * @return width times height, or 0 if they cannot be determined
+     */
+    private static long imageArea(ByteBuffer image) {
+        int limit = image.limit();
+        if (limit >= 24 && (image.get(0) & 0xFF) == 0x89 && image.get(1) == 'P' && image.get(2) == 'N' && image.get(3) == 'G') {
+            return (long) image.getInt(16) * image.getInt(20); // IHDR
+        }
+        if (limit < 4 || (image.get(0) & 0xFF) != 0xFF || (image.get(1) & 0xFF) != 0xD8) {
+            return 0;
+        }
+        int position = 2;
+        while (position + 9 <= limit) {
+            if ((image.get(position) & 0xFF) != 0xFF) {
+                return 0;
+            }
+            int marker = image.get(position + 1) & 0xFF;
+            if (marker == 0xFF) {
+                position++; // Fill byte
+                continue;
+            }
+            int segmentLength = image.getShort(position + 2) & 0xFFFF;
+            boolean startOfFrame = marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+            if (startOfFrame) {
+                int height = image.getShort(position + 5) & 0xFFFF;
+                int width = image.getShort(position + 7) & 0xFFFF;
+                return (long) width * height;
+            }
+            if (marker == 0xDA || segmentLength < 2) {
+                return 0; // Start of scan without a frame header
+            }
+            position += 2 + segmentLength;
+        }
+        return 0;
+    }
+
+    private static boolean startsWith(byte[] array, byte[] prefix) {
+        if (array.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (array[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean containsAt(byte[] array, byte[] pattern, int offset) {
+        if (array.length < offset + pattern.length) {
+            return false;
+        }
+        for (int i = 0; i < pattern.length; i++) {
+            if (array[offset + i] != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 }
@@ -0,0 +1,50 @@
+package com.musimizer.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Descriptive tags of one audio file, as read by {@link AudioMetadataRetriever#getTags}.
+ * <p>
+ * Strings are interned in a shared pool, so the thousands of tracks of one artist or genre hold
+ * a single copy of its name. Numbers are 0 when the file does not have them.
+ *
+ * @param artist the track artist
+ * @param albumArtist the album artist, set on compilations and often left out otherwise
+ * @param album the album title
+ * @param year the release year
+ * @param genre the genre, with ID3v1 genre numbers resolved to names
+ * @param trackNumber the track number within its disc
+ * @param trackCount the number of tracks on the disc
+ * @param discNumber the disc number
+ * @param discCount the number of discs
+ */
+public record AudioTags(String artist, String albumArtist, String album, int year, String genre,
+                        int trackNumber, int trackCount, int discNumber, int discCount) {
+    private static final Map<String, String> POOL = new ConcurrentHashMap<>();
+
+    /** Tags of a file that has none. */
+    public static final AudioTags EMPTY = new AudioTags(null, null, null, 0, null, 0, 0, 0, 0);
+
+    public AudioTags {
+        artist = intern(artist);
+        albumArtist = intern(albumArtist);
+        album = intern(album);
+        genre = intern(genre);
+    }
+
+    /**
+     * @return the album artist if tagged, otherwise the track artist
+     */
+    public String effectiveAlbumArtist() {
+        return albumArtist != null ? albumArtist : artist;
+    }
+
+    static String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String pooled = POOL.putIfAbsent(value, value);
+        return pooled != null ? pooled : value;
+    }
+}
@@ -0,0 +1,129 @@
+package com.musimizer.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A read-only view of a file channel that counts the bytes read through it, so that callers
+ * can charge the reads of a metadata parser to an {@link IoThrottle}. A mapped region counts
+ * as read in full, since the parsers only map what they go on to parse.
+ */
+final class CountingFileChannel extends FileChannel {
+    private final FileChannel channel;
+    private long bytesRead;
+
+    CountingFileChannel(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * @return the number of bytes read or mapped so far
+     */
+    long bytesRead() {
+        return bytesRead;
+    }
+
+    private int counted(int read) {
+        if (read > 0) {
+            bytesRead += read;
+        }
+        return read;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return counted(channel.read(dst));
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long read = channel.read(dsts, offset, length);
+        if (read > 0) {
+            bytesRead += read;
+        }
+        return read;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        return counted(channel.read(dst, position));
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+        MappedByteBuffer mapped = channel.map(mode, position, size);
+        bytesRead += size;
+        return mapped;
+    }
+
+    @Override
+    public long position() throws IOException {
+        return channel.position();
+    }
+
+    @Override
+    public FileChannel position(long newPosition) throws IOException {
+        channel.position(newPosition);
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new UnsupportedOperationException("Read-only channel");
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+        throw new UnsupportedOperationException("Read-only channel");
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) {
+        throw new UnsupportedOperationException("Read-only channel");
+    }
+
+    @Override
+    public FileChannel truncate(long size) {
+        throw new UnsupportedOperationException("Read-only channel");
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+        channel.force(metaData);
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) {
+        throw new UnsupportedOperationException("Transfers bypass the count");
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) {
+        throw new UnsupportedOperationException("Read-only channel");
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) throws IOException {
+        return channel.lock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+        return channel.tryLock(position, size, shared);
+    }
+
+    @Override
+    protected void implCloseChannel() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,45 @@
+package com.musimizer.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate at which bytes are read, shared by all threads that read through it.
+ * <p>
+ * Each read reserves the time its bytes take at the configured rate, one after the other;
+ * a caller sleeps until its reservation starts. Reads are charged after the fact, since
+ * their size is only known once they are done, so a single read is never delayed by itself.
+ */
+public class IoThrottle {
+    private final long bytesPerSecond;
+    private long nextFreeNanos = System.nanoTime();
+
+    /**
+     * @param bytesPerSecond the maximum average rate, or 0 for no limit
+     */
+    public IoThrottle(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+    }
+
+    /**
+     * Charges bytes that have been read, waiting until the rate allows them.
+     *
+     * @param bytes the number of bytes read
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        if (bytesPerSecond == 0 || bytes <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            // Idle time does not accumulate into a burst allowance
+            long start = Math.max(now, nextFreeNanos);
+            nextFreeNanos = start + bytes * 1_000_000_000L / bytesPerSecond;
+            waitNanos = start - now;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
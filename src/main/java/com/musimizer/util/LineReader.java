@@ -0,0 +1,123 @@
+package com.musimizer.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Streams the lines of a UTF-8 text file through a small read buffer.
+ * Unlike {@code Files.readAllLines}, the file contents never live on the heap as a whole;
+ * each line is decoded on its own and handed to the caller before the next one is read.
+ * <p>
+ * The file is read rather than memory-mapped: on Windows a mapping stays open until it is
+ * garbage collected, and keeps the file from being replaced or deleted in the meantime.
+ */
+public final class LineReader {
+
+    /**
+     * Receives lines as they are decoded.
+     */
+    public interface LineHandler {
+        /**
+         * Called for every non-empty line, with its line terminator removed.
+         *
+         * @param lineNumber the 1-based line number
+         * @param line the decoded line
+         * @throws IOException if the handler passes the line on to a writer that fails
+         */
+        void line(int lineNumber, String line) throws IOException;
+
+        /**
+         * Called for lines that could not be decoded as UTF-8.
+         *
+         * @param lineNumber the 1-based line number
+         * @param reason a short description of the problem
+         */
+        default void malformed(int lineNumber, String reason) {
+        }
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] UTF8_BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+    private LineReader() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Reads the given file and feeds each of its lines to the handler.
+     *
+     * @param file the file to read
+     * @param handler receives the decoded lines
+     * @return the number of lines seen, including empty and malformed ones
+     * @throws IOException if the file cannot be read
+     */
+    public static int forEachLine(Path file, LineHandler handler) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE)) {
+            skipUtf8Bom(in);
+            return forEachLine(in, handler);
+        }
+    }
+
+    private static void skipUtf8Bom(InputStream in) throws IOException {
+        in.mark(UTF8_BOM.length);
+        if (!Arrays.equals(in.readNBytes(UTF8_BOM.length), UTF8_BOM)) {
+            in.reset();
+        }
+    }
+
+    private static int forEachLine(InputStream in, LineHandler handler) throws IOException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+        byte[] line = new byte[256];
+        int length = 0;
+        int lineNumber = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                lineNumber++;
+                emit(line, length, lineNumber, decoder, handler);
+                length = 0;
+                continue;
+            }
+            if (length == line.length) {
+                line = Arrays.copyOf(line, length * 2);
+            }
+            line[length++] = (byte) b;
+        }
+        if (length > 0) {
+            lineNumber++;
+            emit(line, length, lineNumber, decoder, handler);
+        }
+        return lineNumber;
+    }
+
+    private static void emit(byte[] line, int length, int lineNumber, CharsetDecoder decoder, LineHandler handler)
+            throws IOException {
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        if (length == 0) {
+            return;
+        }
+        CharBuffer chars;
+        try {
+            chars = decoder.reset().decode(ByteBuffer.wrap(line, 0, length));
+        } catch (CharacterCodingException e) {
+            handler.malformed(lineNumber, "invalid UTF-8");
+            return;
+        }
+        handler.line(lineNumber, chars.toString());
+    }
+}
@@ -0,0 +1,178 @@
+package com.musimizer.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash set of primitive {@code long} values.
+ * Used for per-album lookups keyed by album ID so that membership checks
+ * neither box nor hash long path strings.
+ * Zero is a valid element and is tracked separately from the table's empty marker.
+ */
+public class LongHashSet {
+    private static final long EMPTY = 0L;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] table;
+    private int size;
+    private boolean containsZero;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expectedSize) {
+        table = new long[tableSizeFor(expectedSize)];
+    }
+
+    /**
+     * @param other the set to copy
+     */
+    public LongHashSet(LongHashSet other) {
+        table = other.table.clone();
+        size = other.size;
+        containsZero = other.containsZero;
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = Math.max(4, (int) Math.ceil(expectedSize / LOAD_FACTOR));
+        return Integer.highestOneBit(capacity - 1) << 1;
+    }
+
+    private static int mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @param value the value to add
+     * @return true if the set did not already contain the value
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int mask = table.length - 1;
+        int index = mix(value) & mask;
+        while (table[index] != EMPTY) {
+            if (table[index] == value) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        table[index] = value;
+        if (++size > table.length * LOAD_FACTOR) {
+            rehash(table.length * 2);
+        }
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsZero;
+        }
+        int mask = table.length - 1;
+        int index = mix(value) & mask;
+        while (table[index] != EMPTY) {
+            if (table[index] == value) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @param value the value to remove
+     * @return true if the set contained the value
+     */
+    public boolean remove(long value) {
+        if (value == EMPTY) {
+            if (!containsZero) {
+                return false;
+            }
+            containsZero = false;
+            size--;
+            return true;
+        }
+        int mask = table.length - 1;
+        int index = mix(value) & mask;
+        while (table[index] != EMPTY) {
+            if (table[index] == value) {
+                table[index] = EMPTY;
+                size--;
+                closeGap(index, mask);
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Shifts back entries following a removed slot so that linear probing still finds them.
+     */
+    private void closeGap(int gap, int mask) {
+        int index = (gap + 1) & mask;
+        while (table[index] != EMPTY) {
+            int home = mix(table[index]) & mask;
+            boolean movable = gap <= index ? (home <= gap || home > index) : (home <= gap && home > index);
+            if (movable) {
+                table[gap] = table[index];
+                table[index] = EMPTY;
+                gap = index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private void rehash(int newLength) {
+        long[] old = table;
+        table = new long[newLength];
+        int mask = newLength - 1;
+        for (long value : old) {
+            if (value != EMPTY) {
+                int index = mix(value) & mask;
+                while (table[index] != EMPTY) {
+                    index = (index + 1) & mask;
+                }
+                table[index] = value;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(table, EMPTY);
+        containsZero = false;
+        size = 0;
+    }
+
+    /**
+     * @return the elements of the set in no particular order
+     */
+    public long[] toArray() {
+        long[] values = new long[size];
+        int i = 0;
+        if (containsZero) {
+            values[i++] = 0L;
+        }
+        for (long value : table) {
+            if (value != EMPTY) {
+                values[i++] = value;
+            }
+        }
+        return values;
+    }
+}
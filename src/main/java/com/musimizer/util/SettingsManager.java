@@ -5,16 +5,20 @@ import com.musimizer.exception.MusicDirectoryException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetAddress;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.prefs.Preferences;
 import java.util.stream.Collectors;
 
 /**
@@ -29,17 +33,36 @@ public class SettingsManager {
     public static final String NUM_PICKS_KEY = "numberOfPicks";
     public static final String NUM_SEARCH_RESULTS_KEY = "numberOfSearchResults";
     public static final String APPLY_EXCLUSIONS_TO_SEARCH_KEY = "applyExclusionsToSearch";
+    public static final String DEVICE_ID_KEY = "deviceId";
+    public static final String IMAGE_CACHE_MB_KEY = "imageCacheMegabytes";
+    public static final String FOLDER_IMAGE_NAMES_KEY = "folderImageNames";
+    public static final String BACKGROUND_INDEXING_KEY = "backgroundIndexing";
+    public static final String INDEXER_MB_PER_SECOND_KEY = "indexerMegabytesPerSecond";
+    public static final String ALBUM_DISCOVERY_KEY = "albumDiscovery";
+    public static final String ALBUM_DISCOVERY_MAX_DEPTH_KEY = "albumDiscoveryMaxDepth";
+    public static final String FOLD_DISC_FOLDERS_KEY = "foldDiscFolders";
 
     // Default values
     private static final int DEFAULT_NUM_PICKS = 25;
     private static final int DEFAULT_NUM_SEARCH_RESULTS = 25;
     private static final boolean DEFAULT_APPLY_EXCLUSIONS_TO_SEARCH = true;
+    private static final int DEFAULT_IMAGE_CACHE_MB = 32;
+    private static final String DEFAULT_FOLDER_IMAGE_NAMES = "cover,folder,front,album,albumart";
+    private static final boolean DEFAULT_BACKGROUND_INDEXING = false;
+    private static final int DEFAULT_INDEXER_MB_PER_SECOND = 8;
+    private static final String DEFAULT_ALBUM_DISCOVERY = "artist-album";
+    private static final int DEFAULT_ALBUM_DISCOVERY_MAX_DEPTH = 6;
+    private static final boolean DEFAULT_FOLD_DISC_FOLDERS = true;
 
     // File names
     private static final String APP_NAME = "musimizer";
     private static final String SETTINGS_FILE_NAME = "settings.properties";
     private static final String BOOKMARKS_FILE_NAME = "bookmarks.txt";
     private static final String EXCLUSION_FILE_NAME = "excluded_albums.txt";
+    private static final String CATALOG_FILE_NAME = "catalog.bin";
+    private static final String THUMBNAIL_CACHE_DIR_NAME = "thumbnails";
+    private static final String DURATION_CACHE_FILE_NAME = "durations.bin";
+    private static final String ALBUM_METADATA_FILE_NAME = "album-metadata.bin";
     
     // Paths
     private static final Path SETTINGS_FILE_PATH;
@@ -105,6 +128,13 @@ public class SettingsManager {
         properties.putIfAbsent(NUM_PICKS_KEY, String.valueOf(DEFAULT_NUM_PICKS));
         properties.putIfAbsent(NUM_SEARCH_RESULTS_KEY, String.valueOf(DEFAULT_NUM_SEARCH_RESULTS));
         properties.putIfAbsent(APPLY_EXCLUSIONS_TO_SEARCH_KEY, String.valueOf(DEFAULT_APPLY_EXCLUSIONS_TO_SEARCH));
+        properties.putIfAbsent(IMAGE_CACHE_MB_KEY, String.valueOf(DEFAULT_IMAGE_CACHE_MB));
+        properties.putIfAbsent(FOLDER_IMAGE_NAMES_KEY, DEFAULT_FOLDER_IMAGE_NAMES);
+        properties.putIfAbsent(BACKGROUND_INDEXING_KEY, String.valueOf(DEFAULT_BACKGROUND_INDEXING));
+        properties.putIfAbsent(INDEXER_MB_PER_SECOND_KEY, String.valueOf(DEFAULT_INDEXER_MB_PER_SECOND));
+        properties.putIfAbsent(ALBUM_DISCOVERY_KEY, DEFAULT_ALBUM_DISCOVERY);
+        properties.putIfAbsent(ALBUM_DISCOVERY_MAX_DEPTH_KEY, String.valueOf(DEFAULT_ALBUM_DISCOVERY_MAX_DEPTH));
+        properties.putIfAbsent(FOLD_DISC_FOLDERS_KEY, String.valueOf(DEFAULT_FOLD_DISC_FOLDERS));
     }
 
     private static void saveSettings() {
@@ -157,6 +187,92 @@ public class SettingsManager {
         saveSettings();
     }
 
+    /**
+     * Gets the memory budget for decoded album art kept in memory.
+     *
+     * @return the budget in bytes
+     */
+    public static long getImageCacheBytes() {
+        int megabytes;
+        try {
+            megabytes = Integer.parseInt(properties.getProperty(IMAGE_CACHE_MB_KEY, String.valueOf(DEFAULT_IMAGE_CACHE_MB)).trim());
+        } catch (NumberFormatException e) {
+            megabytes = DEFAULT_IMAGE_CACHE_MB;
+        }
+        return Math.max(1, megabytes) * 1024L * 1024L;
+    }
+
+    /**
+     * Gets the file names (without extension) recognized as album art next to the tracks, best first.
+     *
+     * @return the names, e.g. {@code cover}, {@code folder}
+     */
+    public static List<String> getFolderImageNames() {
+        String names = properties.getProperty(FOLDER_IMAGE_NAMES_KEY, DEFAULT_FOLDER_IMAGE_NAMES);
+        return Arrays.stream(names.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    public static boolean isBackgroundIndexing() {
+        return Boolean.parseBoolean(properties.getProperty(BACKGROUND_INDEXING_KEY,
+                String.valueOf(DEFAULT_BACKGROUND_INDEXING)));
+    }
+
+    public static void setBackgroundIndexing(boolean enabled) {
+        properties.setProperty(BACKGROUND_INDEXING_KEY, String.valueOf(enabled));
+        saveSettings();
+    }
+
+    /**
+     * Gets the limit on how fast the background indexer reads from the music directory.
+     *
+     * @return the limit in bytes per second, or 0 for no limit
+     */
+    public static long getIndexerBytesPerSecond() {
+        int megabytes;
+        try {
+            megabytes = Integer.parseInt(properties.getProperty(INDEXER_MB_PER_SECOND_KEY,
+                    String.valueOf(DEFAULT_INDEXER_MB_PER_SECOND)).trim());
+        } catch (NumberFormatException e) {
+            megabytes = DEFAULT_INDEXER_MB_PER_SECOND;
+        }
+        return Math.max(0, megabytes) * 1024L * 1024L;
+    }
+
+    /**
+     * Gets how the library scan finds albums: {@code artist-album} for directories exactly two levels
+     * down, or {@code audio-folders} for any directory holding audio files, up to a depth limit.
+     *
+     * @return the discovery mode name
+     */
+    public static String getAlbumDiscovery() {
+        return properties.getProperty(ALBUM_DISCOVERY_KEY, DEFAULT_ALBUM_DISCOVERY).trim();
+    }
+
+    /**
+     * Gets the deepest level below the music directory at which {@code audio-folders} discovery looks for albums.
+     *
+     * @return the depth limit, at least 1
+     */
+    public static int getAlbumDiscoveryMaxDepth() {
+        try {
+            return Math.max(1, Integer.parseInt(properties.getProperty(ALBUM_DISCOVERY_MAX_DEPTH_KEY,
+                    String.valueOf(DEFAULT_ALBUM_DISCOVERY_MAX_DEPTH)).trim()));
+        } catch (NumberFormatException e) {
+            return DEFAULT_ALBUM_DISCOVERY_MAX_DEPTH;
+        }
+    }
+
+    /**
+     * @return whether {@code audio-folders} discovery makes disc subfolders such as {@code CD1} part of their album
+     */
+    public static boolean isFoldDiscFolders() {
+        return Boolean.parseBoolean(properties.getProperty(FOLD_DISC_FOLDERS_KEY,
+                String.valueOf(DEFAULT_FOLD_DISC_FOLDERS)));
+    }
+
     /**
      * Gets the path to the exclusion file.
      * 
@@ -169,6 +285,15 @@ public class SettingsManager {
     public static Path getBookmarksFilePath() {
         return getAppDataPath().resolve(BOOKMARKS_FILE_NAME);
     }
+
+    /**
+     * Gets the path to the persisted album catalog (album keys and IDs).
+     *
+     * @return Path to the catalog file
+     */
+    public static Path getCatalogFilePath() {
+        return getAppDataPath().resolve(CATALOG_FILE_NAME);
+    }
     
     /**
      * Toggles the bookmark status of an album path.
@@ -233,6 +358,57 @@ public class SettingsManager {
         }
     }
 
+    /**
+     * Gets the directory holding the persistent album art thumbnail cache.
+     *
+     * @return Path to the thumbnail cache directory
+     */
+    public static Path getThumbnailCachePath() {
+        return getAppDataPath().resolve(THUMBNAIL_CACHE_DIR_NAME);
+    }
+
+    /**
+     * Gets the path to the persisted track durations.
+     *
+     * @return Path to the duration cache file
+     */
+    public static Path getDurationCachePath() {
+        return getAppDataPath().resolve(DURATION_CACHE_FILE_NAME);
+    }
+
+    /**
+     * Gets the path to the persisted per-album metadata (tags and durations).
+     *
+     * @return Path to the album metadata file
+     */
+    public static Path getAlbumMetadataPath() {
+        return getAppDataPath().resolve(ALBUM_METADATA_FILE_NAME);
+    }
+
+    /**
+     * Gets the ID of this device, used to name its exclusion and bookmark logs.
+     * The ID is kept in the user's local preferences rather than in the settings file,
+     * because the application data directory may be synced between machines.
+     *
+     * @return a stable ID made of letters, digits and dashes
+     */
+    public static String getDeviceId() {
+        Preferences prefs = Preferences.userNodeForPackage(SettingsManager.class);
+        String deviceId = prefs.get(DEVICE_ID_KEY, null);
+        if (deviceId == null || deviceId.isEmpty()) {
+            String host;
+            try {
+                host = InetAddress.getLocalHost().getHostName();
+            } catch (IOException e) {
+                host = "device";
+            }
+            host = host.replaceAll("[^A-Za-z0-9-]", "");
+            deviceId = (host.isEmpty() ? "device" : host) + "-" + UUID.randomUUID().toString().substring(0, 8);
+            prefs.put(DEVICE_ID_KEY, deviceId);
+        }
+        return deviceId;
+    }
+
     /**
      * Gets the application data directory path based on the operating system.
      * 
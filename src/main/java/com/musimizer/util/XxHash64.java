@@ -0,0 +1,98 @@
+package com.musimizer.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * The 64-bit xxHash of a byte array. Fast and well distributed, but not cryptographic: it is used to
+ * recognize identical album art, not to defend against crafted collisions.
+ */
+public final class XxHash64 {
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private XxHash64() {
+    }
+
+    /**
+     * @param data the bytes to hash
+     * @return the hash, with seed 0
+     */
+    public static long hash(byte[] data) {
+        return hash(data, 0, data.length, 0);
+    }
+
+    /**
+     * @param data the array holding the bytes to hash
+     * @param offset the position of the first byte
+     * @param length the number of bytes
+     * @param seed the seed
+     * @return the hash
+     */
+    public static long hash(byte[] data, int offset, int length, long seed) {
+        int end = offset + length;
+        int p = offset;
+        long hash;
+        if (length >= 32) {
+            long v1 = seed + PRIME1 + PRIME2;
+            long v2 = seed + PRIME2;
+            long v3 = seed;
+            long v4 = seed - PRIME1;
+            int limit = end - 32;
+            do {
+                v1 = round(v1, (long) LONG_LE.get(data, p));
+                v2 = round(v2, (long) LONG_LE.get(data, p + 8));
+                v3 = round(v3, (long) LONG_LE.get(data, p + 16));
+                v4 = round(v4, (long) LONG_LE.get(data, p + 24));
+                p += 32;
+            } while (p <= limit);
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = seed + PRIME5;
+        }
+        hash += length;
+
+        for (; p + 8 <= end; p += 8) {
+            hash ^= round(0, (long) LONG_LE.get(data, p));
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+        }
+        if (p + 4 <= end) {
+            hash ^= (((int) INT_LE.get(data, p)) & 0xFFFFFFFFL) * PRIME1;
+            hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+            p += 4;
+        }
+        for (; p < end; p++) {
+            hash ^= (data[p] & 0xFF) * PRIME5;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * PRIME1 + PRIME4;
+    }
+}
@@ -0,0 +1,116 @@
+package com.musimizer.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AlbumCatalogTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path musicDir;
+    private Path album1;
+    private Path album2;
+    private Path album3;
+
+    @BeforeEach
+    void setUp() {
+        musicDir = tempDir.resolve("music");
+        album1 = musicDir.resolve("Artist1").resolve("Album1");
+        album2 = musicDir.resolve("Artist1").resolve("Album2");
+        album3 = musicDir.resolve("Artist2").resolve("Album3");
+    }
+
+    @Test
+    void idsAreStableAcrossCatalogOrder() {
+        AlbumCatalog first = AlbumCatalog.of(musicDir, List.of(album1, album2, album3));
+        AlbumCatalog second = AlbumCatalog.of(musicDir, List.of(album3, album1, album2));
+
+        for (int ordinal = 0; ordinal < first.size(); ordinal++) {
+            Path album = first.get(ordinal);
+            assertEquals(first.idOf(ordinal), second.idOf(second.ordinalOf(album)));
+            assertEquals(ordinal, first.ordinalOfId(first.idOf(ordinal)));
+        }
+        assertEquals(-1, first.ordinalOfId(12345L));
+    }
+
+    @Test
+    void idsAreUniqueWithinCatalog() {
+        AlbumCatalog catalog = AlbumCatalog.of(musicDir, List.of(album1, album2, album3));
+        Set<Long> ids = new HashSet<>();
+        for (int ordinal = 0; ordinal < catalog.size(); ordinal++) {
+            assertTrue(ids.add(catalog.idOf(ordinal)));
+        }
+        assertNotEquals(AlbumCatalog.hashKey("Artist1/Album1", 0), AlbumCatalog.hashKey("Artist1/Album1", 1));
+    }
+
+    @Test
+    void snapshotRoundTripPreservesIds() throws IOException {
+        AlbumCatalog catalog = AlbumCatalog.of(musicDir, List.of(album1, album2, album3));
+        Path snapshotFile = tempDir.resolve("catalog.bin");
+        catalog.toSnapshot(AlbumDiscovery.ARTIST_ALBUM).write(snapshotFile);
+
+        CatalogSnapshot snapshot = CatalogSnapshot.read(snapshotFile);
+
+        assertNotNull(snapshot);
+        assertEquals(3, snapshot.size());
+        assertEquals("Artist2/Album3", snapshot.keyOf(catalog.idOf(catalog.ordinalOf(album3))));
+        for (int i = 1; i < snapshot.size(); i++) {
+            assertTrue(snapshot.idAt(i - 1) < snapshot.idAt(i));
+        }
+    }
+
+    @Test
+    void previousSnapshotIdsAreCarriedOver() {
+        long[] ids = { 7L };
+        String[] keys = { "Artist1/Album2" };
+        CatalogSnapshot previous = new CatalogSnapshot(musicDir.toAbsolutePath().toString(), ids, keys,
+                new String[1], new AlbumManifest[1], AlbumDiscovery.ARTIST_ALBUM);
+
+        AlbumCatalog catalog = AlbumCatalog.of(musicDir, List.of(album1, album2), previous);
+
+        assertEquals(7L, catalog.idOf(catalog.ordinalOf(album2)));
+        assertEquals(catalog.ordinalOf(album2), catalog.ordinalOfId(7L));
+    }
+
+    @Test
+    void diffReportsAddedAlbums() {
+        AlbumCatalog previous = AlbumCatalog.of(musicDir, List.of(album1, album2));
+
+        AlbumCatalog current = AlbumCatalog.of(musicDir, List.of(album2, album3),
+                previous.toSnapshot(AlbumDiscovery.ARTIST_ALBUM));
+        CatalogDiff diff = CatalogDiff.compute(previous.sortedIds(), current);
+
+        assertEquals(List.of(album3), diff.addedAlbums());
+    }
+
+    @Test
+    void diffIsEmptyWithoutPreviousSnapshot() {
+        AlbumCatalog current = AlbumCatalog.of(musicDir, List.of(album1, album2));
+
+        assertEquals(0, CatalogDiff.compute(null, current).addedOrdinals().length);
+    }
+
+    @Test
+    void hasAudioIsFalseOnlyForManifestsWithoutTracks() {
+        AlbumManifest tracks = new AlbumManifest(List.of("01.mp3"), new long[] { 1 }, List.of());
+        AlbumCatalog scanned = AlbumCatalog.withManifests(musicDir, List.of(album1, album2),
+                List.of(tracks, AlbumManifest.EMPTY), null);
+        AlbumCatalog unscanned = AlbumCatalog.of(musicDir, List.of(album1, album2));
+
+        assertTrue(scanned.hasAudio(scanned.ordinalOf(album1)));
+        assertFalse(scanned.hasAudio(scanned.ordinalOf(album2)));
+        AlbumCatalog restored = AlbumCatalog.fromSnapshot(musicDir, scanned.toSnapshot(AlbumDiscovery.ARTIST_ALBUM));
+        assertFalse(restored.hasAudio(restored.ordinalOf(album2)));
+        assertTrue(unscanned.hasAudio(1));
+    }
+}
@@ -0,0 +1,76 @@
+package com.musimizer.repository;
+
+import com.musimizer.util.AudioTags;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AlbumMetadataStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void save_shouldRoundTripMetadata() throws IOException {
+        Path file = tempDir.resolve("album-metadata.bin");
+        AlbumMetadata metadata = new AlbumMetadata(1000,
+                List.of(new AlbumMetadata.TrackFile("01.flac", 123, 456), new AlbumMetadata.TrackFile("02.flac", 789, 12)),
+                new AudioTags("Artist", null, "Album", 1999, "Jazz", 1, 2, 0, 0), 185_000, 1);
+        AlbumMetadataStore store = new AlbumMetadataStore(file, tempDir);
+        store.put(42L, metadata);
+        store.put(43L, new AlbumMetadata(2000, List.of(), AudioTags.EMPTY, 0, 0));
+        store.save();
+
+        AlbumMetadataStore reloaded = new AlbumMetadataStore(file, tempDir);
+
+        assertEquals(metadata, reloaded.get(42L));
+        assertEquals(AudioTags.EMPTY, reloaded.get(43L).tags());
+        assertEquals(1, reloaded.retainAll(Set.of(42L)));
+        assertNull(reloaded.get(43L));
+    }
+
+    @Test
+    void constructor_shouldIgnoreStoreOfAnotherMusicDirectory() throws IOException {
+        Path file = tempDir.resolve("album-metadata.bin");
+        AlbumMetadataStore store = new AlbumMetadataStore(file, tempDir.resolve("music"));
+        store.put(42L, new AlbumMetadata(1000, List.of(), AudioTags.EMPTY, 0, 0));
+        store.save();
+
+        assertEquals(0, new AlbumMetadataStore(file, tempDir.resolve("other")).size());
+    }
+
+    @Test
+    void get_shouldLoadTheFileOnFirstUseOnly() throws IOException {
+        Path file = tempDir.resolve("album-metadata.bin");
+        AlbumMetadataStore store = new AlbumMetadataStore(file, tempDir);
+        store.put(42L, new AlbumMetadata(1000, List.of(), AudioTags.EMPTY, 0, 0));
+        store.save();
+
+        AlbumMetadataStore reloaded = new AlbumMetadataStore(file, tempDir);
+        assertFalse(reloaded.isLoaded());
+        assertNotNull(reloaded.get(42L));
+        assertTrue(reloaded.isLoaded());
+    }
+
+    @Test
+    void isCurrent_shouldDetectChangedTrack() throws IOException {
+        Path album = Files.createDirectories(tempDir.resolve("Album"));
+        Path track = Files.write(album.resolve("01.mp3"), new byte[10]);
+        Files.setLastModifiedTime(track, FileTime.fromMillis(5000));
+        AlbumMetadata metadata = new AlbumMetadata(Files.getLastModifiedTime(album).toMillis(),
+                List.of(new AlbumMetadata.TrackFile("01.mp3", 10, 5000)), AudioTags.EMPTY, 0, 1);
+        assertTrue(metadata.isCurrent(album));
+
+        Files.setLastModifiedTime(track, FileTime.fromMillis(6000));
+
+        assertFalse(metadata.isCurrent(album));
+    }
+}
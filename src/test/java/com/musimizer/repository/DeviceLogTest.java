@@ -0,0 +1,103 @@
+package com.musimizer.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceLogTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void merge_shouldMergeLogsOfAllDevices() throws IOException {
+        DeviceLog laptop = new DeviceLog(tempDir, "bookmarks", "laptop");
+        DeviceLog desktop = new DeviceLog(tempDir, "bookmarks", "desktop");
+
+        laptop.append(List.of("A/One"), List.of());
+        desktop.append(List.of("B/Two"), List.of());
+
+        assertEquals(List.of("A/One", "B/Two"), merged(laptop, null));
+        assertEquals(merged(laptop, null), merged(desktop, null));
+    }
+
+    @Test
+    void merge_shouldLetLatestRecordWin() throws IOException {
+        Files.write(tempDir.resolve("excluded_albums.laptop.log"), List.of(
+                "100\t+\tA/One",
+                "300\t-\tA/One",
+                "300\t+\tB/Two"));
+        Files.write(tempDir.resolve("excluded_albums.desktop.log"), List.of(
+                "200\t+\tA/One",
+                "400\t-\tB/Two",
+                "500\t+\tB/Two"));
+
+        DeviceLog log = new DeviceLog(tempDir, "excluded_albums", "laptop");
+
+        assertEquals(List.of("B/Two"), merged(log, null));
+    }
+
+    @Test
+    void merge_shouldTreatBaseEntriesAsOldestAdds() throws IOException {
+        Files.write(tempDir.resolve("excluded_albums.laptop.log"), List.of("1\t-\tA/One"));
+
+        DeviceLog log = new DeviceLog(tempDir, "excluded_albums", "laptop");
+
+        assertEquals(List.of("B/Two"), merged(log, List.of("A/One", "B/Two", "B/Two")));
+    }
+
+    @Test
+    void merge_shouldKeepBaseEntriesAndSimultaneousAddsInListedOrder() throws IOException {
+        Files.write(tempDir.resolve("bookmarks.laptop.log"), List.of(
+                "100\t+\tZ/Last",
+                "100\t+\tA/First",
+                "100\t+\tM/Middle"));
+        List<String> legacy = List.of("Q/1", "C/2", "X/3", "B/4", "W/5", "D/6", "V/7", "E/8");
+
+        DeviceLog log = new DeviceLog(tempDir, "bookmarks", "laptop");
+
+        List<String> expected = new ArrayList<>(legacy);
+        expected.addAll(List.of("Z/Last", "A/First", "M/Middle"));
+        assertEquals(expected, merged(log, legacy));
+    }
+
+    @Test
+    void merge_shouldSkipTruncatedRecords() throws IOException {
+        Files.writeString(tempDir.resolve("bookmarks.desktop.log"), "100\t+\tA/One\n200\t+");
+
+        DeviceLog log = new DeviceLog(tempDir, "bookmarks", "laptop");
+
+        assertEquals(List.of("A/One"), merged(log, null));
+    }
+
+    @Test
+    void append_shouldKeepTimestampsIncreasing() throws IOException {
+        Path logFile = tempDir.resolve("bookmarks.laptop.log");
+        long future = System.currentTimeMillis() + 60_000;
+        Files.write(logFile, List.of(future + "\t+\tA/One"));
+        DeviceLog log = new DeviceLog(tempDir, "bookmarks", "laptop");
+        merged(log, null);
+
+        log.append(List.of(), List.of("A/One"));
+
+        assertEquals(List.of(), merged(log, null));
+        assertTrue(Files.readAllLines(logFile).get(1).startsWith(String.valueOf(future + 1)));
+    }
+
+    private List<String> merged(DeviceLog log, List<String> baseEntries) throws IOException {
+        Path baseFile = tempDir.resolve("base.txt");
+        if (baseEntries != null) {
+            Files.write(baseFile, baseEntries);
+        }
+        List<String> entries = new ArrayList<>();
+        log.merge(baseFile, (position, entry) -> entries.add(entry));
+        return entries;
+    }
+}
@@ -6,9 +6,13 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.SequencedSet;
 import java.util.Set;
 
 
@@ -30,7 +34,7 @@ class FileAlbumRepositoryTest {
 
     @BeforeEach
     void setUp() throws IOException {
-        repository = new FileAlbumRepository();
+        repository = new FileAlbumRepository(null, "test");
         
         musicDir = tempDir.resolve("music");
         Files.createDirectories(musicDir);
@@ -66,7 +70,7 @@ class FileAlbumRepositoryTest {
         
         repository.saveExcludedAlbums(musicDir, exclusionFile, excludedAlbums);
         
-        Set<Path> loadedExclusions = repository.loadExcludedAlbums(musicDir, exclusionFile);
+        Set<Path> loadedExclusions = paths(repository.loadExcludedAlbums(scan(repository), exclusionFile));
         
         assertEquals(2, loadedExclusions.size());
         assertTrue(loadedExclusions.contains(album1));
@@ -88,8 +92,9 @@ class FileAlbumRepositoryTest {
 
     @Test
     void testLoadExcludedAlbums_WhenFileDoesNotExist() {
-        Set<Path> result = repository.loadExcludedAlbums(musicDir, exclusionFile);
-        assertTrue(result.isEmpty());
+        CatalogEntries result = repository.loadExcludedAlbums(scan(repository), exclusionFile);
+        assertEquals(0, result.ordinals().length);
+        assertTrue(result.orphaned().isEmpty());
     }
 
     @Test
@@ -98,6 +103,205 @@ class FileAlbumRepositoryTest {
         assertTrue(result.isEmpty());
     }
 
+    @Test
+    void testLoadExcludedEntries_ResolvesIntoCatalogAndReportsOrphans() throws IOException {
+        AlbumCatalog catalog = (AlbumCatalog) repository.findAllAlbums(musicDir);
+        byte[] invalidUtf8 = { (byte) 0xC3, (byte) 0x28, '\n' };
+        Files.write(exclusionFile, ("\uFEFFSpecial-Chars_ Test/Album_ The Third!\r\n"
+                + "\n"
+                + "Gone Artist/Gone Album\n"
+                + "Special-Chars_ Test/Album_ The Third!\n").getBytes(StandardCharsets.UTF_8));
+        Files.write(exclusionFile, invalidUtf8, StandardOpenOption.APPEND);
+
+        CatalogEntries entries = repository.loadExcludedAlbums(catalog, exclusionFile);
+
+        assertArrayEquals(new int[] { catalog.ordinalOf(album3) }, entries.ordinals());
+        assertEquals(List.of(musicDir.resolve("Gone Artist/Gone Album")), entries.orphaned());
+        assertEquals(1, entries.malformed().size());
+    }
+
+    @Test
+    void testSaveAndLoadBookmarks_PreservesOrderAgainstCatalog() {
+        AlbumCatalog catalog = scan(repository);
+        Path bookmarksFile = tempDir.resolve("bookmarks.txt");
+        repository.saveBookmarks(bookmarksFile, List.of(album2, album1));
+
+        assertEquals(List.of(album2, album1), List.copyOf(paths(repository.loadBookmarks(catalog, bookmarksFile))));
+    }
+
+    @Test
+    void testSaveExcludedAlbums_MergesWritesFromAnotherInstance() {
+        FileAlbumRepository otherInstance = new FileAlbumRepository(null, "test");
+        repository.saveExcludedAlbums(musicDir, exclusionFile, List.of(album1));
+        Set<Path> mine = paths(repository.loadExcludedAlbums(scan(repository), exclusionFile));
+        Set<Path> theirs = paths(otherInstance.loadExcludedAlbums(scan(otherInstance), exclusionFile));
+
+        theirs.add(album2);
+        otherInstance.saveExcludedAlbums(musicDir, exclusionFile, theirs);
+        mine.add(album3);
+        repository.saveExcludedAlbums(musicDir, exclusionFile, mine);
+
+        assertEquals(Set.of(album1, album2, album3), paths(repository.loadExcludedAlbums(scan(repository), exclusionFile)));
+    }
+
+    @Test
+    void testSaveBookmarks_KeepsRemovalsFromAnotherInstance() {
+        Path bookmarksFile = tempDir.resolve("bookmarks.txt");
+        FileAlbumRepository otherInstance = new FileAlbumRepository(null, "test");
+        repository.saveBookmarks(bookmarksFile, List.of(album1, album2));
+        var mine = paths(repository.loadBookmarks(scan(repository), bookmarksFile));
+        var theirs = paths(otherInstance.loadBookmarks(scan(otherInstance), bookmarksFile));
+
+        theirs.remove(album1);
+        otherInstance.saveBookmarks(bookmarksFile, theirs);
+        mine.add(album3);
+        repository.saveBookmarks(bookmarksFile, mine);
+
+        assertEquals(List.of(album2, album3), List.copyOf(paths(repository.loadBookmarks(scan(repository), bookmarksFile))));
+    }
+
+    @Test
+    void testSyncedDevices_MergeExclusionsThroughDeviceLogs() throws IOException {
+        Path appData = tempDir.resolve("appdata");
+        Path sharedExclusions = appData.resolve("excluded_albums.txt");
+        FileAlbumRepository laptop = new FileAlbumRepository(null, "laptop");
+        FileAlbumRepository desktop = new FileAlbumRepository(null, "desktop");
+
+        Set<Path> laptopExclusions = paths(laptop.loadExcludedAlbums(scan(laptop), sharedExclusions));
+        Set<Path> desktopExclusions = paths(desktop.loadExcludedAlbums(scan(desktop), sharedExclusions));
+        laptopExclusions.add(album1);
+        laptop.saveExcludedAlbums(musicDir, sharedExclusions, laptopExclusions);
+        desktopExclusions.add(album2);
+        // Simulate the sync tool resolving a conflict by keeping the desktop's stale copy of the list file
+        Files.delete(sharedExclusions);
+        desktop.saveExcludedAlbums(musicDir, sharedExclusions, desktopExclusions);
+
+        assertTrue(Files.exists(appData.resolve("journal").resolve("excluded_albums.laptop.log")));
+        FileAlbumRepository other = new FileAlbumRepository(null, "other");
+        assertEquals(Set.of(album1, album2), paths(other.loadExcludedAlbums(scan(other), sharedExclusions)));
+    }
+
+    @Test
+    void testFindAllAlbums_AudioFoldersAtAnyDepthUpToLimit() throws IOException {
+        Path nested = Files.createDirectories(musicDir.resolve("Jazz").resolve("Some Artist").resolve("Some Album"));
+        Files.write(nested.resolve("01.mp3"), new byte[10]);
+        Path shallow = Files.createDirectories(musicDir.resolve("Loose Album"));
+        Files.write(shallow.resolve("01.flac"), new byte[10]);
+        // Below an album: part of it, not an album of its own
+        Path bonus = Files.createDirectories(shallow.resolve("Bonus"));
+        Files.write(bonus.resolve("01.flac"), new byte[10]);
+        Path tooDeep = Files.createDirectories(musicDir.resolve("A").resolve("B").resolve("C").resolve("D"));
+        Files.write(tooDeep.resolve("01.mp3"), new byte[10]);
+        Files.write(album1.resolve("scan.jpg"), new byte[10]);
+        repository.setAlbumDiscovery(new AlbumDiscovery(AlbumDiscovery.Mode.AUDIO_FOLDERS, 3, true));
+
+        AlbumCatalog catalog = (AlbumCatalog) repository.findAllAlbums(musicDir);
+
+        assertEquals(Set.of(nested.toAbsolutePath(), shallow.toAbsolutePath()), Set.copyOf(catalog));
+        assertEquals(List.of("01.flac"), catalog.manifestOf(catalog.ordinalOf(shallow)).trackNames());
+    }
+
+    @Test
+    void testFindAllAlbums_FoldsDiscFoldersInDiscOrder() throws IOException {
+        Path boxSet = musicDir.resolve("Artist").resolve("Box Set");
+        for (String disc : List.of("CD10", "CD2", "Disc 1 - Early")) {
+            Files.write(Files.createDirectories(boxSet.resolve(disc)).resolve("01.flac"), new byte[10]);
+        }
+        Files.createFile(boxSet.resolve("cover.jpg"));
+        repository.setAlbumDiscovery(new AlbumDiscovery(AlbumDiscovery.Mode.AUDIO_FOLDERS, 6, true));
+
+        AlbumCatalog catalog = (AlbumCatalog) repository.findAllAlbums(musicDir);
+
+        assertEquals(List.of(boxSet.toAbsolutePath()), catalog);
+        AlbumManifest manifest = catalog.manifestOf(0);
+        assertEquals(List.of("Disc 1 - Early/01.flac", "CD2/01.flac", "CD10/01.flac"), manifest.trackNames());
+        assertEquals(boxSet.toAbsolutePath().resolve("Disc 1 - Early").resolve("01.flac"),
+                manifest.tracks(catalog.get(0)).get(0));
+        assertEquals("cover.jpg", catalog.folderImageOf(0));
+    }
+
+    @Test
+    void testFindAllAlbums_DiscFoldersAreAlbumsWhenNotFolded() throws IOException {
+        Path boxSet = musicDir.resolve("Artist").resolve("Box Set");
+        Path cd1 = Files.createDirectories(boxSet.resolve("CD1"));
+        Files.write(cd1.resolve("01.flac"), new byte[10]);
+        repository.setAlbumDiscovery(new AlbumDiscovery(AlbumDiscovery.Mode.AUDIO_FOLDERS, 6, false));
+
+        assertEquals(List.of(cd1.toAbsolutePath()), repository.findAllAlbums(musicDir));
+    }
+
+    @Test
+    void testDiscNumberOf() {
+        assertEquals(1, FileAlbumRepository.discNumberOf("CD1"));
+        assertEquals(2, FileAlbumRepository.discNumberOf("disc 2"));
+        assertEquals(3, FileAlbumRepository.discNumberOf("Disk_03 - Live"));
+        assertEquals(-1, FileAlbumRepository.discNumberOf("Vol. 4"));
+        assertEquals(-1, FileAlbumRepository.discNumberOf("Volume 2"));
+        assertEquals(-1, FileAlbumRepository.discNumberOf("Discography"));
+        assertEquals(-1, FileAlbumRepository.discNumberOf("CDs"));
+    }
+
+    @Test
+    void testFindAllAlbums_RecordsManifestInCatalogSnapshot() throws IOException {
+        Files.write(album1.resolve("02 second.mp3"), new byte[20]);
+        Files.write(album1.resolve("01 First.MP3"), new byte[10]);
+        Files.write(album1.resolve("03 Third.mp3"), new byte[30]);
+        Files.createFile(album1.resolve("notes.txt"));
+        Files.createFile(album1.resolve("folder.jpg"));
+        Files.createFile(album1.resolve("cover.png"));
+        Files.createDirectories(album1.resolve("Scans"));
+        Path catalogFile = tempDir.resolve("data").resolve("catalog.bin");
+
+        AlbumCatalog catalog = (AlbumCatalog) new FileAlbumRepository(catalogFile, "test").findAllAlbums(musicDir);
+
+        AlbumManifest manifest = catalog.manifestOf(catalog.ordinalOf(album1));
+        // Case does not affect the order, on any platform
+        assertEquals(List.of("01 First.MP3", "02 second.mp3", "03 Third.mp3"), manifest.trackNames());
+        assertEquals(10, manifest.trackSize(0));
+        assertEquals(60, manifest.totalSize());
+        assertEquals("01 First.MP3", manifest.firstTrack());
+        assertEquals(List.of("cover.png", "folder.jpg"), manifest.folderImages());
+        assertEquals("cover.png", catalog.folderImageOf(catalog.ordinalOf(album1)));
+        assertEquals(AlbumManifest.EMPTY, catalog.manifestOf(catalog.ordinalOf(album2)));
+
+        AlbumCatalog restored = AlbumCatalog.fromSnapshot(musicDir, CatalogSnapshot.read(catalogFile));
+        assertEquals(manifest, restored.manifestOf(restored.ordinalOf(album1)));
+        assertNull(restored.manifestOf(restored.ordinalOf(album2)).firstTrack());
+    }
+
+    @Test
+    void testFindAllAlbums_RecordsBestFolderImageInCatalogSnapshot() throws IOException {
+        Files.createFile(album1.resolve("Folder.png"));
+        Files.createFile(album1.resolve("cover.jpg"));
+        Files.createFile(album1.resolve("back.jpg"));
+        Files.createFile(album2.resolve("folder.jpg"));
+        Path catalogFile = tempDir.resolve("data").resolve("catalog.bin");
+
+        AlbumCatalog catalog = (AlbumCatalog) new FileAlbumRepository(catalogFile, "test").findAllAlbums(musicDir);
+
+        assertEquals("cover.jpg", catalog.folderImageOf(catalog.ordinalOf(album1)));
+        assertEquals("folder.jpg", catalog.folderImageOf(catalog.ordinalOf(album2)));
+        assertNull(catalog.folderImageOf(catalog.ordinalOf(album3)));
+
+        AlbumCatalog restored = AlbumCatalog.fromSnapshot(musicDir, CatalogSnapshot.read(catalogFile));
+        assertEquals("cover.jpg", restored.folderImageOf(restored.ordinalOf(album1)));
+        assertNull(restored.folderImageOf(restored.ordinalOf(album3)));
+    }
+
+    @Test
+    void testDiffWithPreviousCatalog_ReportsAlbumsNewToEachDevice() throws IOException {
+        Path catalogFile = tempDir.resolve("data").resolve("catalog.bin");
+        new FileAlbumRepository(catalogFile, "laptop").findAllAlbums(musicDir);
+        Path album4 = Files.createDirectories(musicDir.resolve("Artist With Spaces").resolve("Album 4"));
+        new FileAlbumRepository(catalogFile, "desktop").findAllAlbums(musicDir);
+
+        FileAlbumRepository laptop = new FileAlbumRepository(catalogFile, "laptop");
+        FileAlbumRepository desktop = new FileAlbumRepository(catalogFile, "desktop");
+
+        assertEquals(List.of(album4.toAbsolutePath()), laptop.diffWithPreviousCatalog(musicDir).addedAlbums());
+        assertEquals(List.of(), desktop.diffWithPreviousCatalog(musicDir).addedAlbums());
+    }
+
     @Test
     void testFindAllAlbums_WhenDirectoryDoesNotExist() {
         Path nonExistentDir = tempDir.resolve("nonexistent");
@@ -106,4 +310,20 @@ class FileAlbumRepositoryTest {
         });
     }
 
+
+    private AlbumCatalog scan(FileAlbumRepository repository) {
+        return (AlbumCatalog) repository.findAllAlbums(musicDir);
+    }
+
+    /**
+     * @return the matched albums in file order, then the orphans
+     */
+    private static SequencedSet<Path> paths(CatalogEntries entries) {
+        SequencedSet<Path> paths = new LinkedHashSet<>();
+        for (int ordinal : entries.ordinals()) {
+            paths.add(entries.catalog().get(ordinal));
+        }
+        paths.addAll(entries.orphaned());
+        return paths;
+    }
 }
@@ -0,0 +1,87 @@
+package com.musimizer.service;
+
+import com.musimizer.repository.DurationCache;
+import com.musimizer.repository.FileAlbumRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AlbumDurationServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void getAlbumDuration_shouldSumTracksAndCountUnknownOnes() throws IOException {
+        Path album = Files.createDirectories(tempDir.resolve("Artist/Album"));
+        Files.write(album.resolve("01.wav"), wav(3000));
+        Files.write(album.resolve("02.wav"), wav(1500));
+        Files.write(album.resolve("03.flac"), new byte[100]);
+        Files.write(album.resolve("cover.jpg"), new byte[100]);
+        AlbumDurationService service = new AlbumDurationService(new DurationCache(tempDir.resolve("durations.bin")), 2);
+
+        AlbumDurationService.AlbumDuration duration = service.getAlbumDuration(library(), album);
+
+        assertEquals(4500, duration.millis());
+        assertEquals(3, duration.trackCount());
+        assertEquals(1, duration.unknownTracks());
+        assertFalse(duration.isComplete());
+    }
+
+    @Test
+    void getAlbumDurations_shouldReuseSavedDurationsWhileSizeAndTimeAreUnchanged() throws IOException {
+        Path first = Files.createDirectories(tempDir.resolve("First"));
+        Path second = Files.createDirectories(tempDir.resolve("Second"));
+        Path track = first.resolve("01.wav");
+        Files.write(track, wav(2000));
+        Files.write(second.resolve("01.wav"), wav(1000));
+        Path cacheFile = tempDir.resolve("durations.bin");
+
+        Map<Path, AlbumDurationService.AlbumDuration> durations =
+                new AlbumDurationService(new DurationCache(cacheFile), 2).getAlbumDurations(library(), List.of(first, second));
+        assertEquals(2000, durations.get(first).millis());
+        assertEquals(1000, durations.get(second).millis());
+
+        // Same size and modification time: the saved duration wins over the unreadable content
+        FileTime modified = Files.getLastModifiedTime(track);
+        Files.write(track, new byte[(int) Files.size(track)]);
+        Files.setLastModifiedTime(track, modified);
+        AlbumDurationService reloaded = new AlbumDurationService(new DurationCache(cacheFile), 2);
+        assertEquals(2000, reloaded.getAlbumDuration(library(), first).millis());
+
+        // A changed modification time makes the file be read again
+        Files.setLastModifiedTime(track, FileTime.fromMillis(modified.toMillis() + 5000));
+        assertEquals(1, reloaded.getAlbumDuration(library(), first).unknownTracks());
+    }
+
+    /**
+     * @return the library of {@link #tempDir}, as found by a scan
+     */
+    private AlbumService library() {
+        return new AlbumService(new FileAlbumRepository(null, "test"), tempDir, tempDir.resolve("excluded.txt"));
+    }
+
+    /**
+     * @return a WAV file of 16-bit stereo audio at 44.1 kHz
+     */
+    private static byte[] wav(int millis) {
+        int dataSize = 176400 * millis / 1000;
+        ByteBuffer out = ByteBuffer.allocate(44 + dataSize).order(ByteOrder.LITTLE_ENDIAN);
+        out.put("RIFF".getBytes(StandardCharsets.ISO_8859_1)).putInt(36 + dataSize);
+        out.put("WAVEfmt ".getBytes(StandardCharsets.ISO_8859_1)).putInt(16);
+        out.putShort((short) 1).putShort((short) 2).putInt(44100).putInt(176400).putShort((short) 4).putShort((short) 16);
+        out.put("data".getBytes(StandardCharsets.ISO_8859_1)).putInt(dataSize);
+        return out.array();
+    }
+}
@@ -0,0 +1,128 @@
+package com.musimizer.service;
+
+import com.musimizer.repository.AlbumDiscovery;
+import com.musimizer.repository.AlbumMetadata;
+import com.musimizer.repository.AlbumMetadataStore;
+import com.musimizer.repository.DurationCache;
+import com.musimizer.repository.FileAlbumRepository;
+import com.musimizer.util.IoThrottle;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class AlbumMetadataServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void refresh_shouldReadOnlyAlbumsWhoseFilesChanged() throws IOException {
+        Path musicDir = tempDir.resolve("music");
+        Path first = Files.createDirectories(musicDir.resolve("Artist/First"));
+        Path second = Files.createDirectories(musicDir.resolve("Artist/Second"));
+        Path track = Files.write(first.resolve("01.wav"), wav(2000));
+        Files.write(second.resolve("01.wav"), wav(1000));
+        Files.write(second.resolve("02.wav"), wav(500));
+        AlbumService albumService = mock(AlbumService.class);
+        when(albumService.getAllAlbums()).thenReturn(List.of(first, second));
+        when(albumService.getAlbumId(first)).thenReturn(OptionalLong.of(1));
+        when(albumService.getAlbumId(second)).thenReturn(OptionalLong.of(2));
+        when(albumService.getTracks(first)).thenReturn(List.of(track));
+        when(albumService.getTracks(second)).thenReturn(List.of(second.resolve("01.wav"), second.resolve("02.wav")));
+
+        assertEquals(new AlbumMetadataService.RefreshResult(0, 2, 0), newService(musicDir).refresh(albumService));
+
+        // A new session finds everything current
+        AlbumMetadataService service = newService(musicDir);
+        assertEquals(new AlbumMetadataService.RefreshResult(2, 0, 0), service.refresh(albumService));
+        assertEquals(1500, service.getMetadata(2).orElseThrow().durationMillis());
+        assertEquals(2, service.getMetadata(2).orElseThrow().tracks().size());
+
+        Files.write(track, wav(3000));
+        Files.setLastModifiedTime(track, FileTime.fromMillis(Files.getLastModifiedTime(track).toMillis() + 5000));
+        when(albumService.getAllAlbums()).thenReturn(List.of(first));
+
+        assertEquals(new AlbumMetadataService.RefreshResult(0, 1, 1), service.refresh(albumService));
+        assertEquals(3000, service.getMetadata(1).orElseThrow().durationMillis());
+        assertTrue(service.getMetadata(2).isEmpty());
+    }
+
+    @Test
+    void refresh_shouldReadTracksOfFoldedDiscFolders() throws IOException {
+        Path musicDir = tempDir.resolve("music");
+        Path album = Files.createDirectories(musicDir.resolve("Artist/Box Set"));
+        Files.write(Files.createDirectories(album.resolve("CD1")).resolve("01.wav"), wav(2000));
+        Path secondDiscTrack = Files.write(Files.createDirectories(album.resolve("CD2")).resolve("01.wav"), wav(1000));
+        FileAlbumRepository repository = new FileAlbumRepository(null, "test");
+        repository.setAlbumDiscovery(new AlbumDiscovery(AlbumDiscovery.Mode.AUDIO_FOLDERS, 6, true));
+        AlbumService albumService = new AlbumService(repository, musicDir, tempDir.resolve("excluded.txt"));
+        long albumId = albumService.getAlbumId(album).orElseThrow();
+
+        assertEquals(new AlbumMetadataService.RefreshResult(0, 1, 0), newService(musicDir).refresh(albumService));
+
+        AlbumMetadataService service = newService(musicDir);
+        assertEquals(new AlbumMetadataService.RefreshResult(1, 0, 0), service.refresh(albumService));
+        AlbumMetadata metadata = service.getMetadata(albumId).orElseThrow();
+        assertEquals(3000, metadata.durationMillis());
+        assertEquals(List.of("CD1/01.wav", "CD2/01.wav"),
+                metadata.tracks().stream().map(AlbumMetadata.TrackFile::name).toList());
+
+        // A change inside a disc folder leaves the album directory's time alone, but is still noticed
+        Files.write(secondDiscTrack, wav(1500));
+        Files.setLastModifiedTime(secondDiscTrack,
+                FileTime.fromMillis(Files.getLastModifiedTime(secondDiscTrack).toMillis() + 5000));
+        assertEquals(new AlbumMetadataService.RefreshResult(0, 1, 0), service.refresh(albumService));
+        assertEquals(3500, service.getMetadata(albumId).orElseThrow().durationMillis());
+    }
+
+    @Test
+    void refreshAlbum_shouldReadOnlyChangedAlbumsAndCompleteRefreshShouldDropTheRest() throws Exception {
+        Path musicDir = tempDir.resolve("music");
+        Path album = Files.createDirectories(musicDir.resolve("Artist/Album"));
+        Path track = Files.write(album.resolve("01.wav"), wav(1000));
+        AlbumService albumService = mock(AlbumService.class);
+        when(albumService.getTracks(album)).thenReturn(List.of(track));
+        AlbumMetadataService service = newService(musicDir);
+        IoThrottle throttle = new IoThrottle(0);
+
+        assertTrue(service.refreshAlbum(albumService, album, 1, throttle));
+        assertFalse(service.refreshAlbum(albumService, album, 1, throttle));
+        assertEquals(1000, service.getMetadata(1).orElseThrow().durationMillis());
+
+        assertEquals(1, service.completeRefresh(Set.of(2L)));
+        assertTrue(service.getMetadata(1).isEmpty());
+    }
+
+    private AlbumMetadataService newService(Path musicDir) {
+        return new AlbumMetadataService(
+                new AlbumMetadataStore(tempDir.resolve("album-metadata.bin"), musicDir),
+                new AlbumDurationService(new DurationCache(tempDir.resolve("durations.bin")), 2),
+                2);
+    }
+
+    /**
+     * @return a WAV file of 16-bit stereo audio at 44.1 kHz
+     */
+    private static byte[] wav(int millis) {
+        int dataSize = 176400 * millis / 1000;
+        ByteBuffer out = ByteBuffer.allocate(44 + dataSize).order(ByteOrder.LITTLE_ENDIAN);
+        out.put("RIFF".getBytes(StandardCharsets.ISO_8859_1)).putInt(36 + dataSize);
+        out.put("WAVEfmt ".getBytes(StandardCharsets.ISO_8859_1)).putInt(16);
+        out.putShort((short) 1).putShort((short) 2).putInt(44100).putInt(176400).putShort((short) 4).putShort((short) 16);
+        out.put("data".getBytes(StandardCharsets.ISO_8859_1)).putInt(dataSize);
+        return out.array();
+    }
+}
@@ -1,7 +1,10 @@
 package com.musimizer.service;
 
 import com.musimizer.exception.MusicDirectoryException;
+import com.musimizer.repository.AlbumCatalog;
+import com.musimizer.repository.AlbumManifest;
 import com.musimizer.repository.AlbumRepository;
+import com.musimizer.repository.CatalogEntries;
 import com.musimizer.settings.ApplicationSettings;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -10,6 +13,7 @@ import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 
@@ -47,6 +51,28 @@ class AlbumServiceTest {
             Path.of(musicDir.toAbsolutePath().toString(), "Artist3", "Al_ bum3"),
             Path.of(musicDir.toAbsolutePath().toString(), "A rti st4", "Al bum4")
         );
+        // Empty lists unless a test says otherwise
+        lenient().when(albumRepository.loadExcludedAlbums(any(), any()))
+                .thenAnswer(invocation -> entriesOf(invocation.getArgument(0), List.of()));
+        lenient().when(albumRepository.loadBookmarks(any(), any()))
+                .thenAnswer(invocation -> entriesOf(invocation.getArgument(0), List.of()));
+    }
+
+    /**
+     * Resolves albums against a catalog the way the repository does.
+     */
+    private static CatalogEntries entriesOf(AlbumCatalog catalog, Collection<Path> albums) {
+        List<Integer> ordinals = new ArrayList<>();
+        List<Path> orphaned = new ArrayList<>();
+        for (Path album : albums) {
+            int ordinal = catalog.ordinalOf(album);
+            if (ordinal >= 0) {
+                ordinals.add(ordinal);
+            } else {
+                orphaned.add(album);
+            }
+        }
+        return new CatalogEntries(catalog, ordinals.stream().mapToInt(Integer::intValue).toArray(), orphaned, List.of());
     }
 
     
@@ -105,7 +131,8 @@ class AlbumServiceTest {
             return null;
         }).when(albumRepository).saveExcludedAlbums(any(), any(), any());
 
-        when(albumRepository.loadExcludedAlbums(any(), any())).thenReturn(capturedExclusions);
+        when(albumRepository.loadExcludedAlbums(any(), any()))
+                .thenAnswer(invocation -> entriesOf(invocation.getArgument(0), capturedExclusions));
 
         // When
         albumService.excludeAlbum(excludedAlbum); // This will now "save" the exclusion to our captured set
@@ -304,7 +331,9 @@ class AlbumServiceTest {
     void loadExcludedAlbums_shouldReloadExcludedAlbums() throws Exception {
         // Given
         Set<Path> excluded = Set.of(sampleAlbums.get(0));
-        when(albumRepository.loadExcludedAlbums(musicDir, exclusionFile)).thenReturn(excluded);
+        when(albumRepository.findAllAlbums(musicDir)).thenReturn(new ArrayList<>(sampleAlbums));
+        when(albumRepository.loadExcludedAlbums(any(), eq(exclusionFile)))
+                .thenAnswer(invocation -> entriesOf(invocation.getArgument(0), excluded));
         
         // When
         albumService.loadExcludedAlbums();
@@ -313,4 +342,86 @@ class AlbumServiceTest {
         assertEquals(excluded, albumService.getExcludedAlbums());
     }
 
+    @Test
+    void loadExcludedAlbums_shouldResolveAgainstTheScannedCatalog() throws Exception {
+        // Given
+        when(albumRepository.findAllAlbums(musicDir)).thenReturn(new ArrayList<>(sampleAlbums));
+
+        // When - loaded before anything else touched the library
+        albumService.loadExcludedAlbums();
+
+        // Then
+        verify(albumRepository).loadExcludedAlbums(argThat(catalog -> catalog.size() == sampleAlbums.size()),
+                eq(exclusionFile));
+    }
+
+    @Test
+    void toggleBookmark_shouldKeepBookmarksOfAlbumsNoLongerInTheLibrary() throws Exception {
+        // Given
+        when(albumRepository.findAllAlbums(musicDir)).thenReturn(new ArrayList<>(sampleAlbums));
+        Path gone = musicDir.resolve("Gone").resolve("Album");
+        when(albumRepository.loadBookmarks(any(), any()))
+                .thenAnswer(invocation -> entriesOf(invocation.getArgument(0), List.of(sampleAlbums.get(1), gone)));
+
+        // When
+        assertTrue(albumService.toggleBookmark(sampleAlbums.get(0)));
+
+        // Then
+        List<Path> expected = List.of(sampleAlbums.get(1), sampleAlbums.get(0), gone);
+        assertEquals(expected, List.copyOf(albumService.getBookmarkedAlbums()));
+        verify(albumRepository).saveBookmarks(any(), argThat(saved -> List.copyOf(saved).equals(expected)));
+        assertTrue(albumService.isBookmarked(gone));
+    }
+
+    @Test
+    void findFirstAudioFileAndGetTracks_shouldUseManifestWithoutListingDirectory() throws Exception {
+        // Given - albums that do not exist on disk, so any listing would come back empty
+        AlbumManifest manifest = new AlbumManifest(List.of("01 Intro.flac", "02 Song.flac"), new long[] { 100, 200 },
+                List.of("cover.jpg"));
+        AlbumCatalog catalog = AlbumCatalog.withManifests(musicDir, sampleAlbums.subList(0, 2),
+                List.of(manifest, AlbumManifest.EMPTY), null);
+        when(albumRepository.findAllAlbums(musicDir)).thenReturn(catalog);
+        Path album = sampleAlbums.get(0);
+
+        // Then
+        assertEquals(Optional.of(album.resolve("01 Intro.flac")), albumService.findFirstAudioFile(album));
+        assertEquals(List.of(album.resolve("01 Intro.flac"), album.resolve("02 Song.flac")), albumService.getTracks(album));
+        assertEquals(Optional.empty(), albumService.findFirstAudioFile(sampleAlbums.get(1)));
+    }
+
+    @Test
+    void getTracks_shouldListUncataloguedAlbumInManifestOrder() throws Exception {
+        // Given - an album the catalog does not know yet
+        Path album = Files.createDirectories(musicDir.resolve("Artist1").resolve("New Album"));
+        Files.createFile(album.resolve("02 second.mp3"));
+        Files.createFile(album.resolve("01 First.MP3"));
+        Files.createFile(album.resolve("03 Third.mp3"));
+        Files.createFile(album.resolve("notes.txt"));
+
+        // Then - the same order a manifest of the album would have
+        assertEquals(List.of(album.resolve("01 First.MP3"), album.resolve("02 second.mp3"), album.resolve("03 Third.mp3")),
+                albumService.getTracks(album));
+    }
+
+    @Test
+    void generateNewPicksAndSearch_shouldSkipAlbumsWithoutAudio() throws Exception {
+        // Given - the first album holds only scans
+        AlbumManifest tracks = new AlbumManifest(List.of("01.flac"), new long[] { 100 }, List.of());
+        AlbumManifest scansOnly = new AlbumManifest(List.of(), new long[0], List.of("cover.jpg"));
+        List<AlbumManifest> manifests = new ArrayList<>(List.of(scansOnly));
+        while (manifests.size() < sampleAlbums.size()) {
+            manifests.add(tracks);
+        }
+        when(albumRepository.findAllAlbums(musicDir))
+                .thenReturn(AlbumCatalog.withManifests(musicDir, sampleAlbums, manifests, null));
+
+        // When
+        albumService.generateNewPicks(sampleAlbums.size());
+
+        // Then
+        assertEquals(sampleAlbums.size() - 1, albumService.getCurrentPicks().size());
+        assertFalse(albumService.getCurrentPicks().contains(sampleAlbums.get(0)));
+        assertEquals(List.of(sampleAlbums.get(1)), albumService.searchAlbums(List.of("Artist1"), 10));
+    }
+
 }
@@ -0,0 +1,134 @@
+package com.musimizer.ui;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.WritableImage;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageCacheTest {
+
+    // 10 x 10 pixels at four bytes each
+    private static final long IMAGE_BYTES = 400;
+
+    @Test
+    void put_shouldEvictDownToNinetyPercentOfTheBudget() {
+        ImageCache cache = new ImageCache(10 * IMAGE_BYTES);
+        for (long key = 1; key <= 10; key++) {
+            cache.put(key, image());
+        }
+        assertEquals(10, cache.getEntryCount());
+        assertEquals(10 * IMAGE_BYTES, cache.getSizeInBytes());
+
+        cache.put(11, image());
+
+        assertEquals(9, cache.getEntryCount());
+        assertTrue(cache.getSizeInBytes() <= 9 * IMAGE_BYTES);
+        assertFalse(cache.contains(1));
+        assertFalse(cache.contains(2));
+        assertTrue(cache.contains(11));
+    }
+
+    @Test
+    void put_shouldNotCacheImagesLargerThanTheBudget() {
+        ImageCache cache = new ImageCache(IMAGE_BYTES - 1);
+
+        cache.put(1, image());
+
+        assertFalse(cache.contains(1));
+        assertEquals(0, cache.getSizeInBytes());
+    }
+
+    @Test
+    void put_shouldEvictLeastRecentlyUsedFirst() {
+        ImageCache cache = new ImageCache(3 * IMAGE_BYTES);
+        cache.put(1, image());
+        cache.put(2, image());
+        cache.put(3, image());
+        assertNotNull(cache.get(1));
+
+        // Evicting down to 90% of the budget drops two images
+        cache.put(4, image());
+
+        assertTrue(cache.contains(1));
+        assertFalse(cache.contains(2));
+        assertFalse(cache.contains(3));
+        assertTrue(cache.contains(4));
+    }
+
+    @Test
+    void contains_shouldNotCountAsAnAccess() {
+        ImageCache cache = new ImageCache(3 * IMAGE_BYTES);
+        cache.put(1, image());
+        cache.put(2, image());
+        cache.put(3, image());
+        assertTrue(cache.contains(1));
+
+        cache.put(4, image());
+
+        assertFalse(cache.contains(1));
+        assertFalse(cache.contains(2));
+        assertTrue(cache.contains(3));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    void peek_shouldNotCountAsAnAccess() {
+        ImageCache cache = new ImageCache(3 * IMAGE_BYTES);
+        Image first = image();
+        cache.put(1, first);
+        cache.put(2, image());
+        cache.put(3, image());
+        assertSame(first, cache.peek(1));
+        assertNull(cache.peek(5));
+
+        cache.put(4, image());
+
+        assertNull(cache.peek(1));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    void alias_shouldFindTheImageUntilItIsEvicted() {
+        ImageCache cache = new ImageCache(3 * IMAGE_BYTES);
+        Image shared = image();
+        cache.put(1, shared);
+        cache.alias(101, 1);
+        cache.alias(102, 1);
+        cache.alias(103, 99);
+
+        assertSame(shared, cache.getAliased(101));
+        assertSame(shared, cache.getAliased(102));
+        assertNull(cache.getAliased(103));
+        assertFalse(cache.containsAlias(103));
+
+        cache.put(2, image());
+        cache.put(3, image());
+        cache.put(4, image());
+
+        assertFalse(cache.containsAlias(101));
+        assertNull(cache.getAliased(102));
+    }
+
+    @Test
+    void alias_shouldMoveToTheNewImage() {
+        ImageCache cache = new ImageCache(3 * IMAGE_BYTES);
+        cache.put(1, image());
+        Image replacement = image();
+        cache.put(2, replacement);
+        cache.alias(101, 1);
+
+        cache.alias(101, 2);
+        cache.invalidate(1);
+
+        assertSame(replacement, cache.getAliased(101));
+        cache.invalidate(2);
+        assertFalse(cache.containsAlias(101));
+    }
+
+    private static Image image() {
+        return new WritableImage(10, 10);
+    }
+}
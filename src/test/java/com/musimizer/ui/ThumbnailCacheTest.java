@@ -0,0 +1,116 @@
+package com.musimizer.ui;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.WritableImage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThumbnailCacheTest {
+
+    // 4 x 4 pixels at four bytes each
+    private static final long THUMBNAIL_BYTES = 64;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void get_shouldFindThumbnailsTakenFromFoldedDiscFolders() throws IOException {
+        Path cacheDir = tempDir.resolve("cache");
+        Path album = Files.createDirectories(tempDir.resolve("music/Artist/Box Set"));
+        Path cover = Files.write(Files.createDirectories(album.resolve("CD1")).resolve("cover.jpg"), new byte[10]);
+        new ThumbnailCache(cacheDir).put(1, album, cover, 42, image(0xFF112233));
+
+        ThumbnailCache reopened = new ThumbnailCache(cacheDir);
+
+        assertTrue(reopened.contains(1, album));
+        assertEquals(album.resolve("CD1/cover.jpg"), reopened.sourceOf(1, album));
+        assertEquals(0xFF112233, reopened.get(1, album).getPixelReader().getArgb(0, 0));
+    }
+
+    @Test
+    void put_shouldStartNewSegmentsWhenOneIsFull() throws IOException {
+        Path cacheDir = tempDir.resolve("cache");
+        Path album = Files.createDirectories(tempDir.resolve("music/Album"));
+        Path cover = Files.write(album.resolve("cover.jpg"), new byte[10]);
+        ThumbnailCache cache = new ThumbnailCache(cacheDir, 2 * THUMBNAIL_BYTES, Long.MAX_VALUE);
+        for (int i = 1; i <= 5; i++) {
+            cache.put(i, album, cover, i, image(0xFF000000 | i));
+        }
+
+        ThumbnailCache reopened = new ThumbnailCache(cacheDir, 2 * THUMBNAIL_BYTES, Long.MAX_VALUE);
+
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(0xFF000000 | i, reopened.get(i, album).getPixelReader().getArgb(0, 0));
+        }
+        assertEquals(3, packFiles(cacheDir).size());
+    }
+
+    @Test
+    void load_shouldCompactShadowedThumbnailsIntoANewGeneration() throws IOException {
+        Path cacheDir = tempDir.resolve("cache");
+        Path album = Files.createDirectories(tempDir.resolve("music/Album"));
+        Path cover = Files.write(album.resolve("cover.jpg"), new byte[10]);
+        ThumbnailCache cache = new ThumbnailCache(cacheDir, 1024, 0);
+        for (int i = 1; i <= 4; i++) {
+            cache.put(1, album, cover, i, image(0xFF000000 | i));
+        }
+        // Shares the pixels of the latest thumbnail of album 1
+        cache.put(2, album, cover, 4, image(0xFF000004));
+        Files.write(cacheDir.resolve("thumbnails-v2.pack"), new byte[10]);
+
+        ThumbnailCache reopened = new ThumbnailCache(cacheDir, 1024, 0);
+
+        assertEquals(0xFF000004, reopened.get(1, album).getPixelReader().getArgb(0, 0));
+        assertEquals(0xFF000004, reopened.get(2, album).getPixelReader().getArgb(0, 0));
+        assertEquals(List.of(cacheDir.resolve("thumbnails-v3-1-0.pack")), packFiles(cacheDir));
+        assertEquals(THUMBNAIL_BYTES, Files.size(cacheDir.resolve("thumbnails-v3-1-0.pack")));
+        assertFalse(Files.exists(cacheDir.resolve("thumbnails-v3-0.idx")));
+    }
+
+    @Test
+    void put_shouldSwitchToTheGenerationAnotherInstanceCompactedTo() throws IOException {
+        Path cacheDir = tempDir.resolve("cache");
+        Path album = Files.createDirectories(tempDir.resolve("music/Album"));
+        Path cover = Files.write(album.resolve("cover.jpg"), new byte[10]);
+        ThumbnailCache cache = new ThumbnailCache(cacheDir, 1024, 0);
+        for (int i = 1; i <= 4; i++) {
+            cache.put(1, album, cover, i, image(0xFF000000 | i));
+        }
+        assertNotNull(cache.get(1, album));
+
+        ThumbnailCache other = new ThumbnailCache(cacheDir, 1024, 0);
+        assertNotNull(other.get(1, album));
+        assertFalse(Files.exists(cacheDir.resolve("thumbnails-v3-0.idx")));
+        cache.put(2, album, cover, 5, image(0xFF000005));
+
+        assertEquals(0xFF000005, cache.get(2, album).getPixelReader().getArgb(0, 0));
+        assertEquals(0xFF000004, cache.get(1, album).getPixelReader().getArgb(0, 0));
+        assertEquals(List.of(cacheDir.resolve("thumbnails-v3-1-0.pack")), packFiles(cacheDir));
+        ThumbnailCache reopened = new ThumbnailCache(cacheDir, 1024, 0);
+        assertEquals(0xFF000005, reopened.get(2, album).getPixelReader().getArgb(0, 0));
+    }
+
+    private static List<Path> packFiles(Path cacheDir) throws IOException {
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".pack")).sorted().toList();
+        }
+    }
+
+    private static Image image(int argb) {
+        WritableImage image = new WritableImage(4, 4);
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                image.getPixelWriter().setArgb(x, y, argb);
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,628 @@
+package com.musimizer.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AudioMetadataRetrieverTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testMp3_v23PictureAfterTextFrame() throws IOException {
+        byte[] image = jpeg(300);
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        frames.writeBytes(frame23("TIT2", text("Song")));
+        frames.writeBytes(frame23("APIC", apic(image)));
+
+        Path file = writeMp3(3, frames.toByteArray());
+
+        assertArrayEquals(image, AudioMetadataRetriever.getCoverImage(file));
+    }
+
+    @Test
+    void testMp3_v24UsesSyncsafeFrameSizes() throws IOException {
+        // Large enough that a syncsafe size differs from a plain big-endian one
+        byte[] image = jpeg(1000);
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        frames.writeBytes(frame24("TIT2", text("Song")));
+        frames.writeBytes(frame24("APIC", apic(image)));
+
+        Path file = writeMp3(4, frames.toByteArray());
+
+        assertArrayEquals(image, AudioMetadataRetriever.getCoverImage(file));
+    }
+
+    @Test
+    void testMp3_v22PicFrame() throws IOException {
+        byte[] image = jpeg(200);
+        ByteArrayOutputStream pic = new ByteArrayOutputStream();
+        pic.write(0);
+        pic.writeBytes("JPG".getBytes(StandardCharsets.ISO_8859_1));
+        pic.write(3);
+        pic.write(0);
+        pic.writeBytes(image);
+        byte[] data = pic.toByteArray();
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.writeBytes("PIC".getBytes(StandardCharsets.ISO_8859_1));
+        frame.write(data.length >> 16);
+        frame.write(data.length >> 8);
+        frame.write(data.length);
+        frame.writeBytes(data);
+
+        Path file = writeMp3(2, frame.toByteArray());
+
+        assertArrayEquals(image, AudioMetadataRetriever.getCoverImage(file));
+    }
+
+    @Test
+    void testMp3_PrefersFrontCoverOverEarlierPictures() throws IOException {
+        byte[] backCover = jpeg(300);
+        byte[] frontCover = jpeg(200);
+        frontCover[10] = 42;
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        frames.writeBytes(frame23("APIC", apic(backCover, 4)));
+        frames.writeBytes(frame23("APIC", apic(frontCover, 3)));
+
+        Path file = writeMp3(3, frames.toByteArray());
+
+        assertArrayEquals(frontCover, AudioMetadataRetriever.getCoverImage(file));
+    }
+
+    @Test
+    void testMp3_NoPictureStopsAtEndOfTag() throws IOException {
+        Path file = writeMp3(3, frame23("TIT2", text("Song")));
+
+        assertNull(AudioMetadataRetriever.getCoverImage(file));
+    }
+
+    @Test
+    void testM4a_MoovAfterLargesizeMdat() throws IOException {
+        byte[] image = jpeg(500);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.writeBytes(new byte[] { 0, 0, 0, 13, 0, 0, 0, 0 }); // JPEG type, locale
+        data.writeBytes(image);
+        ByteArrayOutputStream meta = new ByteArrayOutputStream();
+        meta.writeBytes(new byte[4]); // Version and flags
+        meta.writeBytes(atom("hdlr", new byte[25]));
+        meta.writeBytes(atom("ilst", atom("covr", atom("data", data.toByteArray()))));
+        byte[] moov = atom("moov", atom("udta", atom("meta", meta.toByteArray())));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(atom("ftyp", "M4A mp42isom".getBytes(StandardCharsets.ISO_8859_1)));
+        // 'mdat' with a 64-bit size
+        byte[] audio = new byte[4096];
+        out.writeBytes(new byte[] { 0, 0, 0, 1, 'm', 'd', 'a', 't' });
+        long mdatSize = 16 + audio.length;
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (mdatSize >>> shift));
+        }
+        out.writeBytes(audio);
+        out.writeBytes(moov);
+        Path file = tempDir.resolve("track.m4a");
+        Files.write(file, out.toByteArray());
+
+        assertArrayEquals(image, AudioMetadataRetriever.getCoverImage(file));
+    }
+
+    @Test
+    void testFlac_PictureBlockAfterOtherBlocks() throws IOException {
+        byte[] image = jpeg(400);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes("fLaC".getBytes(StandardCharsets.ISO_8859_1));
+        out.writeBytes(flacBlock(0, false, new byte[34])); // STREAMINFO
+        out.writeBytes(flacBlock(1, false, new byte[1024])); // PADDING
+        out.writeBytes(flacBlock(6, true, flacPicture(image)));
+        out.writeBytes(new byte[] { (byte) 0xFF, (byte) 0xF8 }); // Start of the first audio frame
+        Path file = tempDir.resolve("track.flac");
+        Files.write(file, out.toByteArray());
+
+        assertArrayEquals(image, AudioMetadataRetriever.getCoverImage(file));
+    }
+
+    @Test
+    void testFlac_PrefersFrontCoverThenLargestDeclaredSize() throws IOException {
+        byte[] other = jpeg(400);
+        byte[] smallFront = jpeg(300);
+        byte[] largeFront = jpeg(350);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes("fLaC".getBytes(StandardCharsets.ISO_8859_1));
+        out.writeBytes(flacBlock(0, false, new byte[34]));
+        out.writeBytes(flacBlock(6, false, flacPicture(other, 0, 1000)));
+        out.writeBytes(flacBlock(6, false, flacPicture(smallFront, 3, 300)));
+        out.writeBytes(flacBlock(6, true, flacPicture(largeFront, 3, 600)));
+        Path file = tempDir.resolve("pictures.flac");
+        Files.write(file, out.toByteArray());
+
+        assertArrayEquals(largeFront, AudioMetadataRetriever.getCoverImage(file));
+    }
+
+    @Test
+    void testOpus_PictureCommentSpanningPages() throws IOException {
+        byte[] image = jpeg(2000);
+        String picture = Base64.getEncoder().encodeToString(flacPicture(image));
+        ByteArrayOutputStream tags = new ByteArrayOutputStream();
+        tags.writeBytes("OpusTags".getBytes(StandardCharsets.ISO_8859_1));
+        writeLittleEndian(tags, 4);
+        tags.writeBytes("test".getBytes(StandardCharsets.ISO_8859_1));
+        writeLittleEndian(tags, 2);
+        byte[] title = "TITLE=Song".getBytes(StandardCharsets.UTF_8);
+        writeLittleEndian(tags, title.length);
+        tags.writeBytes(title);
+        byte[] pictureComment = ("metadata_block_picture=" + picture).getBytes(StandardCharsets.UTF_8);
+        writeLittleEndian(tags, pictureComment.length);
+        tags.writeBytes(pictureComment);
+        byte[] tagsPacket = tags.toByteArray();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(oggPage(0, "OpusHead0123456789".getBytes(StandardCharsets.ISO_8859_1), true));
+        // Split the comment packet across two pages
+        int split = 255 * 4;
+        out.writeBytes(oggPage(1, Arrays.copyOfRange(tagsPacket, 0, split), false));
+        out.writeBytes(oggPage(2, Arrays.copyOfRange(tagsPacket, split, tagsPacket.length), true));
+        Path file = tempDir.resolve("track.opus");
+        Files.write(file, out.toByteArray());
+
+        assertArrayEquals(image, AudioMetadataRetriever.getCoverImage(file));
+    }
+
+    @Test
+    void testTags_Mp3TextFramesAfterLargePicture() throws IOException {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        // Much larger than the read window, so the frames after it need a second read
+        frames.writeBytes(frame23("APIC", apic(jpeg(100_000))));
+        frames.writeBytes(frame23("TPE1", text("The Artist")));
+        frames.writeBytes(frame23("TALB", text("The Album")));
+        frames.writeBytes(frame23("TYER", text("1999")));
+        frames.writeBytes(frame23("TCON", text("(17)")));
+        frames.writeBytes(frame23("TRCK", text("3/12")));
+        frames.writeBytes(frame23("TPOS", text("1/2")));
+        Path file = writeMp3(3, frames.toByteArray());
+
+        AudioTags tags = AudioMetadataRetriever.getTags(file);
+
+        assertEquals(new AudioTags("The Artist", null, "The Album", 1999, "Rock", 3, 12, 1, 2), tags);
+        assertEquals("The Artist", tags.effectiveAlbumArtist());
+    }
+
+    @Test
+    void testTags_ReportsBytesReadWithoutThePicture() throws IOException {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        frames.writeBytes(frame23("APIC", apic(jpeg(100_000))));
+        frames.writeBytes(frame23("TPE1", text("The Artist")));
+        Path file = writeMp3(3, frames.toByteArray());
+        long[] bytesRead = { -1 };
+
+        AudioTags tags = AudioMetadataRetriever.getTags(file, bytes -> bytesRead[0] = bytes);
+
+        assertEquals("The Artist", tags.artist());
+        assertTrue(bytesRead[0] > 0);
+        assertTrue(bytesRead[0] < 100_000);
+    }
+
+    @Test
+    void testTags_Mp3v24Utf8KeepsFirstOfSeveralValues() throws IOException {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        frames.writeBytes(frame24("TPE1", utf8Text("Bj\u00f6rk\0Someone Else")));
+        frames.writeBytes(frame24("TPE2", utf8Text("Various Artists")));
+        frames.writeBytes(frame24("TDRC", utf8Text("2001-08-27")));
+        frames.writeBytes(frame24("TCON", utf8Text("Electronic")));
+        Path file = writeMp3(4, frames.toByteArray());
+
+        AudioTags tags = AudioMetadataRetriever.getTags(file);
+
+        assertEquals("Bj\u00f6rk", tags.artist());
+        assertEquals("Various Artists", tags.effectiveAlbumArtist());
+        assertEquals(2001, tags.year());
+        assertEquals("Electronic", tags.genre());
+        assertEquals(0, tags.trackNumber());
+    }
+
+    @Test
+    void testTags_M4aItems() throws IOException {
+        ByteArrayOutputStream items = new ByteArrayOutputStream();
+        items.writeBytes(atom("\u00A9ART", mp4Data(1, "The Artist".getBytes(StandardCharsets.UTF_8))));
+        items.writeBytes(atom("aART", mp4Data(1, "Album Artist".getBytes(StandardCharsets.UTF_8))));
+        items.writeBytes(atom("\u00A9alb", mp4Data(1, "The Album".getBytes(StandardCharsets.UTF_8))));
+        items.writeBytes(atom("\u00A9day", mp4Data(1, "2004-01-01T08:00:00Z".getBytes(StandardCharsets.UTF_8))));
+        items.writeBytes(atom("gnre", mp4Data(0, new byte[] { 0, 10 }))); // One-based: Metal
+        items.writeBytes(atom("trkn", mp4Data(0, new byte[] { 0, 0, 0, 5, 0, 10, 0, 0 })));
+        items.writeBytes(atom("disk", mp4Data(0, new byte[] { 0, 0, 0, 2, 0, 2 })));
+        ByteArrayOutputStream meta = new ByteArrayOutputStream();
+        meta.writeBytes(new byte[4]);
+        meta.writeBytes(atom("hdlr", new byte[25]));
+        meta.writeBytes(atom("ilst", items.toByteArray()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(atom("ftyp", "M4A mp42isom".getBytes(StandardCharsets.ISO_8859_1)));
+        out.writeBytes(atom("moov", atom("udta", atom("meta", meta.toByteArray()))));
+        out.writeBytes(atom("mdat", new byte[1024]));
+        Path file = tempDir.resolve("tags.m4a");
+        Files.write(file, out.toByteArray());
+
+        assertEquals(new AudioTags("The Artist", "Album Artist", "The Album", 2004, "Metal", 5, 10, 2, 2),
+                AudioMetadataRetriever.getTags(file));
+    }
+
+    @Test
+    void testTags_FlacCommentBlockAfterPicture() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes("fLaC".getBytes(StandardCharsets.ISO_8859_1));
+        out.writeBytes(flacBlock(0, false, new byte[34]));
+        out.writeBytes(flacBlock(6, false, flacPicture(jpeg(50_000))));
+        out.writeBytes(flacBlock(4, true, vorbisComments("ARTIST=The Artist", "albumartist=Album Artist",
+                "ALBUM=The Album", "DATE=1975", "GENRE=Jazz", "TRACKNUMBER=7", "TRACKTOTAL=9", "DISCNUMBER=1")));
+        Path file = tempDir.resolve("tags.flac");
+        Files.write(file, out.toByteArray());
+
+        assertEquals(new AudioTags("The Artist", "Album Artist", "The Album", 1975, "Jazz", 7, 9, 1, 0),
+                AudioMetadataRetriever.getTags(file));
+    }
+
+    @Test
+    void testTags_OpusComments() throws IOException {
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        packet.writeBytes("OpusTags".getBytes(StandardCharsets.ISO_8859_1));
+        packet.writeBytes(vorbisComments("ARTIST=The Artist", "ALBUM=The Album", "TRACKNUMBER=2/5"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(oggPage(0, "OpusHead0123456789".getBytes(StandardCharsets.ISO_8859_1), true));
+        out.writeBytes(oggPage(1, packet.toByteArray(), true));
+        Path file = tempDir.resolve("tags.opus");
+        Files.write(file, out.toByteArray());
+
+        AudioTags tags = AudioMetadataRetriever.getTags(file);
+
+        assertEquals("The Artist", tags.artist());
+        assertEquals("The Album", tags.album());
+        assertEquals(2, tags.trackNumber());
+        assertEquals(5, tags.trackCount());
+    }
+
+    @Test
+    void testTags_RepeatedStringsAreShared() throws IOException {
+        Path first = writeMp3(3, frame23("TPE1", text("Shared Artist")));
+        Path second = tempDir.resolve("second.mp3");
+        Files.copy(first, second);
+
+        assertSame(AudioMetadataRetriever.getTags(first).artist(), AudioMetadataRetriever.getTags(second).artist());
+    }
+
+    @Test
+    void testTags_FileWithoutTagsIsEmpty() throws IOException {
+        Path file = tempDir.resolve("plain.mp3");
+        Files.write(file, new byte[] { (byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x64, 0, 0, 0, 0 });
+
+        assertEquals(AudioTags.EMPTY, AudioMetadataRetriever.getTags(file));
+    }
+
+    @Test
+    void testDuration_Mp3ConstantBitrateFromFileSize() throws IOException {
+        // 100 frames of 417 bytes at 128 kbit/s
+        Path file = writeMp3(3, frame23("TIT2", text("Song")));
+
+        assertEquals(417 * 100 * 8 / 128, AudioMetadataRetriever.getDurationMillis(file));
+    }
+
+    @Test
+    void testDuration_Mp3XingFrameCountLessLameDelayAndPadding() throws IOException {
+        ByteBuffer info = ByteBuffer.allocate(413);
+        info.position(32); // Side information of an MPEG-1 stereo frame
+        info.put("Xing".getBytes(StandardCharsets.ISO_8859_1));
+        info.putInt(0x3); // Frame count and byte count present
+        info.putInt(1000);
+        info.putInt(417 * 1000);
+        info.put("LAME3.100".getBytes(StandardCharsets.ISO_8859_1));
+        info.position(info.position() + 12);
+        info.put((byte) (576 >>> 4)).put((byte) (((576 & 0xF) << 4) | (1000 >>> 8))).put((byte) 1000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[] { (byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x64 });
+        out.writeBytes(info.array());
+        for (int i = 0; i < 3; i++) {
+            out.writeBytes(new byte[] { (byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x64 });
+            out.writeBytes(new byte[413]);
+        }
+        Path file = tempDir.resolve("vbr.mp3");
+        Files.write(file, out.toByteArray());
+
+        assertEquals((1000 * 1152 - 576 - 1000) * 1000L / 44100, AudioMetadataRetriever.getDurationMillis(file));
+    }
+
+    @Test
+    void testDuration_FlacStreamInfo() throws IOException {
+        ByteBuffer streamInfo = ByteBuffer.allocate(34);
+        long samples = 44100L * 185 + 22050;
+        streamInfo.putLong(10, (44100L << 44) | (1L << 41) | (15L << 36) | samples);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes("fLaC".getBytes(StandardCharsets.ISO_8859_1));
+        out.writeBytes(flacBlock(0, true, streamInfo.array()));
+        Path file = tempDir.resolve("duration.flac");
+        Files.write(file, out.toByteArray());
+
+        assertEquals(185_500, AudioMetadataRetriever.getDurationMillis(file));
+    }
+
+    @Test
+    void testDuration_M4aMovieHeader() throws IOException {
+        ByteBuffer mvhd = ByteBuffer.allocate(100);
+        mvhd.putInt(12, 44100); // Time scale, after version, flags and two timestamps
+        mvhd.putInt(16, 44100 * 90);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(atom("ftyp", "M4A mp42isom".getBytes(StandardCharsets.ISO_8859_1)));
+        out.writeBytes(atom("moov", atom("mvhd", mvhd.array())));
+        out.writeBytes(atom("mdat", new byte[4096]));
+        Path file = tempDir.resolve("duration.m4a");
+        Files.write(file, out.toByteArray());
+
+        assertEquals(90_000, AudioMetadataRetriever.getDurationMillis(file));
+    }
+
+    @Test
+    void testDuration_OggVorbisLastGranulePosition() throws IOException {
+        ByteBuffer identification = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+        identification.put((byte) 1).put("vorbis".getBytes(StandardCharsets.ISO_8859_1));
+        identification.putInt(0).put((byte) 2).putInt(48000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(oggPage(0, identification.array(), true));
+        // Enough audio that the last page is far from the first
+        for (int i = 1; i <= 20; i++) {
+            out.writeBytes(oggPage(i, new byte[8000], true, 48000L * 6 * i));
+        }
+        Path file = tempDir.resolve("duration.ogg");
+        Files.write(file, out.toByteArray());
+
+        assertEquals(120_000, AudioMetadataRetriever.getDurationMillis(file));
+    }
+
+    @Test
+    void testDuration_OpusLessPreSkip() throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(19).order(ByteOrder.LITTLE_ENDIAN);
+        head.put("OpusHead".getBytes(StandardCharsets.ISO_8859_1)).put((byte) 1).put((byte) 2);
+        head.putShort((short) 312).putInt(44100);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(oggPage(0, head.array(), true));
+        out.writeBytes(oggPage(1, new byte[500], true, 48000L * 60 + 312));
+        Path file = tempDir.resolve("duration.opus");
+        Files.write(file, out.toByteArray());
+
+        assertEquals(60_000, AudioMetadataRetriever.getDurationMillis(file));
+    }
+
+    @Test
+    void testDuration_WavDataChunk() throws IOException {
+        Path file = tempDir.resolve("duration.wav");
+        Files.write(file, wav(176400 * 3));
+
+        assertEquals(3000, AudioMetadataRetriever.getDurationMillis(file));
+    }
+
+    @Test
+    void testDuration_UnknownForUnrecognizedContent() throws IOException {
+        Path file = tempDir.resolve("noise.flac");
+        Files.write(file, new byte[1000]);
+
+        assertEquals(-1, AudioMetadataRetriever.getDurationMillis(file));
+    }
+
+    /**
+     * @return a WAV file of 16-bit stereo audio at 44.1 kHz, 176400 bytes per second
+     */
+    static byte[] wav(int dataSize) {
+        ByteBuffer out = ByteBuffer.allocate(44 + dataSize).order(ByteOrder.LITTLE_ENDIAN);
+        out.put("RIFF".getBytes(StandardCharsets.ISO_8859_1)).putInt(36 + dataSize);
+        out.put("WAVEfmt ".getBytes(StandardCharsets.ISO_8859_1)).putInt(16);
+        out.putShort((short) 1).putShort((short) 2).putInt(44100).putInt(176400).putShort((short) 4).putShort((short) 16);
+        out.put("data".getBytes(StandardCharsets.ISO_8859_1)).putInt(dataSize);
+        return out.array();
+    }
+
+    private static byte[] flacBlock(int type, boolean last, byte[] content) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write((last ? 0x80 : 0) | type);
+        out.write(content.length >>> 16);
+        out.write(content.length >>> 8);
+        out.write(content.length);
+        out.writeBytes(content);
+        return out.toByteArray();
+    }
+
+    private static byte[] flacPicture(byte[] image) {
+        return flacPicture(image, 3, 500);
+    }
+
+    private static byte[] flacPicture(byte[] image, int pictureType, int size) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] mime = "image/jpeg".getBytes(StandardCharsets.ISO_8859_1);
+        writeBigEndian(out, pictureType);
+        writeBigEndian(out, mime.length);
+        out.writeBytes(mime);
+        writeBigEndian(out, 0);
+        writeBigEndian(out, size);
+        writeBigEndian(out, size);
+        writeBigEndian(out, 24);
+        writeBigEndian(out, 0);
+        writeBigEndian(out, image.length);
+        out.writeBytes(image);
+        return out.toByteArray();
+    }
+
+    /**
+     * Builds an Ogg page holding the given data, which ends a packet only if {@code endsPacket} is set.
+     */
+    private static byte[] oggPage(int sequence, byte[] data, boolean endsPacket) {
+        return oggPage(sequence, data, endsPacket, 0);
+    }
+
+    private static byte[] oggPage(int sequence, byte[] data, boolean endsPacket, long granule) {
+        ByteArrayOutputStream lacing = new ByteArrayOutputStream();
+        int remaining = data.length;
+        while (remaining >= 255) {
+            lacing.write(255);
+            remaining -= 255;
+        }
+        if (endsPacket) {
+            lacing.write(remaining);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes("OggS".getBytes(StandardCharsets.ISO_8859_1));
+        out.write(0);
+        out.write(sequence == 0 ? 2 : 0);
+        out.writeBytes(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(granule).array());
+        writeLittleEndian(out, 1234); // Serial number
+        writeLittleEndian(out, sequence);
+        writeLittleEndian(out, 0); // CRC, not checked by the reader
+        out.write(lacing.size());
+        out.writeBytes(lacing.toByteArray());
+        out.writeBytes(data);
+        return out.toByteArray();
+    }
+
+    private static void writeBigEndian(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeLittleEndian(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private static byte[] atom(String type, byte[] content) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int size = content.length + 8;
+        out.write(size >>> 24);
+        out.write(size >>> 16);
+        out.write(size >>> 8);
+        out.write(size);
+        out.writeBytes(type.getBytes(StandardCharsets.ISO_8859_1));
+        out.writeBytes(content);
+        return out.toByteArray();
+    }
+
+    private Path writeMp3(int version, byte[] frames) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes("ID3".getBytes(StandardCharsets.ISO_8859_1));
+        out.write(version);
+        out.write(0);
+        out.write(0);
+        int size = frames.length + 64; // Some padding after the frames
+        out.writeBytes(syncsafe(size));
+        out.writeBytes(frames);
+        out.writeBytes(new byte[64]);
+        // Audio frames that the old parser would have walked as tag frames
+        for (int i = 0; i < 100; i++) {
+            out.writeBytes(new byte[] { (byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x64 });
+            out.writeBytes(new byte[413]);
+        }
+        Path file = tempDir.resolve("track" + version + ".mp3");
+        Files.write(file, out.toByteArray());
+        return file;
+    }
+
+    private static byte[] frame23(String id, byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(id.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(data.length >>> 24);
+        out.write(data.length >>> 16);
+        out.write(data.length >>> 8);
+        out.write(data.length);
+        out.write(0);
+        out.write(0);
+        out.writeBytes(data);
+        return out.toByteArray();
+    }
+
+    private static byte[] frame24(String id, byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(id.getBytes(StandardCharsets.ISO_8859_1));
+        out.writeBytes(syncsafe(data.length));
+        out.write(0);
+        out.write(0);
+        out.writeBytes(data);
+        return out.toByteArray();
+    }
+
+    private static byte[] syncsafe(int value) {
+        return new byte[] { (byte) ((value >> 21) & 0x7F), (byte) ((value >> 14) & 0x7F),
+                (byte) ((value >> 7) & 0x7F), (byte) (value & 0x7F) };
+    }
+
+    private static byte[] text(String value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0);
+        out.writeBytes(value.getBytes(StandardCharsets.ISO_8859_1));
+        return out.toByteArray();
+    }
+
+    private static byte[] utf8Text(String value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(3);
+        out.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
+    private static byte[] mp4Data(int type, byte[] value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeBigEndian(out, type);
+        writeBigEndian(out, 0); // Locale
+        out.writeBytes(value);
+        return atom("data", out.toByteArray());
+    }
+
+    private static byte[] vorbisComments(String... comments) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeLittleEndian(out, 4);
+        out.writeBytes("test".getBytes(StandardCharsets.ISO_8859_1));
+        writeLittleEndian(out, comments.length);
+        for (String comment : comments) {
+            byte[] bytes = comment.getBytes(StandardCharsets.UTF_8);
+            writeLittleEndian(out, bytes.length);
+            out.writeBytes(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] apic(byte[] image) {
+        return apic(image, 3);
+    }
+
+    private static byte[] apic(byte[] image, int pictureType) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(1); // UTF-16 description
+        out.writeBytes("image/jpeg".getBytes(StandardCharsets.ISO_8859_1));
+        out.write(0);
+        out.write(pictureType);
+        out.writeBytes("Cover".getBytes(StandardCharsets.UTF_16));
+        out.write(0);
+        out.write(0);
+        out.writeBytes(image);
+        return out.toByteArray();
+    }
+
+    private static byte[] jpeg(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 7);
+        }
+        data[0] = (byte) 0xFF;
+        data[1] = (byte) 0xD8;
+        data[2] = (byte) 0xFF;
+        data[length - 2] = (byte) 0xFF;
+        data[length - 1] = (byte) 0xD9;
+        return data;
+    }
+}
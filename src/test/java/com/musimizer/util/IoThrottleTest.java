@@ -0,0 +1,30 @@
+package com.musimizer.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class IoThrottleTest {
+
+    @Test
+    void testAcquire_WithoutLimitNeverWaits() throws InterruptedException {
+        IoThrottle throttle = new IoThrottle(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            throttle.acquire(100L * 1024 * 1024);
+        }
+        assertTrue(System.nanoTime() - start < 1_000_000_000L);
+    }
+
+    @Test
+    void testAcquire_WaitsForEarlierReadsAtTheConfiguredRate() throws InterruptedException {
+        IoThrottle throttle = new IoThrottle(1024 * 1024);
+        long start = System.nanoTime();
+        // The first read is free; the next two wait for the 256 KB before them, 250 ms each
+        throttle.acquire(256 * 1024);
+        throttle.acquire(256 * 1024);
+        throttle.acquire(256 * 1024);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(elapsedMillis >= 450, "elapsed " + elapsedMillis + " ms");
+    }
+}
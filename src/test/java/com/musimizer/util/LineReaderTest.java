@@ -0,0 +1,53 @@
+package com.musimizer.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+class LineReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testForEachLine_SkipsBomAndEmptyLinesAndStripsCarriageReturns() throws IOException {
+        Path file = tempDir.resolve("list.txt");
+        Files.write(file, new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF, 'A', '\r', '\n', '\n', 'B', '/', 'C' });
+        List<String> lines = new ArrayList<>();
+
+        int count = LineReader.forEachLine(file, (lineNumber, line) -> lines.add(lineNumber + ":" + line));
+
+        assertEquals(List.of("1:A", "3:B/C"), lines);
+        assertEquals(3, count);
+    }
+
+    @Test
+    void testForEachLine_ReportsMalformedLinesAndGoesOn() throws IOException {
+        Path file = tempDir.resolve("list.txt");
+        Files.write(file, new byte[] { 'A', '\n', (byte) 0xC3, '\n', 'B', '\n' });
+        List<String> lines = new ArrayList<>();
+        List<Integer> malformed = new ArrayList<>();
+
+        LineReader.forEachLine(file, new LineReader.LineHandler() {
+            @Override
+            public void line(int lineNumber, String line) {
+                lines.add(line);
+            }
+
+            @Override
+            public void malformed(int lineNumber, String reason) {
+                malformed.add(lineNumber);
+            }
+        });
+
+        assertEquals(List.of("A", "B"), lines);
+        assertEquals(List.of(2), malformed);
+    }
+}
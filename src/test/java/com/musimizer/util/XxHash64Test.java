@@ -0,0 +1,47 @@
+package com.musimizer.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class XxHash64Test {
+
+    private static long hash(String text) {
+        return XxHash64.hash(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void testHash_MatchesReferenceValues() {
+        assertEquals(0xEF46DB3751D8E999L, hash(""));
+        assertEquals(0xD24EC4F1A98C6E5BL, hash("a"));
+        assertEquals(0x44BC2CF5AD770999L, hash("abc"));
+        // Long enough to go through the 32-byte stripes and every tail step
+        assertEquals(0xFBCEA83C8A378BF1L, hash("Nobody inspects the spammish repetition"));
+    }
+
+    @Test
+    void testHash_OfSliceEqualsHashOfCopy() {
+        byte[] data = new byte[300];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31 + 7);
+        }
+        for (int length = 0; length <= 100; length++) {
+            byte[] copy = Arrays.copyOfRange(data, 13, 13 + length);
+            assertEquals(XxHash64.hash(copy), XxHash64.hash(data, 13, length, 0), "length " + length);
+        }
+    }
+
+    @Test
+    void testHash_DependsOnEveryByte() {
+        byte[] data = new byte[64];
+        long original = XxHash64.hash(data);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = 1;
+            assertNotEquals(original, XxHash64.hash(data), "byte " + i);
+            data[i] = 0;
+        }
+    }
+}